@@ -0,0 +1,344 @@
+package hr.zemris.java.custom.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A hashed timing wheel: a circular array of slots, each holding a list of
+ * the timeouts which are due in the ticks mapped to it. Scheduling,
+ * rescheduling and cancelling a timeout take constant time, and advancing
+ * the wheel only visits the slots of the elapsed ticks, instead of all
+ * timeouts.
+ * <p>
+ * The wheel does not keep time by itself: it is advanced by calling
+ * {@link #advance(long, Consumer)}, and all times are given in the caller's
+ * unit, for example in milliseconds or seconds. Timeouts expire no earlier
+ * than their deadline and at most one tick late, once the wheel is
+ * advanced. The wheel is thread-safe.
+ * <p>
+ * Only the thread which advances the wheel touches its slots. Scheduling,
+ * rescheduling and cancelling a timeout just update the timeout and queue
+ * it, without locking, and the queued timeouts are moved to their slots 
+ * at the start of the next advance. Threads which extend timeouts, like
+ * request threads, therefore never contend for the wheel.
+ * @author 0036502252
+ *
+ * @param <T> type of the values whose timeouts are kept
+ */
+public class TimingWheel<T> {
+	/**
+	 * Duration of a tick.
+	 */
+	private final long tickDuration;
+	/**
+	 * Time of tick zero.
+	 */
+	private final long startTime;
+	/**
+	 * The slots, each the first timeout of its list or <code>null</code>.
+	 * The number of slots is a power of two.
+	 */
+	private final Timeout<T>[] slots;
+	/**
+	 * Mask which maps a tick to its slot.
+	 */
+	private final int mask;
+	/**
+	 * The last tick whose timeouts expired.
+	 */
+	private long currentTick;
+	/**
+	 * Number of timeouts in the slots.
+	 */
+	private int size;
+	/**
+	 * Timeouts which were scheduled, rescheduled or cancelled since the
+	 * last advance.
+	 */
+	private final Queue<Timeout<T>> pending = new ConcurrentLinkedQueue<>();
+	/**
+	 * Guards the slots and the timeouts' positions in them, held by the
+	 * thread which advances the wheel.
+	 */
+	private final Lock lock = new ReentrantLock();
+
+	/**
+	 * Constructs a new {@link TimingWheel}.
+	 * @param tickDuration duration of a tick
+	 * @param slots number of slots, rounded up to a power of two. A wheel
+	 * with more slots visits fewer timeouts which are not due yet.
+	 * @param startTime the current time
+	 * @throws IllegalArgumentException if the duration or the number of
+	 * slots is not positive
+	 */
+	public TimingWheel(long tickDuration, int slots, long startTime) {
+		if(tickDuration < 1 || slots < 1 || slots > 1 << 30) {
+			throw new IllegalArgumentException(
+					"Invalid tick duration or slot count: "
+					+ tickDuration + ", " + slots
+			);
+		}
+		int count = Integer.highestOneBit(slots);
+		if(count < slots) {
+			count <<= 1;
+		}
+		this.tickDuration = tickDuration;
+		this.startTime = startTime;
+		@SuppressWarnings("unchecked")
+		Timeout<T>[] array = (Timeout<T>[]) new Timeout<?>[count];
+		this.slots = array;
+		this.mask = count - 1;
+	}
+
+	/**
+	 * Schedules a new timeout.
+	 * @param value the value which expires
+	 * @param deadline time at which the value expires
+	 * @return the timeout, which can be rescheduled or cancelled
+	 */
+	public Timeout<T> schedule(T value, long deadline) {
+		Timeout<T> timeout = new Timeout<>(this, value);
+		timeout.reschedule(deadline);
+		return timeout;
+	}
+
+	/**
+	 * Moves the timeouts changed since the last advance to their slots, 
+	 * and expires all timeouts whose deadline passed. The action is called
+	 * for each of their values after the wheel is updated, without holding
+	 * its lock, so it may schedule or reschedule timeouts.
+	 * @param now the current time
+	 * @param action called for the value of every expired timeout
+	 * @return the number of expired timeouts
+	 */
+	public int advance(long now, Consumer<? super T> action) {
+		List<T> expired = new ArrayList<>();
+		lock.lock();
+		try {
+			applyPending();
+			
+			long targetTick = tickOf(now);
+			//every slot is visited at most once, however long the gap
+			long lastTick = Math.min(targetTick, currentTick + slots.length);
+			for(long tick = currentTick + 1; tick <= lastTick; tick++) {
+				Timeout<T> timeout = slots[(int) (tick & mask)];
+				while(timeout != null) {
+					Timeout<T> next = timeout.next;
+					//a timeout changed meanwhile is left to the next advance
+					if(timeout.deadlineTick <= targetTick && !timeout.queued.get()) {
+						unlink(timeout);
+						if(timeout.active.compareAndSet(true, false)) {
+							expired.add(timeout.value);
+						}
+					}
+					timeout = next;
+				}
+			}
+			currentTick = Math.max(currentTick, targetTick);
+		} finally {
+			lock.unlock();
+		}
+
+		for(T value : expired) {
+			action.accept(value);
+		}
+		return expired.size();
+	}
+
+	/**
+	 * @return the number of timeouts in the wheel's slots, which does not
+	 * include the changes made since the last advance
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Moves every queued timeout to the slot of its current deadline, or
+	 * out of the wheel if it was cancelled. Must be called with the lock 
+	 * held.
+	 */
+	private void applyPending() {
+		Timeout<T> timeout;
+		while((timeout = pending.poll()) != null) {
+			//cleared first, so a change made from now on queues it again
+			timeout.queued.set(false);
+			if(timeout.linked) {
+				unlink(timeout);
+			}
+			if(timeout.active.get()) {
+				link(timeout, timeout.deadline);
+			}
+		}
+	}
+
+	/**
+	 * Queues a changed timeout for the next advance, unless it is queued
+	 * already.
+	 * @param timeout the timeout
+	 */
+	private void enqueue(Timeout<T> timeout) {
+		if(!timeout.queued.getAndSet(true)) {
+			pending.add(timeout);
+		}
+	}
+
+	/**
+	 * @param time a time
+	 * @return the last tick which starts no later than the given time
+	 */
+	private long tickOf(long time) {
+		return Math.floorDiv(time - startTime, tickDuration);
+	}
+
+	/**
+	 * Adds a timeout to the slot of its deadline. Must be called with the
+	 * lock held.
+	 * @param timeout the timeout, which is not in a slot
+	 * @param deadline time at which it expires
+	 */
+	private void link(Timeout<T> timeout, long deadline) {
+		//a deadline within the current tick expires on the next one
+		long tick = tickOf(deadline + tickDuration - 1);
+		timeout.deadlineTick = Math.max(tick, currentTick + 1);
+		int slot = (int) (timeout.deadlineTick & mask);
+		timeout.slot = slot;
+		timeout.prev = null;
+		timeout.next = slots[slot];
+		if(timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		slots[slot] = timeout;
+		timeout.linked = true;
+		size++;
+	}
+
+	/**
+	 * Removes a timeout from its slot. Must be called with the lock held.
+	 * @param timeout the timeout, which is in a slot
+	 */
+	private void unlink(Timeout<T> timeout) {
+		if(timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			slots[timeout.slot] = timeout.next;
+		}
+		if(timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.linked = false;
+		size--;
+	}
+
+	/**
+	 * A value's timeout in a {@link TimingWheel}.
+	 * @author 0036502252
+	 *
+	 * @param <T> type of the value
+	 */
+	public static class Timeout<T> {
+		/**
+		 * The wheel.
+		 */
+		private final TimingWheel<T> wheel;
+		/**
+		 * The value which expires.
+		 */
+		private final T value;
+		/**
+		 * Time at which the value expires, as last requested.
+		 */
+		private volatile long deadline;
+		/**
+		 * Indicates whether this timeout is scheduled, that is neither 
+		 * expired nor cancelled.
+		 */
+		private final AtomicBoolean active = new AtomicBoolean();
+		/**
+		 * Indicates whether this timeout waits in the wheel's queue of 
+		 * changed timeouts.
+		 */
+		private final AtomicBoolean queued = new AtomicBoolean();
+		/**
+		 * The tick at which the value expires. Guarded by the wheel's lock,
+		 * like the rest of the fields.
+		 */
+		private long deadlineTick;
+		/**
+		 * The slot which holds this timeout.
+		 */
+		private int slot;
+		/**
+		 * Indicates whether this timeout is in a slot.
+		 */
+		private boolean linked;
+		/**
+		 * The previous timeout in the slot.
+		 */
+		private Timeout<T> prev;
+		/**
+		 * The next timeout in the slot.
+		 */
+		private Timeout<T> next;
+
+		/**
+		 * Constructs a new {@link Timeout}.
+		 * @param wheel the wheel
+		 * @param value the value which expires
+		 */
+		private Timeout(TimingWheel<T> wheel, T value) {
+			this.wheel = wheel;
+			this.value = value;
+		}
+
+		/**
+		 * @return the value which expires
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		/**
+		 * Moves this timeout to a new deadline. A cancelled or expired
+		 * timeout is scheduled again. The wheel applies the change when
+		 * it is advanced next, so a timeout rescheduled while the wheel is
+		 * being advanced may still expire at its previous deadline.
+		 * @param deadline time at which the value expires
+		 */
+		public void reschedule(long deadline) {
+			this.deadline = deadline;
+			active.set(true);
+			wheel.enqueue(this);
+		}
+
+		/**
+		 * Cancels this timeout, unless it already expired.
+		 * @return true if the timeout was scheduled
+		 */
+		public boolean cancel() {
+			if(!active.getAndSet(false)) return false;
+			wheel.enqueue(this);
+			return true;
+		}
+
+		/**
+		 * @return true if this timeout neither expired nor was cancelled
+		 */
+		public boolean isScheduled() {
+			return active.get();
+		}
+	}
+}
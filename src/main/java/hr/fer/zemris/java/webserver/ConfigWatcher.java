@@ -0,0 +1,138 @@
+package hr.fer.zemris.java.webserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches configuration files and reloads each one which changes, on its
+ * own background thread.
+ * <p>
+ * Editors often save a file in several steps, or replace it by renaming a
+ * new file over it, so the changes are collected until the files were
+ * quiet for a moment, and every changed file is then reloaded once. A
+ * reload is expected to validate the new configuration and to keep the
+ * old one if it is invalid.
+ * @author 0036502252
+ *
+ */
+public class ConfigWatcher implements Closeable {
+	/**
+	 * Time for which the files must be quiet before they are reloaded, in
+	 * milliseconds.
+	 */
+	private static final long QUIET_MILLIS = 200;
+
+	/**
+	 * Notifies the watcher about changes in the files' directories.
+	 */
+	private WatchService watchService;
+	/**
+	 * Reloads of the watched files, by their directories and names.
+	 */
+	private Map<Path, Map<Path, Runnable>> reloads = new HashMap<>();
+
+	/**
+	 * Constructs a new {@link ConfigWatcher}.
+	 * @throws IOException if the file system cannot be watched
+	 */
+	public ConfigWatcher() throws IOException {
+		watchService = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Watches a file. Must be called before the watcher is started.
+	 * @param file the file
+	 * @param reload reloads the file when it changes
+	 * @throws IOException if the file's directory cannot be watched
+	 */
+	public void watch(Path file, Runnable reload) throws IOException {
+		file = file.toAbsolutePath().normalize();
+		Path directory = file.getParent();
+		if(!reloads.containsKey(directory)) {
+			directory.register(watchService, 
+					StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_MODIFY);
+			reloads.put(directory, new HashMap<>());
+		}
+		reloads.get(directory).put(file.getFileName(), reload);
+	}
+
+	/**
+	 * Starts watching the files.
+	 */
+	public void start() {
+		Thread watcher = new Thread(this::run, "config-watcher");
+		watcher.setDaemon(true);
+		watcher.start();
+	}
+
+	/**
+	 * Stops watching the files.
+	 */
+	@Override
+	public void close() throws IOException {
+		watchService.close();
+	}
+
+	/**
+	 * Waits for changes and reloads the changed files, until the watcher
+	 * is closed.
+	 */
+	private void run() {
+		try {
+			while(true) {
+				Set<Runnable> changed = new LinkedHashSet<>();
+				WatchKey key = watchService.take();
+				while(key != null) {
+					collect(key, changed);
+					key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				for(Runnable reload : changed) {
+					try {
+						reload.run();
+					} catch (RuntimeException ex) {
+						System.out.println("Error reloading configuration: " + ex);
+					}
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException ex) {
+			return;
+		}
+	}
+
+	/**
+	 * Collects the reloads of the files changed according to a key.
+	 * @param key the key
+	 * @param changed the reloads of the changed files
+	 */
+	private void collect(WatchKey key, Set<Runnable> changed) {
+		Map<Path, Runnable> files = reloads.get((Path) key.watchable());
+		for(WatchEvent<?> event : key.pollEvents()) {
+			if(event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				//events were lost, so any of the files may have changed
+				if(files != null) {
+					changed.addAll(files.values());
+				}
+				continue;
+			}
+			Object context = event.context();
+			Runnable reload = files == null ? null : files.get(context);
+			if(reload != null) {
+				changed.add(reload);
+			}
+		}
+		key.reset();
+	}
+}
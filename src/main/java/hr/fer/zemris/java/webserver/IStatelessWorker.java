@@ -0,0 +1,11 @@
+package hr.fer.zemris.java.webserver;
+
+/**
+ * A worker which keeps no state between requests, so a single instance
+ * can process any number of requests at once. The server instantiates such
+ * a worker once, instead of once for every request.
+ * @author 0036502252
+ *
+ */
+public interface IStatelessWorker extends IWebWorker {
+}
@@ -1,14 +1,20 @@
 package hr.fer.zemris.java.webserver;
 
-import hr.zemris.java.custom.collections.Collection;
+import hr.fer.zemris.java.webserver.http.RequestHeader;
+import hr.fer.zemris.java.webserver.io.BufferPool;
+import hr.fer.zemris.java.webserver.io.ChunkedOutputStream;
+import hr.fer.zemris.java.webserver.io.ITransferTarget;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -47,9 +53,37 @@ public class RequestContext {
 	public String mimeType = DEFAULT_MIME_TYPE;
 
 	/**
-	 * Flag which indicates whether the header has been generated.
+	 * Flag which indicates whether the header has been generated. Once it
+	 * is set, the header's fields can no longer be changed, although a
+	 * buffered response's header may not be written yet.
 	 */
 	private boolean headerGenerated;
+	/**
+	 * Flag which indicates whether the header has been written to the 
+	 * output stream, or to the front of the response buffer.
+	 */
+	private boolean headerWritten;
+	/**
+	 * The response buffer, or <code>null</code> if the response is not
+	 * buffered.
+	 */
+	private byte[] buffer;
+	/**
+	 * Number of bytes in the response buffer.
+	 */
+	private int count;
+	/**
+	 * Indicates whether the connection stays open after this response.
+	 */
+	private boolean keepAlive;
+	/**
+	 * Indicates whether the client accepts the chunked transfer encoding.
+	 */
+	private boolean chunkedAllowed;
+	/**
+	 * The stream which frames the body, if the chunked encoding is used.
+	 */
+	private ChunkedOutputStream chunkedStream;
 
 	/**
 	 * This context's dispatcher.
@@ -72,6 +106,23 @@ public class RequestContext {
 	 * This request context's cookies.
 	 */
 	private List<RCCookie> outputCookies;
+	/**
+	 * The request's header, or <code>null</code> if the context was not
+	 * created for a request received by the server.
+	 */
+	private RequestHeader requestHeader;
+	/**
+	 * Additional header fields of the response, by name.
+	 */
+	private Map<String, String> outputHeaders = new LinkedHashMap<>();
+	/**
+	 * Called right before the header is written, or <code>null</code>.
+	 */
+	private Runnable headerListener;
+	/**
+	 * Number of bytes of the header and the body written so far.
+	 */
+	private long bytesWritten;
 
 	/**
 	 * Default encoding used.
@@ -90,6 +141,17 @@ public class RequestContext {
 	 * The default mime type used.
 	 */
 	private static final String DEFAULT_MIME_TYPE = "text/html";
+	/**
+	 * Size of the response buffers. Responses which fit are sent with an 
+	 * exact content length, in one write; longer ones are sent in chunks of
+	 * this size.
+	 */
+	private static final int RESPONSE_BUFFER_SIZE = 16 * 1024;
+	/**
+	 * Response buffers which are not in use.
+	 */
+	private static final BufferPool BUFFER_POOL = 
+			new BufferPool(RESPONSE_BUFFER_SIZE, 256);
 	
 	/**
 	 * Length of the content which is dispatched.
@@ -160,6 +222,46 @@ public class RequestContext {
 	
 	}
 
+	/**
+	 * Gets the value of a request header field. Field names are not 
+	 * case-sensitive.
+	 * @param name the field's name
+	 * @return the value of the first field with the given name, or 
+	 * <code>null</code> if there is none
+	 */
+	public String getHeader(String name) {
+		return requestHeader == null ? null : requestHeader.getHeader(name);
+	}
+
+	/**
+	 * Gets the values of all request header fields with the given name. 
+	 * Field names are not case-sensitive.
+	 * @param name the fields' name
+	 * @return unmodifiable list of the values, in the order they were sent
+	 */
+	public List<String> getHeaders(String name) {
+		if (requestHeader == null) return Collections.emptyList();
+		return Collections.unmodifiableList(requestHeader.getHeaders(name));
+	}
+
+	/**
+	 * Sets the header of the request this context responds to.
+	 * @param requestHeader the request's header
+	 */
+	void setRequestHeader(RequestHeader requestHeader) {
+		this.requestHeader = requestHeader;
+	}
+
+	/**
+	 * Sets an action which is called right before the header is written,
+	 * while cookies can still be added to it. For a buffered response, 
+	 * that is once the response is finished or overflows the buffer.
+	 * @param headerListener the action
+	 */
+	void setHeaderListener(Runnable headerListener) {
+		this.headerListener = headerListener;
+	}
+
 	/**
 	 * @param name the name of the required parameter
 	 * @return the parameter mapped to given name
@@ -244,9 +346,7 @@ public class RequestContext {
 	 * @throws IOException if writing goes awry
 	 */
 	public RequestContext write(byte[] data) throws IOException {
-		generateHeader();
-		
-		outputStream.write(data);
+		writeBody(data, 0, data.length);
 		return this;
 	}
 	
@@ -259,7 +359,8 @@ public class RequestContext {
 	public RequestContext write(String text) throws IOException {
 		generateHeader();
 
-		outputStream.write(text.getBytes(charset));
+		byte[] data = text.getBytes(charset);
+		writeBody(data, 0, data.length);
 		return this;
 	}
 	
@@ -272,17 +373,241 @@ public class RequestContext {
 	 * @throws IOException if writing goes awry
 	 */
 	 public RequestContext write(byte[] data, int offset, int len) throws IOException{
-		 generateHeader();
-
-		 outputStream.write(data, offset, len);
+		 writeBody(data, offset, len);
 		 return this;
 	 }
 
 	/**
-	 * Generates a HTTP header if none was generated prior.
+	 * Writes given data to the response buffer, or directly to the output
+	 * stream if the response is not buffered. Once the buffer overflows, 
+	 * the header is written and the buffer is flushed; data at least as 
+	 * large as the buffer bypasses it.
+	 * @param data the data to be written
+	 * @param offset the start offset in the data 
+	 * @param len the number of bytes to write
+	 * @throws IOException if writing goes awry
+	 */
+	private void writeBody(byte[] data, int offset, int len) throws IOException {
+		generateHeader();
+		bytesWritten += len;
+		if (buffer == null) {
+			outputStream.write(data, offset, len);
+			return;
+		}
+		
+		if (count + len > buffer.length) {
+			writeHeader();
+			flushBuffer();
+			if (len >= buffer.length) {
+				outputStream.write(data, offset, len);
+				return;
+			}
+		}
+		System.arraycopy(data, offset, buffer, count, len);
+		count += len;
+	}
+
+	/**
+	 * Writes the header and everything buffered so far to the output 
+	 * stream, so that data which bypasses the buffer follows it.
+	 * @throws IOException if writing goes awry
+	 */
+	private void commit() throws IOException {
+		generateHeader();
+		if (buffer == null) return;
+		writeHeader();
+		flushBuffer();
+	}
+
+	/**
+	 * Writes the contents of the response buffer to the output stream.
+	 * @throws IOException if writing goes awry
+	 */
+	private void flushBuffer() throws IOException {
+		if (count == 0) return;
+		outputStream.write(buffer, 0, count);
+		count = 0;
+	}
+
+	/**
+	 * Writes a region of a file to the context's output stream. If the
+	 * stream supports it, the region is sent directly from the file 
+	 * channel to the client connection, without copying it through user 
+	 * space; otherwise it is copied through a buffer.
+	 * @param source the file channel
+	 * @param position position of the first byte in the file
+	 * @param count number of bytes to write
+	 * @return this context
+	 * @throws IOException if writing goes awry
+	 */
+	public RequestContext write(FileChannel source, long position, long count)
+			throws IOException {
+		commit();
+		bytesWritten += count;
+		
+		if (outputStream instanceof ITransferTarget) {
+			((ITransferTarget) outputStream).transferFrom(source, position, count);
+		} else {
+			ITransferTarget.copy(source, position, count, outputStream);
+		}
+		return this;
+	}
+
+	/**
+	 * Writes the remaining bytes of a buffer to the context's output stream.
+	 * If the stream supports it, direct buffers are sent to the client
+	 * connection without copying them to the heap first. The buffer's
+	 * position is advanced to its limit.
+	 * @param buffer the buffer
+	 * @return this context
+	 * @throws IOException if writing goes awry
+	 */
+	public RequestContext write(ByteBuffer buffer) throws IOException {
+		commit();
+		bytesWritten += buffer.remaining();
+
+		if (outputStream instanceof ITransferTarget) {
+			((ITransferTarget) outputStream).writeBuffer(buffer);
+		} else {
+			ITransferTarget.copy(buffer, outputStream);
+		}
+		return this;
+	}
+
+	/**
+	 * Sets how this response is delimited. On a persistent connection, a
+	 * response without a known content length is sent using the chunked
+	 * encoding, or the connection is closed if the client does not 
+	 * support it.
+	 * @param keepAlive true if the connection stays open after the response
+	 * @param chunkedAllowed true if the client accepts the chunked encoding
+	 */
+	void setConnection(boolean keepAlive, boolean chunkedAllowed) {
+		if (headerGenerated) throw new RuntimeException("Header generated!");
+		this.keepAlive = keepAlive;
+		this.chunkedAllowed = chunkedAllowed;
+	}
+	
+	/**
+	 * Makes this response buffered: the body is collected in a pooled 
+	 * buffer, so a response which is finished before the buffer fills up
+	 * is sent with an exact content length, together with its header. 
+	 * A longer response is sent in large chunks. Buffered responses must
+	 * be finished with {@link #finish()}.
+	 */
+	void enableBuffering() {
+		if (headerGenerated) throw new RuntimeException("Header generated!");
+		if (buffer == null) {
+			buffer = BUFFER_POOL.acquire();
+		}
+	}
+
+	/**
+	 * @return true if the connection stays open after the response
+	 */
+	boolean isKeepAlive() {
+		return keepAlive;
+	}
+	
+	/**
+	 * @return number of bytes of the header and the body written so far,
+	 * without the framing of a chunked body
+	 */
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * @return true if the header was already written
+	 */
+	boolean isHeaderGenerated() {
+		return headerGenerated;
+	}
+
+	/**
+	 * Discards the buffered body of a response whose header was not 
+	 * written yet, so an error response can be sent instead of it.
+	 * @return true if the response was discarded, false if its header was
+	 * already written
+	 */
+	boolean resetBuffer() {
+		if (headerWritten) return false;
+		headerGenerated = false;
+		count = 0;
+		bytesWritten = 0;
+		return true;
+	}
+
+	/**
+	 * Returns the response buffer to the pool. Called once the response
+	 * is finished or abandoned; later writes are not buffered.
+	 */
+	void release() {
+		if (buffer != null) {
+			BUFFER_POOL.release(buffer);
+			buffer = null;
+		}
+	}
+	
+	/**
+	 * Finishes the response: writes the header if it was not written yet,
+	 * with the length of the buffered body unless a content length was 
+	 * set, sends the buffered body, ends a chunked body and flushes the 
+	 * output stream.
+	 * @throws IOException if writing goes awry
+	 */
+	void finish() throws IOException {
+		if (!headerWritten && contentLength == null) {
+			contentLength = (long) count;
+		}
+		commit();
+		writeHeader();
+		if (chunkedStream != null) {
+			chunkedStream.finish();
+		}
+		outputStream.flush();
+		release();
+	}
+
+	/**
+	 * Generates a HTTP header if none was generated prior. A buffered 
+	 * response's header is only written once the body overflows the 
+	 * buffer or the response is finished, when its framing is known.
 	 */
 	private void generateHeader() {
 		if (headerGenerated) return;
+		headerGenerated = true;
+		charset = Charset.forName(encoding);
+		
+		if (buffer == null) {
+			try {
+				writeHeader();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Writes the header if it was not written yet. It is written in front
+	 * of the buffered body if both fit in the buffer, or directly to the 
+	 * output stream otherwise.
+	 * @throws IOException if writing goes awry
+	 */
+	private void writeHeader() throws IOException {
+		if (headerWritten) return;
+		headerWritten = true;
+		if (headerListener != null) {
+			headerListener.run();
+		}
+		
+		if (contentLength == null && keepAlive) {
+			if (chunkedAllowed) {
+				chunkedStream = new ChunkedOutputStream(outputStream);
+			} else {
+				keepAlive = false;
+			}
+		}
 		
 		StringBuilder header = new StringBuilder();
 		header.append(
@@ -300,6 +625,16 @@ public class RequestContext {
 			header.append(
 					"Content-Length: " + contentLength + "\r\n"
 			);
+		} else if(chunkedStream != null) {
+			header.append("Transfer-Encoding: chunked\r\n");
+		}
+		
+		header.append(
+				"Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n"
+		);
+		
+		for(Map.Entry<String, String> field : outputHeaders.entrySet()) {
+			header.append(field.getKey() + ": " + field.getValue() + "\r\n");
 		}
 		
 		if(!outputCookies.isEmpty()) {
@@ -324,24 +659,20 @@ public class RequestContext {
 		}
 		
 		header.append("\r\n");
-		writeHeader(header.toString());
-	}
-	
-	/**
-	 * Writes a header to the underlying output stream.
-	 * @param header the header to be written
-	 */
-	private void writeHeader(String header) {		
-		
-		byte[] data = header.getBytes(StandardCharsets.ISO_8859_1);
+		byte[] data = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+		bytesWritten += data.length;
 		
-		try {
+		if (buffer != null && chunkedStream == null 
+				&& data.length + count <= buffer.length) {
+			System.arraycopy(buffer, 0, buffer, data.length, count);
+			System.arraycopy(data, 0, buffer, 0, data.length);
+			count += data.length;
+		} else {
 			outputStream.write(data);
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		headerGenerated = true;
-		charset = Charset.forName(encoding);
+		if (chunkedStream != null) {
+			outputStream = chunkedStream;
+		}
 	}
 
 	/**
@@ -380,6 +711,21 @@ public class RequestContext {
 		this.mimeType = mimeType;
 	}
 
+	/**
+	 * Sets an additional header field of the response, replacing an earlier
+	 * value of the same field.
+	 * @param name the field's name
+	 * @param value the field's value, or <code>null</code> to remove the field
+	 */
+	public void setHeader(String name, String value) {
+		if (headerGenerated) throw new RuntimeException("Header generated!");
+		if (value == null) {
+			outputHeaders.remove(name);
+		} else {
+			outputHeaders.put(name, value);
+		}
+	}
+
 	/**
 	 * Adds a cookie to this context's internal collection of cookies.
 	 * @param rcCookie the cookie to be added
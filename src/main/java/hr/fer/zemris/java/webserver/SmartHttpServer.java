@@ -1,33 +1,80 @@
 package hr.fer.zemris.java.webserver;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.PushbackInputStream;
 import java.io.Reader;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Random;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 import hr.fer.zemris.java.custom.scripting.exec.SmartScriptEngine;
 import hr.fer.zemris.java.custom.scripting.parser.SmartScriptParser;
 import hr.fer.zemris.java.webserver.RequestContext.RCCookie;
+import hr.fer.zemris.java.webserver.cache.MappedFileRegistry;
+import hr.fer.zemris.java.webserver.cache.PrecompressedFiles;
+import hr.fer.zemris.java.webserver.cache.StaticFileCache;
+import hr.fer.zemris.java.webserver.concurrent.AdmissionExecutor;
+import hr.fer.zemris.java.webserver.concurrent.ISheddable;
+import hr.fer.zemris.java.webserver.concurrent.VirtualThreadExecutor;
+import hr.fer.zemris.java.webserver.http.AcceptEncoding;
+import hr.fer.zemris.java.webserver.http.ByteRange;
+import hr.fer.zemris.java.webserver.http.EntityTag;
+import hr.fer.zemris.java.webserver.http.HttpDate;
+import hr.fer.zemris.java.webserver.http.IRegionWriter;
+import hr.fer.zemris.java.webserver.http.RequestHeader;
+import hr.fer.zemris.java.webserver.http.RequestReader;
+import hr.fer.zemris.java.webserver.io.ITransferTarget;
+import hr.fer.zemris.java.webserver.io.ResponseQueue;
+import hr.fer.zemris.java.webserver.io.SocketChannelOutputStream;
+import hr.fer.zemris.java.webserver.log.AccessLog;
+import hr.fer.zemris.java.webserver.metrics.MetricsWorker;
+import hr.fer.zemris.java.webserver.metrics.RouteKind;
+import hr.fer.zemris.java.webserver.metrics.ServerMetrics;
+import hr.fer.zemris.java.webserver.routing.Router;
+import hr.fer.zemris.java.webserver.session.ConcurrentSessionStore;
+import hr.fer.zemris.java.webserver.session.ISessionStore;
+import hr.fer.zemris.java.webserver.session.JournaledSessionStore;
+import hr.fer.zemris.java.webserver.session.ReplicatedSessionStore;
+import hr.zemris.java.custom.collections.TimingWheel;
+import hr.zemris.java.custom.collections.TimingWheel.Timeout;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+import hr.fer.zemris.java.webserver.session.SignedSessionCodec;
 
 /**
  * A custom implementation of a multithreaded HTTP/TCP server. 
@@ -54,23 +101,114 @@ public class SmartHttpServer {
 	 * The number of worker threads in the thread pool.
 	 */
 	private int workerThreads;
+	/**
+	 * The kind of executor which runs client workers: either 
+	 * <code>fixed</code> (a fixed pool of platform threads) or 
+	 * <code>virtual</code> (a virtual thread per task, Java 21+).
+	 */
+	private String executor;
+	/**
+	 * Maximum number of tasks running at the same time on virtual threads.
+	 */
+	private int maxConcurrency;
+	/**
+	 * Maximum number of connections or requests waiting for a worker 
+	 * thread. Further ones are answered with 
+	 * <code>503 Service Unavailable</code>.
+	 */
+	private int queueDepth;
+	/**
+	 * Time after which a connection or request which still waits for a 
+	 * worker thread is answered with <code>503 Service Unavailable</code>,
+	 * in milliseconds.
+	 */
+	private long maxQueueWait;
+	/**
+	 * The whole <code>503 Service Unavailable</code> response sent to shed
+	 * clients, prepared once so it can be written by the accepting thread.
+	 */
+	private byte[] serviceUnavailable;
+	/**
+	 * Number of seconds an idle persistent connection is kept open while
+	 * waiting for the next request.
+	 */
+	private int keepAliveTimeout;
+	/**
+	 * Number of seconds a client may take to send a whole request header,
+	 * counted from its first byte. Protects the server from clients which
+	 * send headers slowly to keep connections open.
+	 */
+	private int headerTimeout;
+	/**
+	 * Idle and header timeouts of the client connections, in milliseconds.
+	 * Each timeout's action closes its connection.
+	 */
+	private TimingWheel<Runnable> connectionTimeouts = new TimingWheel<>(
+			TIMEOUT_TICK, TIMEOUT_SLOTS, System.currentTimeMillis()
+	);
+	/**
+	 * Maximum number of requests served on a single persistent connection.
+	 */
+	private int keepAliveMaxRequests;
+	/**
+	 * Maximum number of pipelined requests which are read from a connection
+	 * and served together.
+	 */
+	private int maxPipelinedRequests;
+	/**
+	 * Indicates whether static files are sent to the client directly from 
+	 * the file channel, without copying them through user space.
+	 */
+	private boolean zeroCopy;
+	/**
+	 * Cache of small and medium static files, or <code>null</code> if 
+	 * static files are always read from the disk.
+	 */
+	private StaticFileCache staticCache;
+	/**
+	 * Size in bytes from which static files are served from shared memory
+	 * mappings, or zero if files are never mapped.
+	 */
+	private long mmapThreshold;
+	/**
+	 * Shared memory mappings of large static files, or <code>null</code> if
+	 * files are never mapped.
+	 */
+	private MappedFileRegistry mappedFiles;
+	/**
+	 * Gzip-compressed variants of static files, or <code>null</code> if 
+	 * static files are never sent compressed.
+	 */
+	private PrecompressedFiles precompressed;
 	/**
 	 * Time during which cookies are stored. 
 	 * After <code>sessionTimeout</code> seconds pass, cookies are deleted.
 	 */
 	private int sessionTimeout;
 	/**
-	 * Maps mime types to their names.
+	 * Maps mime types to their names. Replaced as a whole whenever the
+	 * mime types are reloaded.
+	 */
+	private volatile Map<String, String> mimeTypes = Collections.emptyMap();
+	/**
+	 * Reloads the workers and mime types when their files change, or
+	 * <code>null</code> if they are not watched.
 	 */
-	private Map<String, String> mimeTypes;
+	private ConfigWatcher configWatcher;
 	/**
-	 * A server thread in the server's thread pool.
+	 * The I/O model used for client connections: either <code>blocking</code>
+	 * (one pooled thread per connection) or <code>nio</code> (a single 
+	 * selector thread which hands complete requests to the thread pool).
 	 */
-	private ServerThread serverThread;
+	private String ioModel;
 	/**
-	 * The server's thread pool.
+	 * The server's main thread, which accepts client connections.
 	 */
-	private ExecutorService threadPool;
+	private Thread serverThread;
+	/**
+	 * The server's thread pool, behind its bounded admission queue.
+	 */
+	private AdmissionExecutor threadPool;
 	/**
 	 * The server's document root from which all configuration and media 
 	 * files are obtained.
@@ -81,43 +219,108 @@ public class SmartHttpServer {
 	 */
 	private Properties properties;
 	/**
-	 * Collection which maps {@link IWebWorker}s to their names.
+	 * Routes requests to workers: the configured ones and the /ext/ ones.
+	 * Each route's target gets the worker for the rest of the path matched
+	 * by the route's prefix. Replaced as a whole whenever the routes change.
+	 */
+	private volatile Router<Function<String, IWebWorker>> router;
+	/**
+	 * Resolves the /ext/ workers by their class names.
+	 */
+	private WorkerRegistry extWorkers = new WorkerRegistry(
+			EXT_PACKAGE, getClass().getClassLoader()
+	);
+	/**
+	 * Target of the /ext/ route.
+	 */
+	private Function<String, IWebWorker> extRoute = extWorkers::get;
+	/**
+	 * Counts the requests and measures their latencies.
 	 */
-	private Map<String, IWebWorker> workersMap;
+	private ServerMetrics metrics = new ServerMetrics();
+	/**
+	 * Records every served request, or <code>null</code> if requests are
+	 * not logged.
+	 */
+	private AccessLog accessLog;
 	
 	/**
-	 * Collection which maps {@link SessionMapEntry} objects to their IDs.
+	 * Keeps the sessions, by their IDs.
 	 */
-	private Map<String, SessionMapEntry> sessions = new HashMap<>();
+	private ISessionStore sessions;
 	/**
-	 * Random number generator used for generating session IDs.
+	 * Encodes persistent parameters into signed <code>sid</code> cookies, 
+	 * or <code>null</code> if sessions are only kept on the server.
 	 */
-	private Random randomSession = new Random();
+	private SignedSessionCodec signedSessions;
 	/**
 	 * Indicates whether the server is running.
 	 */
 	private boolean running;
 	
 	/**
-	 * Number of miliseconds in 5 minutes. Used by the server's daemon 
-	 * session cleaner thread.
+	 * Number of miliseconds between two ticks of the server's timeouts.
+	 * Used by the server's daemon cleaner thread and by the selector.
+	 */
+	private static final int TIMEOUT_TICK = 100;
+	/**
+	 * Number of slots of the connection timeouts' wheel, which covers 
+	 * about 100 seconds in one turn.
 	 */
-	private static final int MILIS_IN_5_MINS = 300_000;
+	private static final int TIMEOUT_SLOTS = 1024;
 	/**
-	 * Path of /ext/ worker scripts.
+	 * Number of miliseconds in a second.
 	 */
-	private static final String EXT_PATH = "hr.fer.zemris.java.webserver.workers.";
+	private static final int MILIS_IN_SECOND = 1000;
+	/**
+	 * Package of /ext/ workers.
+	 */
+	private static final String EXT_PACKAGE = "hr.fer.zemris.java.webserver.workers";
 	/**
 	 * Default length of a randomly generated session ID.
 	 */
 	public static final int SID_LENGTH = 20;
+	/**
+	 * Name of the fixed thread pool executor, as used in the configuration
+	 * file.
+	 */
+	private static final String EXECUTOR_FIXED = "fixed";
+	/**
+	 * Name of the virtual thread executor, as used in the configuration file.
+	 */
+	private static final String EXECUTOR_VIRTUAL = "virtual";
+	/**
+	 * Name of the session mode which keeps persistent parameters in signed
+	 * cookies, as used in the configuration file.
+	 */
+	private static final String SESSION_MODE_SIGNED = "signed-cookie";
+	/**
+	 * Name of the non-blocking I/O model, as used in the configuration file.
+	 */
+	private static final String IO_MODEL_NIO = "nio";
+	/**
+	 * Maximum number of connections waiting to be accepted.
+	 */
+	private static final int ACCEPT_BACKLOG = 1024;
+	/**
+	 * Initial size of a non-blocking connection's read buffer, in bytes.
+	 */
+	private static final int NIO_INITIAL_BUFFER = 2048;
+	/**
+	 * Maximum size of a request header. Longer headers are rejected.
+	 */
+	private static final int MAX_HEADER_SIZE = 65536;
+	/**
+	 * Maximum number of response bytes a worker may queue on a non-blocking
+	 * connection before it has to wait for the selector thread to send them.
+	 */
+	private static final int NIO_MAX_PENDING = 262144;
 	
 	/**
 	 * Constructs a new {@link SmartHttpServer}.
 	 * @param configFilePath the path to the server's configuration file.
 	 */
 	public SmartHttpServer(String configFilePath) {
-		serverThread = new ServerThread();
 		properties = new Properties();
 		try {
 			Reader reader = Files.newBufferedReader(Paths.get(configFilePath));
@@ -129,32 +332,122 @@ public class SmartHttpServer {
 		
 		assignProperties();
 		assignMimeTypes();
+		initCompression();
+		watchConfig();
+		initAccessLog();
+		registerMetrics();
 		startCleaner();
+		
+		serverThread = ioModel.equals(IO_MODEL_NIO) ? 
+				new NioServerThread() : 
+				new ServerThread();
 	}
 	
+	/**
+	 * Starts logging every served request to the file set by 
+	 * <code>log.access</code>, if it is set.
+	 */
+	private void initAccessLog() {
+		String file = properties.getProperty("log.access", "").trim();
+		if(file.isEmpty()) return;
+		
+		try {
+			accessLog = new AccessLog(
+					Paths.get(file),
+					Integer.parseInt(
+							properties.getProperty("log.accessBuffer", "8192").trim()
+					),
+					Long.parseLong(
+							properties.getProperty("log.accessMaxBytes", "67108864").trim()
+					),
+					Integer.parseInt(
+							properties.getProperty("log.accessFiles", "5").trim()
+					)
+			);
+		} catch (IOException ex) {
+			System.out.println("Error opening the access log: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Exposes the counters of the server's components as metrics.
+	 */
+	private void registerMetrics() {
+		metrics.gauge("thread_pool_queued", "Client tasks waiting for a thread.",
+				() -> threadPool == null ? 0 : threadPool.getQueued());
+		metrics.counter("thread_pool_rejected_total", 
+				"Client tasks rejected because too many were waiting.",
+				() -> threadPool == null ? 0 : threadPool.getRejected());
+		metrics.counter("thread_pool_expired_total", 
+				"Client tasks shed because they waited too long.",
+				() -> threadPool == null ? 0 : threadPool.getExpired());
+		metrics.gauge("sessions", "Sessions kept on the server.", 
+				() -> sessions.size());
+		metrics.gauge("session_bytes", "Approximate memory used by sessions.", 
+				() -> sessions.getBytes());
+		metrics.counter("session_evictions_total", 
+				"Sessions evicted to stay within the memory limit.", 
+				() -> sessions.getEvictions());
+		metrics.counter("ext_worker_hits_total", 
+				"Lookups of /ext/ workers which were already resolved.", 
+				extWorkers::getHits);
+		metrics.counter("ext_worker_misses_total", 
+				"Lookups of /ext/ workers which had to be resolved.", 
+				extWorkers::getMisses);
+		if(accessLog != null) {
+			metrics.counter("access_log_written_total", 
+					"Requests written to the access log.", accessLog::getWritten);
+			metrics.counter("access_log_dropped_total", 
+					"Requests not logged because the log's buffer was full.", 
+					accessLog::getDropped);
+		}
+		if(staticCache != null) {
+			metrics.counter("static_cache_hits_total", 
+					"Static files served from the cache.", staticCache::getHits);
+			metrics.counter("static_cache_misses_total", 
+					"Static files which were not cached.", staticCache::getMisses);
+			metrics.counter("static_cache_evictions_total", 
+					"Static files evicted from the cache.", staticCache::getEvictions);
+			metrics.gauge("static_cache_bytes", 
+					"Total size of the cached static files.", 
+					staticCache::getCachedBytes);
+		}
+	}
+
 	/**
 	 * Initializes and starts the server's cleaner thread. This thread will 
-	 * clear expired cookie objects every 5 minutes.
+	 * clear expired cookie objects shortly after they expire and, unless 
+	 * the selector does it, close connections whose timeouts passed.
 	 */
 	private void startCleaner() {
 		Thread cleanerThread = new Thread(()-> {
 			while(true) {
 				try {
-					Thread.sleep(MILIS_IN_5_MINS);
+					Thread.sleep(TIMEOUT_TICK);
 				} catch (InterruptedException ignorable) {
 				}
 				
-				synchronized(sessions) {
-					sessions.entrySet().removeIf(entry->
-						entry.getValue().validUntil < currentTimeSeconds()
+				if(!ioModel.equals(IO_MODEL_NIO)) {
+					connectionTimeouts.advance(
+							System.currentTimeMillis(), Runnable::run
 					);
 				}
+				sessions.removeExpired(currentTimeSeconds());
 			}
 		});
 		cleanerThread.setDaemon(true);
 		cleanerThread.start();
 	}
 
+	/**
+	 * @param seconds a number of seconds
+	 * @return the time the given number of seconds from now, in 
+	 * milliseconds, as used by the connection timeouts
+	 */
+	private static long deadline(int seconds) {
+		return System.currentTimeMillis() + seconds * (long) MILIS_IN_SECOND;
+	}
+
 	/**
 	 * @return the current time, in seconds.
 	 * @see System#currentTimeMillis()
@@ -163,72 +456,121 @@ public class SmartHttpServer {
 		return System.currentTimeMillis() / 1000;
 	}
 
-	/**
-	 * Represents a single server session, which is used for implementing 
-	 * cookie functionality to the server.
-	 * @author 0036502252
-	 *
-	 */
-	private static class SessionMapEntry{
-		/**
-		 * Unique session ID.
-		 */
-		String sid;
-		/**
-		 * The host name of this session.
-		 */
-		String host;
-		/**
-		 * Time until this session is valid, in seconds. This session's
-		 * cookies will be erased after this time (once the cleaner thread 
-		 * starts).
-		 */
-		long validUntil;
-		/**
-		 * Stores the session's parameters.
-		 */
-		Map<String, String> map;
-		
-		/**
-		 * Constructs a new {@link SessionMapEntry}.
-		 * @param sid the session ID
-		 * @param host the host name
-		 * @param validUntil time until this session will be valid (in seconds)
-		 */
-		public SessionMapEntry(String sid, String host, long validUntil) {
-			this.sid = sid;
-			this.host = host;
-			this.validUntil = validUntil;
-			this.map = new ConcurrentHashMap<>();
-		}
-	}
-	
 	/**
 	 * Gets mime types from the server's mime.properties file, and 
-	 * puts them in the server's internal map. 
+	 * puts them in the server's internal map. If the file cannot be read
+	 * or a mime type is invalid, the current mime types are kept.
+	 * @return true if the mime types were replaced
 	 */
-	private void assignMimeTypes() {
-		
-		try {
-			Reader reader = Files.newBufferedReader(
-					Paths.get("./config/mime.properties")
-			);
-			
+	private boolean assignMimeTypes() {
+		Map<String, String> types = new HashMap<>();
+		try(Reader reader = Files.newBufferedReader(mimeConfigPath())) {
 			Properties mimeProperties = new Properties();
 			mimeProperties.load(reader);
 			
-			mimeTypes = new HashMap<>();
 			for(String name : mimeProperties.stringPropertyNames()) {
-				mimeTypes.put(name, mimeProperties.getProperty(name));
+				String type = mimeProperties.getProperty(name).trim();
+				if(type.indexOf('/') <= 0) {
+					System.out.println("Invalid mime type of " + name + ": " + type);
+					return false;
+				}
+				types.put(name, type);
 			}
 			
-		} catch(IOException ex) {
+		} catch(IOException | IllegalArgumentException ex) {
 			System.out.println(
 					"Error reading properties file: " + ex.getMessage()
 			);
+			return false;
+		}
+		
+		mimeTypes = types;
+		if(precompressed != null) {
+			precompressed.setMimeTypes(types);
+		}
+		return true;
+	}
+
+	/**
+	 * @return path of the server's mime.properties file
+	 */
+	private Path mimeConfigPath() {
+		return Paths.get(properties.getProperty(
+				"server.mimeConfig", "./config/mime.properties").trim());
+	}
+
+	/**
+	 * Starts reloading the workers and the mime types whenever their files
+	 * change, if <code>server.watchConfig</code> is set. Requests keep
+	 * using the old configuration until the new one is read and validated,
+	 * and then switch to it at once.
+	 */
+	private void watchConfig() {
+		boolean watch = Boolean.parseBoolean(
+				properties.getProperty("server.watchConfig", "true").trim()
+		);
+		if(!watch) return;
+		
+		try {
+			configWatcher = new ConfigWatcher();
+			Path workers = Paths.get(properties.getProperty("server.workers"));
+			configWatcher.watch(workers, () -> {
+				if(parseWorkers(workers, true)) {
+					System.out.println("Reloaded " + router.size() + " routes.");
+				} else {
+					System.out.println("Kept the previous routes.");
+				}
+			});
+			configWatcher.watch(mimeConfigPath(), () -> {
+				if(assignMimeTypes()) {
+					System.out.println("Reloaded " + mimeTypes.size() + " mime types.");
+				} else {
+					System.out.println("Kept the previous mime types.");
+				}
+			});
+			configWatcher.start();
+		} catch (IOException ex) {
+			System.out.println("Error watching configuration: " + ex.getMessage());
+		}
+	}
+	
+	/**
+	 * Sets up serving of gzip-compressed variants of static files, if 
+	 * <code>compression.enabled</code> is set, and their background 
+	 * precompression, if <code>compression.precompress</code> is set too.
+	 */
+	private void initCompression() {
+		boolean enabled = Boolean.parseBoolean(
+				properties.getProperty("compression.enabled", "true").trim()
+		);
+		if(!enabled) return;
+		
+		precompressed = new PrecompressedFiles(
+				documentRoot,
+				Paths.get(properties.getProperty(
+						"compression.directory", "./cache/gzip").trim()),
+				mimeTypes,
+				Long.parseLong(
+						properties.getProperty("cache.revalidateMillis", "1000").trim()
+				)
+		);
+		boolean precompress = Boolean.parseBoolean(
+				properties.getProperty("compression.precompress", "false").trim()
+		);
+		if(precompress) {
+			precompressed.startPrecompression(Long.parseLong(
+					properties.getProperty("compression.precompressInterval", "0").trim()
+			));
 		}
 	}
 	
+	/**
+	 * @return the static file cache, or <code>null</code> if it is disabled
+	 */
+	public StaticFileCache getStaticCache() {
+		return staticCache;
+	}
+	
 	/**
 	 * Gets mime types from the server's server.properties file, and 
 	 * puts them in the server's internal map. 
@@ -239,32 +581,255 @@ public class SmartHttpServer {
 		port = Integer.parseInt((String) properties.get("server.port"));
 		workerThreads = Integer.parseInt(
 				properties.getProperty("server.workerThreads")
-		);		
+		);
+		executor = properties.getProperty("server.executor", EXECUTOR_FIXED).trim();
+		maxConcurrency = Integer.parseInt(
+				properties.getProperty("server.maxConcurrency", "10000").trim()
+		);
+		queueDepth = Integer.parseInt(
+				properties.getProperty("server.queueDepth", "256").trim()
+		);
+		maxQueueWait = Long.parseLong(
+				properties.getProperty("server.maxQueueWait", "5000").trim()
+		);
+		serviceUnavailable = (
+				"HTTP/1.1 503 Service Unavailable\r\n"
+				+ "Server: SmartHTTPServer\r\n"
+				+ "Content-Type: text/plain;charset=UTF-8\r\n"
+				+ "Content-Length: 0\r\n"
+				+ "Retry-After: " 
+				+ properties.getProperty("server.retryAfter", "5").trim() + "\r\n"
+				+ "Connection: close\r\n"
+				+ "\r\n"
+		).getBytes(StandardCharsets.US_ASCII);
 		sessionTimeout = Integer.parseInt(
 				properties.getProperty("session.timeout")
 		);
+		sessions = createSessionStore(properties.getProperty(
+				"session.store", ConcurrentSessionStore.class.getName()
+		).trim());
+		sessions.setMaxBytes(Long.parseLong(
+				properties.getProperty("session.maxBytes", "134217728").trim()
+		));
+		String persistDir = properties.getProperty("session.persistDir", "").trim();
+		if(!persistDir.isEmpty()) {
+			restoreSessions(Paths.get(persistDir));
+		}
+		int replicationPort = Integer.parseInt(
+				properties.getProperty("session.replication.port", "0").trim()
+		);
+		if(replicationPort != 0) {
+			replicateSessions(replicationPort);
+		}
+		if(SESSION_MODE_SIGNED.equals(
+				properties.getProperty("session.mode", "server").trim())) {
+			String secret = properties.getProperty("session.secret", "").trim();
+			signedSessions = new SignedSessionCodec(
+					secret.isEmpty() ? SignedSessionCodec.randomSecret() 
+							: secret.getBytes(StandardCharsets.UTF_8),
+					Boolean.parseBoolean(
+							properties.getProperty("session.encrypt", "false").trim()
+					),
+					Integer.parseInt(
+							properties.getProperty("session.cookieMaxSize", "3072").trim()
+					)
+			);
+		}
 		documentRoot = Paths.get(properties.getProperty("server.documentRoot"));
-		parseWorkers(Paths.get(properties.getProperty("server.workers")));
+		ioModel = properties.getProperty("server.ioModel", "blocking").trim();
+		keepAliveTimeout = Integer.parseInt(
+				properties.getProperty("server.keepAliveTimeout", "5").trim()
+		);
+		headerTimeout = Integer.parseInt(
+				properties.getProperty("server.headerTimeout", "10").trim()
+		);
+		keepAliveMaxRequests = Integer.parseInt(
+				properties.getProperty("server.keepAliveMaxRequests", "100").trim()
+		);
+		maxPipelinedRequests = Integer.parseInt(
+				properties.getProperty("server.maxPipelinedRequests", "16").trim()
+		);
+		zeroCopy = Boolean.parseBoolean(
+				properties.getProperty("server.zeroCopy", "true").trim()
+		);
+		long cacheMaxBytes = Long.parseLong(
+				properties.getProperty("cache.maxBytes", "67108864").trim()
+		);
+		if(cacheMaxBytes > 0) {
+			staticCache = new StaticFileCache(
+					cacheMaxBytes,
+					Long.parseLong(
+							properties.getProperty("cache.maxFileSize", "1048576").trim()
+					),
+					Long.parseLong(
+							properties.getProperty("cache.revalidateMillis", "1000").trim()
+					)
+			);
+		}
+		mmapThreshold = Long.parseLong(
+				properties.getProperty("server.mmapThreshold", "16777216").trim()
+		);
+		if(mmapThreshold > 0) {
+			mappedFiles = new MappedFileRegistry(1000L * Integer.parseInt(
+					properties.getProperty("server.mmapIdleTimeout", "30").trim()
+			));
+		}
+		parseWorkers(Paths.get(properties.getProperty("server.workers")), false);
+	}
+
+	/**
+	 * @return the registry of /ext/ workers, which counts its lookups
+	 */
+	public WorkerRegistry getExtWorkers() {
+		return extWorkers;
+	}
+
+	/**
+	 * @return the server's metrics
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the server's session store, which reports the number of
+	 * sessions kept on the server and the memory they use
+	 */
+	public ISessionStore getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Restores the sessions kept in the given directory, and keeps the
+	 * sessions there from now on. If the directory cannot be used, sessions
+	 * are only kept in memory.
+	 * @param directory the directory
+	 */
+	private void restoreSessions(Path directory) {
+		JournaledSessionStore journaled = new JournaledSessionStore(
+				sessions, directory
+		);
+		try {
+			long start = System.currentTimeMillis();
+			int restored = journaled.open(currentTimeSeconds());
+			System.out.println("Restored " + restored + " sessions in " 
+					+ (System.currentTimeMillis() - start) + " ms.");
+		} catch (IOException ex) {
+			System.out.println("Error restoring sessions: " + ex.getMessage());
+			return;
+		}
+		journaled.start(
+				Long.parseLong(properties.getProperty(
+						"session.journalInterval", "1000").trim()),
+				Long.parseLong(properties.getProperty(
+						"session.snapshotInterval", "300").trim())
+		);
+		sessions = journaled;
+	}
+
+	/**
+	 * Replicates the sessions to the peers listed in the config file, and
+	 * applies the changes they send on the given port. If the port cannot
+	 * be bound, changes are only sent.
+	 * @param port the port on which changes are received
+	 */
+	private void replicateSessions(int port) {
+		List<InetSocketAddress> peers = new ArrayList<>();
+		for(String peer : properties.getProperty(
+				"session.replication.peers", "").split(",")) {
+			peer = peer.trim();
+			if(peer.isEmpty()) continue;
+			int colon = peer.lastIndexOf(':');
+			if(colon == -1) {
+				System.out.println("Invalid session replication peer: " + peer);
+				continue;
+			}
+			peers.add(InetSocketAddress.createUnresolved(
+					peer.substring(0, colon),
+					Integer.parseInt(peer.substring(colon + 1))
+			));
+		}
+
+		ReplicatedSessionStore replicated = new ReplicatedSessionStore(
+				sessions, peers, Long.parseLong(properties.getProperty(
+						"session.replication.interval", "100").trim())
+		);
+		try {
+			replicated.start(new InetSocketAddress(address, port));
+		} catch (IOException ex) {
+			System.out.println("Error receiving session replicas: " 
+					+ ex.getMessage());
+		}
+		sessions = replicated;
 	}
 
 	/**
 	 * Gets workers from the given config file, and maps their names
-	 * to their paths using the server's internal map.
+	 * to their paths using the server's router. A worker's path may be a
+	 * pattern, as described in {@link Router}. 
+	 * <p>
+	 * When reloading, the file is applied all or nothing: if it cannot be
+	 * read, or a line or worker is invalid, the current routes are kept.
+	 * At startup there are no routes to keep, so invalid lines are skipped
+	 * and the valid routes are used.
 	 * @param path the path to the config file
+	 * @param reload true if the file is reloaded while the server runs
+	 * @return true if the routes were replaced
 	 */
-	private void parseWorkers(Path path) {
+	private boolean parseWorkers(Path path, boolean reload) {
 		List<String> lines = null;
 		try {
 			lines = Files.readAllLines(path);
 		} catch (IOException e) {
-			e.printStackTrace();
+			System.out.println("Error reading workers: " + e.getMessage());
+			if(reload) return false;
+			lines = Collections.emptyList();
 		}
 		
-		workersMap = new HashMap<>();
+		Map<String, Function<String, IWebWorker>> routes = new LinkedHashMap<>();
+		routes.put("/ext/*", extRoute);
+		String metricsPath = properties.getProperty("metrics.path", "").trim();
+		if(!metricsPath.isEmpty() && !Router.isValid(metricsPath)) {
+			System.out.println("Invalid metrics path: " + metricsPath);
+		} else if(!metricsPath.isEmpty()) {
+			IWebWorker metricsWorker = new MetricsWorker(metrics);
+			routes.put(metricsPath, rest -> metricsWorker);
+		}
 		for(String line : lines) {
+			line = line.trim();
 			if(line.startsWith("#") || line.isEmpty()) continue;
 			String[] params = line.split("=");
-			workersMap.put(params[0].trim(), getWorker(params[1].trim()));
+			if(params.length != 2 || !Router.isValid(params[0].trim())) {
+				System.out.println("Invalid worker line: " + line);
+				if(reload) return false;
+				continue;
+			}
+			IWebWorker worker = getWorker(params[1].trim());
+			if(worker == null) {
+				System.out.println("Invalid worker: " + params[1].trim());
+				if(reload) return false;
+				continue;
+			}
+			routes.put(params[0].trim(), rest -> worker);
+		}
+		router = new Router<>(routes);
+		return true;
+	}
+
+	/**
+	 * Instantiates the session store, falling back to the default one if
+	 * the configured class cannot be instantiated.
+	 * @param className the store's fully qualified class name
+	 * @return the session store
+	 */
+	private ISessionStore createSessionStore(String className) {
+		try {
+			return (ISessionStore) this.getClass().getClassLoader()
+					.loadClass(className)
+					.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | ClassCastException e) {
+			e.printStackTrace();
+			return new ConcurrentSessionStore();
 		}
 	}
 
@@ -281,7 +846,7 @@ public class SmartHttpServer {
 			referenceToClass = this.getClass().getClassLoader().loadClass(path);
 			Object newObject = referenceToClass.getDeclaredConstructor().newInstance();
 			iww = (IWebWorker) newObject;
-		} catch (ReflectiveOperationException e) {
+		} catch (ReflectiveOperationException | ClassCastException e) {
 			e.printStackTrace();
 		}
 		
@@ -291,78 +856,968 @@ public class SmartHttpServer {
 	/**
 	 * Starts the server's thread pool.
 	 */
-	protected synchronized void start() {		
+	public synchronized void start() {		
 		if(!serverThread.isAlive()) {
-			serverThread.start();
 			running = true;
-			threadPool = Executors.newFixedThreadPool(workerThreads);
+			threadPool = new AdmissionExecutor(
+					createThreadPool(), queueDepth, maxQueueWait
+			);
+			threadPool.setWaitListener(metrics::recordQueueWait);
+			serverThread.start();
+		}
+	}
+	
+	/**
+	 * Creates the executor which runs client workers, as configured by 
+	 * <code>server.executor</code>. Falls back to a fixed thread pool if
+	 * virtual threads are requested, but not supported by the JVM.
+	 * @return the executor
+	 */
+	private ExecutorService createThreadPool() {
+		if(executor.equals(EXECUTOR_VIRTUAL)) {
+			if(VirtualThreadExecutor.isSupported()) {
+				return new VirtualThreadExecutor(maxConcurrency);
+			}
+			System.out.println(
+					"Virtual threads require Java 21, using a fixed thread pool."
+			);
 		}
+		return Executors.newFixedThreadPool(workerThreads);
 	}
 
 	/**
 	 * Stops the server's thread pool.
 	 */
-	protected synchronized void stop() {
+	public synchronized void stop() {
 		if(serverThread.isAlive()) {
-			serverThread.interrupt();
 			running = false;
+			serverThread.interrupt();
 			threadPool.shutdown();
+			if(mappedFiles != null) {
+				mappedFiles.close();
+			}
+			if(precompressed != null) {
+				precompressed.close();
+			}
+			if(configWatcher != null) {
+				try {
+					configWatcher.close();
+				} catch (IOException ignorable) {
+				}
+			}
+			if(accessLog != null) {
+				accessLog.close();
+			}
+			if(sessions instanceof Closeable) {
+				try {
+					((Closeable) sessions).close();
+				} catch (IOException ignorable) {
+				}
+			}
 		}
 	}
 
 	/**
-	 * The server's main thread which binds the socket to the port, 
-	 * and handles outside requests.
-	 * @author 0036502252
-	 *
+	 * @return the server's thread pool, which also counts the clients that
+	 * wait for it or were turned away
 	 */
-	protected class ServerThread extends Thread {
-		@Override
-		public void run() {
-			ServerSocket servSocket;
+	public AdmissionExecutor getThreadPool() {
+		return threadPool;
+	}
+
+	/**
+	 * Turns away a client connection which the thread pool cannot take:
+	 * writes the prepared <code>503 Service Unavailable</code> response and
+	 * closes the connection, without involving a worker thread.
+	 * @param channel the client's channel, in blocking mode
+	 */
+	private void rejectConnection(SocketChannel channel) {
+		try {
+			ByteBuffer response = ByteBuffer.wrap(serviceUnavailable);
+			while(response.hasRemaining()) {
+				channel.write(response);
+			}
+			channel.shutdownOutput();
+		} catch (IOException ignorable) {
+		} finally {
 			try {
-				servSocket = new ServerSocket();
-				servSocket.bind(new InetSocketAddress((InetAddress)null, port));
-				
-				while(running) {
-					Socket client = servSocket.accept();
-					ClientWorker cw = new ClientWorker(client);
-					threadPool.submit(cw);
-				}
+				channel.close();
 			} catch (IOException e) {
 				e.printStackTrace();
 			}
-
 		}
 	}
 
 	/**
-	 * Represents an individual request sent to the server which is to be
-	 * executed.
-	 * @author 0036502252
-	 *
+	 * Serves a batch of pipelined requests read from one connection. 
+	 * Requests for static files are served concurrently, while the other
+	 * requests wait for all preceding requests in the batch, since they may
+	 * depend on the session state changed by them. Responses are written in
+	 * request order through the workers' response queue slots.
+	 * @param batch the requests, in the order they were received
+	 * @return true if the connection stays open after the batch
+	 * @throws IOException if a request could not be served
 	 */
-	private class ClientWorker implements Runnable, IDispatcher {
-		/**
-		 * One kilobyte. Used in byte buffers.
-		 */
-		private static final int ONE_KB = 1024;
-		/**
-		 * The client's socket.
-		 */
-		private Socket csocket;
-		/**
-		 * The client socket's input stream.
-		 */
-		private InputStream istream;
-		/**
-		 * The client socket's output stream.
-		 */
-		private OutputStream ostream;
-		/**
-		 * The HTTP version.
-		 */
-		private String version;
+	private boolean serveBatch(List<ClientWorker> batch) throws IOException {
+		List<FutureTask<?>> pending = new ArrayList<>();
+		
+		for(ClientWorker cw : batch) {
+			if(batch.size() > 1 && cw.isIndependent()) {
+				FutureTask<?> task = new FutureTask<>(cw, null);
+				pending.add(task);
+				try {
+					threadPool.execute(task);
+				} catch (RejectedExecutionException ignorable) {
+					//run by this thread while awaiting it
+				}
+			} else {
+				awaitAll(pending);
+				cw.run();
+			}
+		}
+		awaitAll(pending);
+		
+		boolean keepAlive = true;
+		for(ClientWorker cw : batch) {
+			keepAlive &= cw.keepAlive;
+		}
+		return keepAlive;
+	}
+	
+	/**
+	 * Waits until all given tasks are done. Tasks which were not started
+	 * yet by the thread pool, or which it did not accept, are run by the 
+	 * calling thread, so a batch never waits for a free pool thread.
+	 * @param tasks the tasks, which are removed from the list once done
+	 * @throws IOException if a task failed
+	 */
+	private static void awaitAll(List<FutureTask<?>> tasks) throws IOException {
+		for(FutureTask<?> task : tasks) {
+			task.run();
+			try {
+				task.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IOException("Pipelined request failed.", e);
+			}
+		}
+		tasks.clear();
+	}
+
+	/**
+	 * The server's main thread which binds the socket to the port, 
+	 * and handles outside requests.
+	 * @author 0036502252
+	 *
+	 */
+	protected class ServerThread extends Thread {
+		/**
+		 * The server's listening channel, in blocking mode. Channels are 
+		 * used instead of plain sockets so files can be sent to clients 
+		 * without copying.
+		 */
+		private volatile ServerSocketChannel servChannel;
+		
+		@Override
+		public void run() {
+			try {
+				servChannel = ServerSocketChannel.open();
+				servChannel.bind(
+						new InetSocketAddress((InetAddress)null, port), ACCEPT_BACKLOG
+				);
+				
+				while(running) {
+					SocketChannel client;
+					try {
+						client = servChannel.accept();
+					} catch (IOException e) {
+						//e.g. too many open files: keep accepting once it passes
+						if(!servChannel.isOpen()) throw e;
+						e.printStackTrace();
+						continue;
+					}
+					try {
+						threadPool.execute(new ConnectionWorker(client));
+					} catch (RejectedExecutionException ex) {
+						rejectConnection(client);
+					}
+				}
+			} catch (IOException e) {
+				if(running) {
+					e.printStackTrace();
+				}
+			}
+
+		}
+		
+		/**
+		 * Also closes the listening channel, so a thread blocked in
+		 * {@link ServerSocketChannel#accept()} stops right away.
+		 */
+		@Override
+		public void interrupt() {
+			super.interrupt();
+			if(servChannel == null) return;
+			try {
+				servChannel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * The server's main thread when the non-blocking I/O model is used. 
+	 * A single {@link Selector} accepts connections, reads request headers
+	 * and writes responses without blocking, so idle or slow clients do not
+	 * occupy a thread. Only complete request headers are handed over to the
+	 * server's thread pool.
+	 * @author 0036502252
+	 *
+	 */
+	protected class NioServerThread extends Thread {
+		/**
+		 * The selector which multiplexes all client channels.
+		 */
+		private Selector selector;
+		/**
+		 * Tasks which have to be executed on the selector thread, such as
+		 * changing a key's interest set.
+		 */
+		private Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+		
+		@Override
+		public void run() {
+			try(ServerSocketChannel servChannel = ServerSocketChannel.open();
+					Selector selector = Selector.open()) {
+				this.selector = selector;
+				servChannel.bind(
+						new InetSocketAddress((InetAddress)null, port), ACCEPT_BACKLOG
+				);
+				servChannel.configureBlocking(false);
+				servChannel.register(selector, SelectionKey.OP_ACCEPT);
+				
+				while(running) {
+					selector.select(TIMEOUT_TICK);
+					
+					connectionTimeouts.advance(
+							System.currentTimeMillis(), Runnable::run
+					);
+					
+					Runnable task;
+					while((task = pendingTasks.poll()) != null) {
+						task.run();
+					}
+					
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while(it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						handleKey(servChannel, key);
+					}
+				}
+				
+				for(SelectionKey key : selector.keys()) {
+					if(key.attachment() instanceof NioConnection) {
+						((NioConnection) key.attachment()).closeChannel();
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		/**
+		 * Handles a single ready key: accepts a new client, or reads from or
+		 * writes to an existing one.
+		 * @param servChannel the server's listening channel
+		 * @param key the ready key
+		 */
+		private void handleKey(ServerSocketChannel servChannel, SelectionKey key) {
+			if(!key.isValid()) return;
+			
+			if(key.isAcceptable()) {
+				try {
+					SocketChannel client = servChannel.accept();
+					if(client == null) return;
+					client.configureBlocking(false);
+					NioConnection connection = new NioConnection(client);
+					connection.key = client.register(
+							selector, SelectionKey.OP_READ, connection
+					);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				return;
+			}
+			
+			NioConnection connection = (NioConnection) key.attachment();
+			try {
+				if(key.isReadable()) {
+					connection.read();
+				}
+				if(key.isValid() && key.isWritable()) {
+					connection.write();
+				}
+			} catch (IOException e) {
+				connection.closeChannel();
+			}
+		}
+		
+		/**
+		 * Executes the given task on the selector thread. 
+		 * @param task the task to be executed
+		 */
+		private void execute(Runnable task) {
+			pendingTasks.add(task);
+			selector.wakeup();
+		}
+		
+		/**
+		 * State of a single non-blocking client connection: the bytes of the
+		 * request header read so far, and the response bytes which are 
+		 * waiting to be written.
+		 * @author 0036502252
+		 *
+		 */
+		private class NioConnection implements Closeable {
+			/**
+			 * The client's channel.
+			 */
+			private SocketChannel channel;
+			/**
+			 * The channel's selection key.
+			 */
+			private SelectionKey key;
+			/**
+			 * Bytes of the request header read so far.
+			 */
+			private ByteBuffer readBuffer = ByteBuffer.allocate(NIO_INITIAL_BUFFER);
+			/**
+			 * Index in the read buffer from which to continue searching 
+			 * for the end of the request header.
+			 */
+			private int scanned;
+			/**
+			 * Parts of the response which are waiting to be written.
+			 */
+			private Queue<PendingWrite> writeQueue = new ConcurrentLinkedQueue<>();
+			/**
+			 * Number of bytes in the write queue.
+			 */
+			private long pendingBytes;
+			/**
+			 * Guards the number of pending bytes.
+			 */
+			private Lock pendingLock = new ReentrantLock();
+			/**
+			 * Signalled when queued bytes are written or the channel is 
+			 * closed. Workers wait on it when too many bytes are queued.
+			 */
+			private Condition drained = pendingLock.newCondition();
+			/**
+			 * Set once the worker is done with this connection; the channel
+			 * is closed as soon as the write queue is drained.
+			 */
+			private volatile boolean closeRequested;
+			/**
+			 * Set once the channel is closed.
+			 */
+			private volatile boolean closed;
+			/**
+			 * The stream on which responses are written by the workers.
+			 */
+			private OutputStream output = new NioOutputStream();
+			/**
+			 * Keeps the responses to pipelined requests in order.
+			 */
+			private ResponseQueue responses = new ResponseQueue(output);
+			/**
+			 * Set while a request read from this connection is being served.
+			 */
+			private boolean busy;
+			/**
+			 * Closes this connection once it has waited too long for a 
+			 * request, or for the rest of a request header. Not scheduled
+			 * while a request is being served.
+			 */
+			private Timeout<Runnable> timeout;
+			/**
+			 * Set once the first bytes of the next request header are read,
+			 * so later bytes do not extend the header timeout.
+			 */
+			private boolean headerStarted;
+			/**
+			 * Number of requests read from this connection.
+			 */
+			private int requests;
+			
+			/**
+			 * Constructs a new {@link NioConnection}.
+			 * @param channel the client's channel
+			 */
+			public NioConnection(SocketChannel channel) {
+				this.channel = channel;
+				metrics.connectionOpened();
+				this.timeout = connectionTimeouts.schedule(
+						this::expire, deadline(keepAliveTimeout)
+				);
+			}
+			
+			/**
+			 * Closes the channel when its timeout passes, unless a request
+			 * is being served.
+			 */
+			private void expire() {
+				if(!busy && key != null && key.isValid()) {
+					closeChannel();
+				}
+			}
+			
+			/**
+			 * Reads available bytes from the channel. Once the whole request
+			 * header is read, the request is handed over to the thread pool.
+			 * @throws IOException if an I/O error occurs
+			 */
+			private void read() throws IOException {
+				if(!readBuffer.hasRemaining()) {
+					if(readBuffer.capacity() >= MAX_HEADER_SIZE) {
+						key.interestOps(0);
+						sendError(output, 400, "Bad request");
+						close();
+						return;
+					}
+					ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+					readBuffer.flip();
+					larger.put(readBuffer);
+					readBuffer = larger;
+				}
+				
+				if(channel.read(readBuffer) == -1) {
+					closeChannel();
+					return;
+				}
+				dispatchBuffered();
+			}
+			
+			/**
+			 * Parses all requests whose whole header is in the read buffer
+			 * and hands them to the thread pool as one pipelined batch. 
+			 * Bytes following the last header are kept for the next batch.
+			 */
+			private void dispatchBuffered() {
+				List<ClientWorker> batch = new ArrayList<>();
+				
+				while(batch.size() < maxPipelinedRequests) {
+					int end = RequestHeader.findEnd(
+							readBuffer.array(), scanned, readBuffer.position()
+					);
+					if(end == -1) {
+						//the end's first line feed may be among the last two bytes
+						scanned = Math.max(0, readBuffer.position() - 2);
+						break;
+					}
+					
+					RequestHeader header = RequestHeader.parse(readBuffer.array(), 0, end);
+					readBuffer.flip();
+					readBuffer.position(end);
+					readBuffer.compact();
+					scanned = 0;
+					
+					requests++;
+					ClientWorker cw = new ClientWorker(
+							header, responses.newSlot(), 
+							requests < keepAliveMaxRequests
+					);
+					cw.parse();
+					batch.add(cw);
+					if(!cw.keepAlive) break;
+				}
+				
+				if(batch.isEmpty()) {
+					key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+					if(readBuffer.position() == 0) {
+						if(!timeout.isScheduled()) {
+							timeout.reschedule(deadline(keepAliveTimeout));
+						}
+					} else if(!headerStarted) {
+						headerStarted = true;
+						timeout.reschedule(deadline(headerTimeout));
+					}
+					return;
+				}
+				
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+				busy = true;
+				headerStarted = false;
+				timeout.cancel();
+				
+				BatchTask task = new BatchTask(batch);
+				try {
+					threadPool.execute(task);
+				} catch (RejectedExecutionException ex) {
+					task.shed();
+				}
+			}
+			
+			/**
+			 * Serves a batch of requests read from this connection on the
+			 * thread pool.
+			 * @author 0036502252
+			 *
+			 */
+			private class BatchTask implements Runnable, ISheddable {
+				/**
+				 * The requests, in the order they were received.
+				 */
+				private List<ClientWorker> batch;
+				
+				/**
+				 * Constructs a new {@link BatchTask}.
+				 * @param batch the requests, in the order they were received
+				 */
+				public BatchTask(List<ClientWorker> batch) {
+					this.batch = batch;
+				}
+				
+				@Override
+				public void run() {
+					boolean keepAlive = false;
+					try {
+						keepAlive = serveBatch(batch);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+					
+					if(keepAlive) {
+						execute(NioConnection.this::resume);
+					} else {
+						close();
+					}
+				}
+				
+				/**
+				 * Answers the connection with the prepared 
+				 * <code>503 Service Unavailable</code> response and closes
+				 * it once the response is written.
+				 */
+				@Override
+				public void shed() {
+					try {
+						output.write(serviceUnavailable);
+						output.flush();
+					} catch (IOException ignorable) {
+					}
+					close();
+				}
+			}
+			
+			/**
+			 * Continues reading from this connection once the previous
+			 * request is served.
+			 */
+			private void resume() {
+				if(!key.isValid()) return;
+				busy = false;
+				dispatchBuffered();
+			}
+			
+			/**
+			 * Writes as many queued bytes as the channel accepts without
+			 * blocking.
+			 * @throws IOException if an I/O error occurs
+			 */
+			private void write() throws IOException {
+				PendingWrite pending;
+				while((pending = writeQueue.peek()) != null) {
+					if(!pending.writeTo(channel)) break;
+					writeQueue.poll();
+					pendingLock.lock();
+					try {
+						pendingBytes -= pending.memory();
+						pending.done = true;
+						drained.signalAll();
+					} finally {
+						pendingLock.unlock();
+					}
+				}
+				
+				if(writeQueue.isEmpty()) {
+					key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+					if(closeRequested) {
+						closeChannel();
+					}
+				}
+			}
+			
+			/**
+			 * Asks the selector thread to write the queued bytes.
+			 */
+			private void requestWrite() {
+				execute(() -> {
+					if(key.isValid()) {
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				});
+			}
+			
+			/**
+			 * Closes the connection once all queued bytes are written.
+			 */
+			@Override
+			public void close() {
+				closeRequested = true;
+				requestWrite();
+			}
+			
+			/**
+			 * Closes the channel immediately.
+			 */
+			private void closeChannel() {
+				if(closed) return;
+				closed = true;
+				metrics.connectionClosed();
+				timeout.cancel();
+				key.cancel();
+				try {
+					channel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+				pendingLock.lock();
+				try {
+					drained.signalAll();
+				} finally {
+					pendingLock.unlock();
+				}
+			}
+			
+			/**
+			 * A part of the response waiting to be written: either bytes, 
+			 * or a region of a file which is sent without copying it 
+			 * through user space.
+			 * @author 0036502252
+			 *
+			 */
+			private class PendingWrite {
+				/**
+				 * The bytes to be written, or <code>null</code> for a file
+				 * region.
+				 */
+				private ByteBuffer buffer;
+				/**
+				 * The file, for a file region.
+				 */
+				private FileChannel source;
+				/**
+				 * Position of the next byte of the file region to be sent.
+				 */
+				private long position;
+				/**
+				 * Position right after the file region.
+				 */
+				private long end;
+				/**
+				 * Set once everything was written. Guarded by the pending
+				 * lock.
+				 */
+				private boolean done;
+				
+				/**
+				 * Constructs a new {@link PendingWrite} of the given bytes.
+				 * @param buffer the bytes to be written
+				 */
+				public PendingWrite(ByteBuffer buffer) {
+					this.buffer = buffer;
+				}
+				
+				/**
+				 * Constructs a new {@link PendingWrite} of a file region.
+				 * @param source the file
+				 * @param position position of the first byte
+				 * @param count number of bytes
+				 */
+				public PendingWrite(FileChannel source, long position, long count) {
+					this.source = source;
+					this.position = position;
+					this.end = position + count;
+				}
+				
+				/**
+				 * Writes as much as the channel accepts without blocking.
+				 * @param channel the client's channel
+				 * @return true if everything was written
+				 * @throws IOException if an I/O error occurs
+				 */
+				private boolean writeTo(SocketChannel channel) throws IOException {
+					if(buffer != null) {
+						channel.write(buffer);
+						return !buffer.hasRemaining();
+					}
+					
+					long sent = source.transferTo(position, end - position, channel);
+					if(sent == 0 && position >= source.size()) {
+						throw new IOException("File is shorter than expected.");
+					}
+					position += sent;
+					return position >= end;
+				}
+				
+				/**
+				 * @return the number of bytes held only by this write; 
+				 * read-only buffers are shared, for example with the static
+				 * file cache
+				 */
+				private long memory() {
+					return buffer == null || buffer.isReadOnly() ? 0 : buffer.capacity();
+				}
+			}
+			
+			/**
+			 * An output stream which queues the written bytes on the 
+			 * connection. Blocks the writing worker while too many bytes 
+			 * are waiting to be sent. Files are sent by the selector thread
+			 * straight from their channels, while the worker waits.
+			 * @author 0036502252
+			 *
+			 */
+			private class NioOutputStream extends OutputStream 
+					implements ITransferTarget {
+				
+				@Override
+				public void write(int b) throws IOException {
+					write(new byte[] {(byte) b}, 0, 1);
+				}
+				
+				@Override
+				public void write(byte[] b, int off, int len) throws IOException {
+					if(len == 0) return;
+					
+					pendingLock.lock();
+					try {
+						while(pendingBytes > NIO_MAX_PENDING && !closed) {
+							try {
+								drained.await();
+							} catch (InterruptedException e) {
+								throw new IOException("Interrupted while writing.");
+							}
+						}
+						if(closed) throw new IOException("Connection closed.");
+						pendingBytes += len;
+					} finally {
+						pendingLock.unlock();
+					}
+					
+					writeQueue.add(new PendingWrite(
+							ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len))
+					));
+					requestWrite();
+				}
+				
+				@Override
+				public void transferFrom(FileChannel source, long position, 
+						long count) throws IOException {
+					PendingWrite region = new PendingWrite(source, position, count);
+					writeQueue.add(region);
+					requestWrite();
+					
+					//the caller closes the file once this method returns
+					awaitWritten(region);
+				}
+				
+				/**
+				 * Read-only buffers cannot change, so they are queued without
+				 * copying; like files, they are sent by the selector thread 
+				 * while the worker waits, so the caller may release them, for
+				 * example unmap them, once this method returns. Other buffers
+				 * are copied like any written bytes.
+				 */
+				@Override
+				public void writeBuffer(ByteBuffer buffer) throws IOException {
+					if(!buffer.isReadOnly()) {
+						ITransferTarget.copy(buffer, this);
+						return;
+					}
+					
+					PendingWrite pending = new PendingWrite(buffer.duplicate());
+					buffer.position(buffer.limit());
+					writeQueue.add(pending);
+					requestWrite();
+					awaitWritten(pending);
+				}
+				
+				/**
+				 * Waits until the selector thread has written a queued write.
+				 * @param pending the queued write
+				 * @throws IOException if the connection is closed first
+				 */
+				private void awaitWritten(PendingWrite pending) throws IOException {
+					pendingLock.lock();
+					try {
+						while(!pending.done && !closed) {
+							try {
+								drained.await();
+							} catch (InterruptedException e) {
+								throw new IOException("Interrupted while writing.");
+							}
+						}
+						if(!pending.done) throw new IOException("Connection closed.");
+					} finally {
+						pendingLock.unlock();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Serves requests from a single client connection in the blocking I/O
+	 * model. The connection is kept open for further requests while the 
+	 * client asks for a persistent connection, until it stays idle longer 
+	 * than the keep-alive timeout or the request limit is reached. 
+	 * Pipelined requests which are already buffered are read together and
+	 * served as one batch.
+	 * @author 0036502252
+	 *
+	 */
+	private class ConnectionWorker implements Runnable, ISheddable {
+		/**
+		 * The client's channel, in blocking mode.
+		 */
+		private SocketChannel channel;
+		/**
+		 * Set once the channel is closed because the client took too long
+		 * to send a request header.
+		 */
+		private volatile boolean timedOut;
+		
+		/**
+		 * Constructs a new {@link ConnectionWorker}.
+		 * @param channel the client's channel, in blocking mode
+		 */
+		public ConnectionWorker(SocketChannel channel) {
+			this.channel = channel;
+		}
+		
+		@Override
+		public void shed() {
+			rejectConnection(channel);
+		}
+		
+		@Override
+		public void run() {
+			Socket csocket = channel.socket();
+			metrics.connectionOpened();
+			try {
+				RequestReader reader = new RequestReader(
+						csocket.getInputStream(), MAX_HEADER_SIZE
+				);
+				ResponseQueue responses = new ResponseQueue(
+						new SocketChannelOutputStream(channel)
+				);
+				csocket.setSoTimeout(keepAliveTimeout * MILIS_IN_SECOND);
+				
+				int served = 0;
+				boolean open = true;
+				while(open && reader.awaitData()) {
+					Timeout<Runnable> timeout = connectionTimeouts.schedule(
+							this::expire, deadline(headerTimeout)
+					);
+					List<ClientWorker> batch = new ArrayList<>();
+					do {
+						RequestHeader header = reader.read();
+						if(header == null) {
+							open = false;
+							break;
+						}
+						
+						served++;
+						ClientWorker cw = new ClientWorker(
+								header, responses.newSlot(), 
+								served < keepAliveMaxRequests
+						);
+						cw.parse();
+						batch.add(cw);
+						if(!cw.keepAlive) {
+							open = false;
+							break;
+						}
+					} while(reader.available() > 0 
+							&& batch.size() < maxPipelinedRequests);
+					timeout.cancel();
+					
+					if(!batch.isEmpty()) {
+						open &= serveBatch(batch);
+					}
+				}
+			} catch (SocketTimeoutException ignorable) {
+			} catch (IOException e) {
+				if(!timedOut) {
+					e.printStackTrace();
+				}
+			} finally {
+				metrics.connectionClosed();
+				try {
+					csocket.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		/**
+		 * Closes the channel once the client took too long to send a 
+		 * request header, which stops the worker blocked reading it.
+		 */
+		private void expire() {
+			timedOut = true;
+			try {
+				channel.close();
+			} catch (IOException ignorable) {
+			}
+		}
+	}
+
+	/**
+	 * Represents an individual request sent to the server which is to be
+	 * executed. A new worker is used for every request, so no state is 
+	 * shared between requests on the same connection.
+	 * @author 0036502252
+	 *
+	 */
+	private class ClientWorker implements Runnable, IDispatcher {
+		/**
+		 * One kilobyte. Used in byte buffers.
+		 */
+		private static final int ONE_KB = 1024;
+		/**
+		 * The request header.
+		 */
+		private RequestHeader header;
+		/**
+		 * The client connection's output stream.
+		 */
+		private OutputStream ostream;
+		/**
+		 * Indicates whether the connection may stay open after this request.
+		 * Once the request is served, indicates whether it actually does.
+		 */
+		private boolean keepAlive;
+		/**
+		 * Indicates whether an error response was already sent.
+		 */
+		private boolean errorSent;
+		/**
+		 * Indicates whether the request header is malformed.
+		 */
+		private boolean badRequest;
+		/**
+		 * The requested path, without parameters.
+		 */
+		private String urlPath;
+		/**
+		 * The HTTP version.
+		 */
+		private String version;
 		/**
 		 * The method of the client request.
 		 */
@@ -372,37 +1827,85 @@ public class SmartHttpServer {
 		 */
 		private String host;
 		/**
-		 * The parameters, used for script execution.
+		 * The parameters, used for script execution.
+		 */
+		private Map<String, String> params = new HashMap<String, String>();
+		/**
+		 * The temporary parameters, used for script execution.
+		 */
+		private Map<String, String> tempParams = new HashMap<>();
+		/**
+		 * Persistent parameters, used for cookie realization.
+		 */
+		private Map<String, String> permParams = new HashMap<>();
+		/**
+		 * The server's cookies.
+		 */
+		private List<RCCookie> outputCookies = new ArrayList<>();
+		/**
+		 * The session's ID.
+		 */
+		private String SID;
+		/**
+		 * The persistent parameters as received in a signed cookie, or 
+		 * <code>null</code> if the session is kept on the server.
+		 */
+		private Map<String, String> signedParams;
+		/**
+		 * The session received in a signed cookie, or <code>null</code> if
+		 * there is none.
+		 */
+		private SessionMapEntry signedSession;
+		/**
+		 * The session kept on the server which this request uses, or 
+		 * <code>null</code> if there is none.
+		 */
+		private SessionMapEntry session;
+		/**
+		 * The session request's context.
+		 */
+		private RequestContext context = null;
+		/**
+		 * How the request was served, as recorded in the metrics.
 		 */
-		private Map<String, String> params = new HashMap<String, String>();
+		private RouteKind routeKind = RouteKind.NONE;
 		/**
-		 * The temporary parameters, used for script execution.
+		 * Name of the request's route, or <code>null</code> if its kind
+		 * has a single route.
 		 */
-		private Map<String, String> tempParams = new HashMap<>();
+		private String routeName;
 		/**
-		 * Persistent parameters, used for cookie realization.
+		 * Status code of the error response, if one was sent.
 		 */
-		private Map<String, String> permParams = new HashMap<>();
+		private int errorStatus;
 		/**
-		 * The server's cookies.
+		 * Number of bytes of the error response, if one was sent.
 		 */
-		private List<RCCookie> outputCookies = new ArrayList<>();
+		private int errorBytes;
 		/**
-		 * The session's ID.
+		 * Time at which the request's header was read, in nanoseconds.
 		 */
-		private String SID;
+		private long receivedAt = System.nanoTime();
 		/**
-		 * The session request's context.
+		 * Whether the request used an existing session, as logged.
 		 */
-		private RequestContext context = null;
+		private char sessionMark = AccessLog.SESSION_NONE;
 		
 		/**
-		 * Constructs a new {@link ClientWorker} using the request's socket.
-		 * @param csocket the client request's socket.
+		 * Constructs a new {@link ClientWorker} for a request whose header 
+		 * was already read.
+		 * @param header the request header
+		 * @param ostream the stream on which the response is written, 
+		 * closed once the response is complete
+		 * @param keepAliveAllowed true if the connection may stay open
+		 * after this request
 		 */
-		public ClientWorker(Socket csocket) {
+		public ClientWorker(RequestHeader header, OutputStream ostream, 
+				boolean keepAliveAllowed) {
 			super();
-			this.csocket = csocket;
+			this.header = header;
+			this.ostream = ostream;
+			this.keepAlive = keepAliveAllowed;
 		}
 		
 		@Override
@@ -412,118 +1915,217 @@ public class SmartHttpServer {
 
 		@Override
 		public void run() {
+			long started = System.nanoTime();
 			try {
-				istream = new PushbackInputStream(csocket.getInputStream());
-				ostream = csocket.getOutputStream();
-				
-				//get request, store the lines in a list
-				byte[] bytes = getBytesFromRequest(istream);
-				
-				String requestString = new String(
-						bytes, 
-						StandardCharsets.US_ASCII
-				);
-			
-				List<String> request = readRequest(requestString);
-				
-				//check if the request is valid
-				if(request.size() == 0) {
-					sendError(ostream, 400, "Bad request");
-					close();
-					return;
-				}
-				
-				String[] firstLineSplit = request.get(0).split("\\s+");
-
-				if(firstLineSplit.length != 3) {
-					sendError(ostream, 400, "Bad request");
-					close();
-					return;
-				}
-
-				method = firstLineSplit[0];
-				String requestedPath = firstLineSplit[1];
-				version = firstLineSplit[2];
-				
-				if(!method.toUpperCase().equals("GET")) {
-					sendError(ostream, 400, "Bad request");
-					close();
-					return;
+				if(badRequest) {
+					sendBadRequest();
+				} else {
+					setHost();
+					checkSession();
+					
+					//dispatch the request further
+					internalDispatchRequest(urlPath, true);
 				}
 				
-				if(!version.toUpperCase().equals("HTTP/1.0") 
-						&& !version.toUpperCase().equals("HTTP/1.1")){
-					sendError(ostream, 400, "Bad request");
-					close();
-					return;
+				if(!errorSent) {
+					if(context == null) {
+						createContext();
+					}
+					context.finish();
+					keepAlive &= context.isKeepAlive();
 				}
-												
-				String[] requestedPathParams = requestedPath.split("\\?", 2);
-				String paramString = "";
-				address = requestedPathParams[0];
-				
-				//get the path parameters, if they exist
-				if(requestedPathParams.length > 1) {
-					paramString = requestedPathParams[1];
-					parseParameters(paramString);
-				}	
-				
-				setHost(request);
-				checkSession(request);
-				
-				//dispatch the request further
-				internalDispatchRequest(address, true);
-				
+				ostream.flush();
 			} catch (Exception e) {
 				e.printStackTrace();
+				keepAlive = false;
+				if(!errorSent) {
+					try {
+						sendError(500, "Internal Server Error");
+					} catch (IOException ignorable) {
+					}
+				}
 			} finally {
-				close();
+				if(session != null) {
+					sessions.update(session);
+				}
+				if(context != null) {
+					context.release();
+				}
+				record(started);
+				try {
+					ostream.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					keepAlive = false;
+				}
 			}
 		}
 		
 		/**
-		 * Generates a list of strings from the parsed request string. 
-		 * @param requestString the request
-		 * @return list of strings
-		 * @throws IOException
+		 * Parses the request header. A malformed request is answered with
+		 * <code>400 Bad request</code> once the worker is run.
 		 */
-		private List<String> readRequest(String requestString) throws IOException {
-			List<String> lines = new ArrayList<>();
-			String current = null;
+		public void parse() {
+			//check if the request is valid
+			if(!header.isValid()) {
+				markBadRequest();
+				return;
+			}
+
+			method = header.getMethod();
+			String requestedPath = header.getTarget();
+			version = header.getVersion();
 			
-			for(String str : requestString.split("\n")) {
-				if(str.isEmpty()) break;
-				char c = str.charAt(0);
-				if(c == 9 || c == 32) {
-					current += str;
-				} else {
-					if(current != null) {
-						lines.add(current);
-					}
-					current = str;
-				}
+			if(!method.equalsIgnoreCase("GET")) {
+				markBadRequest();
+				return;
 			}
 			
-			if(!current.isEmpty()) {
-				lines.add(current);
+			if(!version.equalsIgnoreCase("HTTP/1.0") 
+					&& !version.equalsIgnoreCase("HTTP/1.1")){
+				markBadRequest();
+				return;
 			}
 			
-			return lines;
+			keepAlive &= isKeepAliveRequested();
+			
+			int query = requestedPath.indexOf('?');
+			urlPath = query == -1 ? requestedPath : requestedPath.substring(0, query);
+			
+			//get the path parameters, if they exist
+			if(query != -1) {
+				String paramString = requestedPath.substring(query + 1);
+				try {
+					parseParameters(paramString);
+				} catch(IllegalArgumentException ex) {
+					markBadRequest();
+				}
+			}
+		}
+		
+		/**
+		 * Marks the request as malformed. The connection is closed once 
+		 * the error is sent.
+		 */
+		private void markBadRequest() {
+			badRequest = true;
+			keepAlive = false;
+		}
+		
+		/**
+		 * Checks whether this request can be served concurrently with the
+		 * other pipelined requests. This is true for static files, which 
+		 * neither read nor change state set by earlier requests.
+		 * @return true if the request is for a static file
+		 */
+		public boolean isIndependent() {
+			return !badRequest && !urlPath.endsWith(".smscr")
+					&& router.route(urlPath.trim()) == null;
+		}
+		
+		/**
+		 * Checks whether the client asked for a persistent connection. 
+		 * HTTP/1.1 connections are persistent unless the client sends
+		 * <code>Connection: close</code>, while HTTP/1.0 connections are
+		 * persistent only if the client sends 
+		 * <code>Connection: keep-alive</code>.
+		 * @return true if the connection should stay open
+		 */
+		private boolean isKeepAliveRequested() {
+			boolean http11 = version.equalsIgnoreCase("HTTP/1.1");
+			for(String value : header.getHeaders("Connection")) {
+				value = value.toLowerCase();
+				if(value.contains("close")) return false;
+				if(value.contains("keep-alive")) return true;
+			}
+			return http11;
+		}
+		
+		/**
+		 * Sends a <code>400 Bad request</code> response.
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void sendBadRequest() throws IOException {
+			errorBytes = SmartHttpServer.sendError(ostream, 400, "Bad request", false);
+			errorStatus = 400;
+			errorSent = true;
+		}
+		
+		/**
+		 * Sends an error response instead of the buffered one, unless a part
+		 * of the response was already written, in which case the connection
+		 * is closed instead.
+		 * @param statusCode the status code of the response
+		 * @param statusText the status text of the response
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void sendError(int statusCode, String statusText) 
+				throws IOException {
+			if(context != null && !context.resetBuffer()) {
+				keepAlive = false;
+				return;
+			}
+			errorBytes = SmartHttpServer.sendError(
+					ostream, statusCode, statusText, keepAlive
+			);
+			errorStatus = statusCode;
+			errorSent = true;
+		}
+
+		/**
+		 * Records the route which serves this request, unless an earlier
+		 * dispatch of the request already did.
+		 * @param kind how the request is served
+		 * @param name the route's name
+		 */
+		private void setRoute(RouteKind kind, String name) {
+			if(routeKind != RouteKind.NONE) return;
+			routeKind = kind;
+			routeName = name;
+		}
+
+		/**
+		 * Records the served request in the server's metrics and access log.
+		 * @param started time at which serving started, in nanoseconds
+		 */
+		private void record(long started) {
+			long finished = System.nanoTime();
+			int status = errorSent ? errorStatus 
+					: context != null ? context.statusCode : 0;
+			long bytes = errorBytes 
+					+ (context != null ? context.getBytesWritten() : 0);
+			metrics.record(routeKind, routeName, status, bytes, finished - started);
+			if(accessLog != null) {
+				accessLog.log(System.currentTimeMillis(), method, urlPath, status, 
+						bytes, started - receivedAt, finished - started, sessionMark);
+			}
 		}
 		
+		/**
+		 * Creates this request's context.
+		 */
+		private void createContext() {
+			context = new RequestContext(
+					ostream, params, permParams, 
+					outputCookies, this, new HashMap<>()
+			);
+			context.setConnection(keepAlive, "HTTP/1.1".equalsIgnoreCase(version));
+			context.setRequestHeader(header);
+			context.enableBuffering();
+			if(signedParams != null) {
+				context.setHeaderListener(this::issueSignedCookie);
+			}
+		}
 		
 		/**
 		 * Checks the client request's session. Used for successful cookie
 		 * realization. 
-		 * @param request the client's request
 		 */
-		private void checkSession(List<String> request) {
+		private void checkSession() {
 			String sidCandidate = null;
 
-			for(String line : request) {
-				if(!line.trim().startsWith("Cookie:")) continue;
-				
-				String[] cookies = line.substring("Cookie: ".length()).split("; ");
+			for(String line : header.getHeaders("Cookie")) {
+				String[] cookies = line.split("; ");
 				for(String cookie : cookies) {
 					if(cookie.startsWith("sid")) {
 						sidCandidate = cookie.trim().split("=")[1].replace("\"", "");
@@ -532,59 +2134,95 @@ public class SmartHttpServer {
 				}
 			}
 			
-			//the sessions map is not thread-safe, so we synchronize it
-			synchronized(sessions) {
-				SessionMapEntry entry;
-				if(sidCandidate == null || !sessions.containsKey(sidCandidate)) {
+			long now = currentTimeSeconds();
+			if(signedSessions != null && sidCandidate != null
+					&& SignedSessionCodec.isToken(sidCandidate)) {
+				SessionMapEntry entry = signedSessions.decode(sidCandidate, host, now);
+				if(entry == null) {
 					createNewEntry();
 				} else {
-					entry = sessions.get(sidCandidate);
-					if(!entry.host.equals(host)) {
-						createNewEntry();
-					} else if(entry.validUntil < currentTimeSeconds()){
-						sessions.remove(sidCandidate);
-						createNewEntry();
-					} else {
-						entry.validUntil = sessionTimeout + currentTimeSeconds();
-						permParams = entry.map;
-					}
+					sessionMark = AccessLog.SESSION_HIT;
+					useSignedSession(entry);
 				}
+				return;
+			}
+			
+			SessionMapEntry entry = sidCandidate == null ? 
+					null : sessions.get(sidCandidate);
+			if(entry == null || !entry.getHost().equals(host)) {
+				createNewEntry();
+			} else if(entry.isExpired(now)) {
+				sessions.remove(entry);
+				createNewEntry();
+			} else {
+				entry.touch(now + sessionTimeout);
+				permParams = entry.getMap();
+				session = entry;
+				sessionMark = AccessLog.SESSION_HIT;
 			}
 		}
 
 		/**
-		 * Creates a new session model.
+		 * Creates a new session model. In the signed cookie mode, it is not
+		 * kept on the server.
 		 */
 		private void createNewEntry() {
-			String sidCandidate = generateSID();
-
-			SessionMapEntry newEntry = new SessionMapEntry(
-					sidCandidate,
-					host,
-					currentTimeSeconds() + sessionTimeout
+			sessionMark = AccessLog.SESSION_MISS;
+			if(signedSessions != null) {
+				useSignedSession(null);
+				return;
+			}
+			SessionMapEntry newEntry = sessions.create(
+					host, currentTimeSeconds() + sessionTimeout
 			);
 			
-			sessions.put(sidCandidate, newEntry);
 			outputCookies.add(
-					new RCCookie("sid", sidCandidate, null, host, "/")
+					new RCCookie("sid", newEntry.getSid(), null, host, "/")
 			);
-			permParams = newEntry.map;
-			SID = sidCandidate;
+			permParams = newEntry.getMap();
+			SID = newEntry.getSid();
+			session = newEntry;
 		}
 
-
 		/**
-		 * Generates a new session ID.
-		 * @return a new randomly-generated SID, which consists of 20 
-		 * random uppercase letters
+		 * Uses a session received in a signed cookie, or starts a new one 
+		 * which is not sent to the client until it has parameters.
+		 * @param entry the session, or <code>null</code> for a new one
+		 */
+		private void useSignedSession(SessionMapEntry entry) {
+			signedSession = entry;
+			permParams = entry == null ? new HashMap<>() : entry.getMap();
+			signedParams = new HashMap<>(permParams);
+			SID = entry == null ? null : entry.getSid();
+		}
+		
+		/**
+		 * Sends the persistent parameters back to the client in a new 
+		 * signed cookie if they changed, or if the session's cookie is past
+		 * half its validity. If they no longer fit in a cookie, the session
+		 * is moved to the server instead. Called right before the response
+		 * header is written, so parameters changed after that are lost.
 		 */
-		private String generateSID() {
-			StringBuilder sb = new StringBuilder();
-			for(int i = 0; i < SID_LENGTH; i++) {
-				char randomChar = (char) (randomSession.nextInt('Z' - 'A' + 1) + 'A');
-			 	sb.append(randomChar);
+		private void issueSignedCookie() {
+			long now = currentTimeSeconds();
+			if(permParams.equals(signedParams) && (signedSession == null 
+					|| signedSession.getValidUntil() - now > sessionTimeout / 2)) {
+				return;
+			}
+			
+			long validUntil = now + sessionTimeout;
+			SID = signedSessions.encode(host, validUntil, permParams);
+			if(SID == null) {
+				SessionMapEntry entry = sessions.create(host, validUntil);
+				for(Map.Entry<String, String> param : permParams.entrySet()) {
+					if(param.getValue() != null) {
+						entry.getMap().put(param.getKey(), param.getValue());
+					}
+				}
+				SID = entry.getSid();
+				session = entry;
 			}
-			return sb.toString();
+			outputCookies.add(new RCCookie("sid", SID, null, host, "/"));
 		}
 
 		/**
@@ -613,10 +2251,9 @@ public class SmartHttpServer {
 
 		/**
 		 * Sets the server's host by parsing the client's request
-		 * @param request list of strings representing the client's request
 		 */
-		private void setHost(List<String> request) {
-			String hostName = getHost(request);
+		private void setHost() {
+			String hostName = getHost();
 			this.host = hostName == null ? 
 					properties.getProperty("server.domainName") :
 					hostName.trim();
@@ -624,24 +2261,17 @@ public class SmartHttpServer {
 
 		/**
 		 * Gets the server's host by parsing the client's request
-		 * @param request list of strings representing the client's request
 		 * @return the host name, or null if it isn't found in request
 		 */
-		private String getHost(List<String> request) {
-			for(String line : request) {
-				line = line.trim();
-				if(line.toLowerCase().startsWith("host:")) {
-					String hostName = line.substring(
-							"host:".length()
-					).trim();
-					int pos = hostName.indexOf(':');
-					if(pos != -1) {
-						hostName = hostName.substring(0, pos).trim();
-					}
-					return hostName;
-				}
+		private String getHost() {
+			String hostName = header.getHeader("Host");
+			if(hostName == null) return null;
+			
+			int pos = hostName.indexOf(':');
+			if(pos != -1) {
+				hostName = hostName.substring(0, pos).trim();
 			}
-			return null;
+			return hostName;
 		}
 
 	
@@ -660,88 +2290,330 @@ public class SmartHttpServer {
 				throws Exception {
 			
 			if(context == null) {
-				context = new RequestContext(
-						ostream, params, permParams, 
-						outputCookies, this, new HashMap<>()
-				);
+				createContext();
 			}
 			
 			if(directCall && (urlPath.startsWith("/private/") || urlPath.equals("/private"))) {
-				sendError(ostream, 404, "Not found");
-				close();
+				sendError(404, "Not found");
 				return;
 			}
 			
-			if(urlPath.contains("/ext/")) {
-				String path = EXT_PATH + urlPath.substring("/ext/".length()).trim();
-				getWorker(path).processRequest(context);
-				close();
+			Router.Match<Function<String, IWebWorker>> route = 
+					router.route(urlPath.trim());
+			if(route != null) {
+				IWebWorker worker = route.getTarget().apply(route.getRemainder());
+				if(worker == null) {
+					sendError(404, "Not found");
+				} else {
+					setRoute(route.getTarget() == extRoute ? RouteKind.EXT 
+							: RouteKind.WORKER, worker.getClass().getName());
+					worker.processRequest(context);
+				}
 				return;
 			}
 			
-			//workersMap is not inherently thread-safe, so it is synchronized
-			synchronized (workersMap) {	
-				if(workersMap.containsKey(urlPath.trim())) {
-					workersMap.get(urlPath).processRequest(context);
-					close();
-					return;
-				}
-			}	
-			
 			Path resolvedPath = documentRoot.resolve(Paths.get(urlPath.substring(1)));
 			
 			if(!resolvedPath.startsWith(documentRoot.normalize())) {
-				sendError(ostream, 403, "Forbidden");
-				close();
-				return;
-			}
-			
-			if(!Files.isReadable(resolvedPath)
-					|| !Files.isRegularFile(resolvedPath)) {
-				sendError(ostream, 404, "Not found");
-				close();
+				sendError(403, "Forbidden");
 				return;
 			}
 			
 			String fileName = resolvedPath.getFileName().toString();
 			String extension = fileName.substring(fileName.indexOf(".") + 1);
+			boolean script = extension.equals("smscr");
 			
 			String mimeType = mimeTypes.get(extension);
 			
 			mimeType = mimeType == null ? "application/octet-stream" : mimeType;
+			if(!script) {
+				setRoute(RouteKind.STATIC, null);
+			}
+			
+			if(!script && precompressed != null) {
+				Path variant = precompressed.find(resolvedPath);
+				if(variant != null) {
+					context.setHeader("Vary", "Accept-Encoding");
+					if(AcceptEncoding.accepts(header.getHeader("Accept-Encoding"), "gzip")) {
+						context.setHeader("Content-Encoding", "gzip");
+						resolvedPath = variant;
+					}
+				}
+			}
+			
+			if(!script && staticCache != null) {
+				StaticFileCache.Entry entry = staticCache.get(resolvedPath);
+				if(entry != null) {
+					writeCached(entry, mimeType);
+					return;
+				}
+			}
+			
+			if(!Files.isReadable(resolvedPath)
+					|| !Files.isRegularFile(resolvedPath)) {
+				sendError(404, "Not found");
+				return;
+			}
 			
 			context.setMimeType(mimeType);
 			context.setStatusCode(200);
 			
-			if(extension.equals("smscr")) {
+			if(script) {
+				setRoute(RouteKind.SCRIPT, urlPath);
 				executeScript(resolvedPath);
 			} else {
-				context.setContentLength(Files.size(resolvedPath));
-				writeToOutputStream(resolvedPath);
+				BasicFileAttributes attributes = Files.readAttributes(
+						resolvedPath, BasicFileAttributes.class
+				);
+				long size = attributes.size();
+				if(staticCache != null && size <= staticCache.getMaxFileSize()) {
+					StaticFileCache.Entry entry = staticCache.load(resolvedPath, mimeType);
+					if(entry != null) {
+						writeCached(entry, mimeType);
+						return;
+					}
+				}
+				
+				if(mappedFiles != null && size >= mmapThreshold) {
+					writeMapped(resolvedPath);
+				} else {
+					writeFile(resolvedPath, attributes);
+				}
 			}
-			close();
 		}
-			
 		
 		/**
-		 * Writes a file to the context's output stream.
+		 * Sends a cached file to the client, without touching the disk.
+		 * @param entry the cached file
+		 * @param mimeType the file's current mime type, which may have been
+		 * reloaded since the file was cached
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void writeCached(StaticFileCache.Entry entry, String mimeType) 
+				throws IOException {
+			context.setMimeType(mimeType);
+			writeStatic(entry.getSize(), entry.getLastModified(), entry.getETag(), 
+					(position, count) -> {
+				ByteBuffer body = entry.getBody();
+				body.position((int) position);
+				body.limit((int) (position + count));
+				context.write(body);
+			});
+		}
+		
+		/**
+		 * Sends a large file from its shared memory mapping, which is 
+		 * released once the file is sent.
 		 * @param path the path from which the file is retrieved
 		 * @throws IOException if an I/O error occurs
 		 */
-		private void writeToOutputStream(Path path) throws IOException {
-
-			InputStream stream = new BufferedInputStream(
-					Files.newInputStream(path)
-			);
+		private void writeMapped(Path path) throws IOException {
+			try(MappedFileRegistry.Mapping mapping = mappedFiles.acquire(path)) {
+				writeStatic(mapping.getSize(), mapping.getLastModified(), 
+						mapping.getETag(), (position, count) -> {
+					long end = position + count;
+					while(position < end) {
+						ByteBuffer region = mapping.region(position, end - position);
+						position += region.remaining();
+						context.write(region);
+					}
+				});
+			}
+		}
+		
+		/**
+		 * Sends a file from the disk. With zero-copy, the file is sent to 
+		 * the client straight from its file channel, if the connection is 
+		 * an {@link ITransferTarget}; otherwise it is read into a buffer.
+		 * @param path the path from which the file is retrieved
+		 * @param attributes the file's attributes
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void writeFile(Path path, BasicFileAttributes attributes) 
+				throws IOException {
+			//opened only once a body is sent, so a 304 does not open the file
+			FileChannel[] channel = new FileChannel[1];
+			try {
+				writeStatic(attributes.size(), attributes.lastModifiedTime(), 
+						EntityTag.of(attributes), (position, count) -> {
+					if(channel[0] == null) {
+						channel[0] = FileChannel.open(path, StandardOpenOption.READ);
+					}
+					if(zeroCopy) {
+						context.write(channel[0], position, count);
+					} else {
+						readToOutputStream(channel[0], position, count);
+					}
+				});
+			} finally {
+				if(channel[0] != null) {
+					channel[0].close();
+				}
+			}
+		}
+		
+		/**
+		 * Writes a region of a file to the context's output stream, using 
+		 * positional reads into a small buffer.
+		 * @param channel the file's channel
+		 * @param position position of the first byte
+		 * @param count number of bytes to write
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void readToOutputStream(FileChannel channel, long position, 
+				long count) throws IOException {
+			ByteBuffer buf = ByteBuffer.allocate(ONE_KB);
+			long end = position + count;
+			while(position < end) {
+				buf.clear();
+				buf.limit((int) Math.min(ONE_KB, end - position));
+				int r = channel.read(buf, position);
+				if(r < 0) throw new IOException("File is shorter than expected.");
+				context.write(buf.array(), 0, r);
+				position += r;
+			}
+		}
+		
+		/**
+		 * Sends a static file's body, or the byte ranges of it requested by
+		 * the <code>Range</code> header: a single range as 
+		 * <code>206 Partial Content</code>, several ranges as a 
+		 * <code>multipart/byteranges</code> body, and ranges of which none
+		 * can be satisfied as <code>416 Range Not Satisfiable</code>. The 
+		 * ranges are ignored if the <code>If-Range</code> condition fails.
+		 * If the client already has the current version of the file, only
+		 * <code>304 Not Modified</code> is sent.
+		 * @param size the size of the file
+		 * @param lastModified the file's modification time
+		 * @param eTag the file's entity tag
+		 * @param writer writes regions of the file
+		 * @throws IOException if an I/O error occurs
+		 */
+		private void writeStatic(long size, FileTime lastModified, String eTag,
+				IRegionWriter writer) throws IOException {
+			context.setStatusCode(200);
+			context.setHeader("Accept-Ranges", "bytes");
+			context.setHeader("ETag", eTag);
+			context.setHeader("Last-Modified", HttpDate.format(lastModified));
+			
+			if(isNotModified(lastModified, eTag)) {
+				//the length of the file the client already has, without a body
+				context.setStatusCode(304);
+				context.setStatusText("Not Modified");
+				context.setContentLength(size);
+				return;
+			}
+			
+			List<ByteRange> ranges = getRequestedRanges(size, lastModified, eTag);
+			if(ranges == null) {
+				context.setContentLength(size);
+				writer.writeRegion(0, size);
+				return;
+			}
+			
+			if(ranges.isEmpty()) {
+				context.setStatusCode(416);
+				context.setStatusText("Range Not Satisfiable");
+				context.setHeader("Content-Range", "bytes */" + size);
+				context.setContentLength(0L);
+				return;
+			}
+			
+			context.setStatusCode(206);
+			context.setStatusText("Partial Content");
+			if(ranges.size() == 1) {
+				ByteRange range = ranges.get(0);
+				context.setHeader("Content-Range", range.toContentRange(size));
+				context.setContentLength(range.getLength());
+				writer.writeRegion(range.getFirst(), range.getLength());
+				return;
+			}
+			
+			String partType = context.mimeType.startsWith("text/") ?
+					context.mimeType + "; charset=" + context.encoding :
+					context.mimeType;
+			String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+			
+			List<byte[]> partHeaders = new ArrayList<>();
+			long length = 0;
+			for(ByteRange range : ranges) {
+				byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+						+ "Content-Type: " + partType + "\r\n"
+						+ "Content-Range: " + range.toContentRange(size) + "\r\n"
+						+ "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+				partHeaders.add(partHeader);
+				length += partHeader.length + range.getLength();
+			}
+			byte[] closing = ("\r\n--" + boundary + "--\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+			length += closing.length;
 			
-			byte[] buf = new byte[ONE_KB];
-			while (true) {
-				int r = stream.read(buf);
-				if (r < 1) break;
-				context.write(buf, 0, r);
-			}			
+			context.setMimeType("multipart/byteranges; boundary=" + boundary);
+			context.setContentLength(length);
+			for(int i = 0; i < ranges.size(); i++) {
+				ByteRange range = ranges.get(i);
+				context.write(partHeaders.get(i));
+				writer.writeRegion(range.getFirst(), range.getLength());
+			}
+			context.write(closing);
 		}
-
+		
+		/**
+		 * Evaluates the <code>If-None-Match</code> and, if it is absent, the
+		 * <code>If-Modified-Since</code> condition.
+		 * @param lastModified the file's modification time
+		 * @param eTag the file's entity tag
+		 * @return true if the client's copy of the file is current
+		 */
+		private boolean isNotModified(FileTime lastModified, String eTag) {
+			String ifNoneMatch = header.getHeader("If-None-Match");
+			if(ifNoneMatch != null) {
+				return EntityTag.matchesAny(ifNoneMatch, eTag);
+			}
+			
+			String ifModifiedSince = header.getHeader("If-Modified-Since");
+			if(ifModifiedSince == null) return false;
+			long since = HttpDate.parseSeconds(ifModifiedSince);
+			return since >= 0 && HttpDate.toSeconds(lastModified) <= since;
+		}
+		
+		/**
+		 * Gets the byte ranges requested by the <code>Range</code> header.
+		 * @param size the size of the file
+		 * @param lastModified the file's modification time
+		 * @param eTag the file's entity tag
+		 * @return the satisfiable ranges, possibly none, or <code>null</code>
+		 * if the whole file is to be sent
+		 */
+		private List<ByteRange> getRequestedRanges(long size, FileTime lastModified,
+				String eTag) {
+			String range = header.getHeader("Range");
+			if(range == null) return null;
+			
+			String ifRange = header.getHeader("If-Range");
+			if(ifRange != null 
+					&& !isIfRangeSatisfied(ifRange.trim(), lastModified, eTag)) {
+				return null;
+			}
+			return ByteRange.parse(range, size);
+		}
+		
+		/**
+		 * Checks the <code>If-Range</code> condition, which is satisfied by
+		 * the file's current entity tag, using the strong comparison, or by
+		 * a date which matches the file's modification time.
+		 * @param ifRange the value of the <code>If-Range</code> header
+		 * @param lastModified the file's modification time
+		 * @param eTag the file's entity tag
+		 * @return true if the requested ranges may be sent
+		 */
+		private boolean isIfRangeSatisfied(String ifRange, FileTime lastModified,
+				String eTag) {
+			if(ifRange.startsWith("W/")) return false;
+			if(ifRange.startsWith("\"")) return ifRange.equals(eTag);
+			return HttpDate.parseSeconds(ifRange) == HttpDate.toSeconds(lastModified);
+		}
+		
 		/**
 		 * Executes a script located at {@code path}. 
 		 * @param path location of the .smscr smart script file
@@ -761,91 +2633,41 @@ public class SmartHttpServer {
 			).execute();
 			
 		}
-
-		/**
-		 * Closes the socket and flushes its output stream.
-		 */
-		private void close() {
-			if(csocket.isClosed()) return;
-			
-			/* notice how the calls are wrapped each in their own try-catch:
-			 * this is to prevent the possibility of the stream being 
-			 * flushed, but not closed (which could happen if they are
-			 * in the same try-catch block..)
-			 */
-			try {
-				ostream.flush();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			
-			try {
-				csocket.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		
 	}
 
 	/**
-	 * Gets bytes from an HTTP request header.
-	 * @param is the input stream from which bytes are read
-	 * @return the header as a byte array
-	 * @throws IOException if I/O error occurs
+	 * Utility method which sends an HTTP response without a body.
+	 * @param ostream the output stream on which the response will be sent
+	 * @param statusCode the status code of the response
+	 * @param statusText the status text of the response
+	 * @throws IOException if an I/O error occurs
 	 */
-	private static byte[] getBytesFromRequest(InputStream is) 
-			throws IOException {
-
-			ByteArrayOutputStream bos = new ByteArrayOutputStream();
-			int state = 0;
-	l:		while(true) {
-				int b = is.read();
-				if(b==-1) return null;
-				if(b!=13) {
-					bos.write(b);
-				}
-				switch(state) {
-				case 0: 
-					if(b==13) { state=1; } else if(b==10) state=4;
-					break;
-				case 1: 
-					if(b==10) { state=2; } else state=0;
-					break;
-				case 2: 
-					if(b==13) { state=3; } else state=0;
-					break;
-				case 3: 
-					if(b==10) { break l; } else state=0;
-					break;
-				case 4: 
-					if(b==10) { break l; } else state=0;
-					break;
-				}
-			}
-			return bos.toByteArray();
+	private static void sendError(OutputStream ostream, 
+			int statusCode, String statusText) throws IOException {
+			sendError(ostream, statusCode, statusText, false);
 		}
-
 	
 	/**
 	 * Utility method which sends an HTTP response without a body.
 	 * @param ostream the output stream on which the response will be sent
 	 * @param statusCode the status code of the response
 	 * @param statusText the status text of the response
+	 * @param keepAlive true if the connection stays open after the response
+	 * @return number of bytes sent
 	 * @throws IOException if an I/O error occurs
 	 */
-	private static void sendError(OutputStream ostream, 
-			int statusCode, String statusText) throws IOException {
+	private static int sendError(OutputStream ostream, int statusCode, 
+			String statusText, boolean keepAlive) throws IOException {
 
-			ostream.write(
-				("HTTP/1.1 "+statusCode+" "+statusText+"\r\n"+
+			byte[] response = ("HTTP/1.1 "+statusCode+" "+statusText+"\r\n"+
 				"Server: SmartHTTPServer\r\n"+
 				"Content-Type: text/plain;charset=UTF-8\r\n"+
 				"Content-Length: 0\r\n"+
-				"Connection: close\r\n"+
-				"\r\n").getBytes(StandardCharsets.US_ASCII)
-			);
+				"Connection: "+(keepAlive ? "keep-alive" : "close")+"\r\n"+
+				"\r\n").getBytes(StandardCharsets.US_ASCII);
+			ostream.write(response);
 			ostream.flush();
+			return response.length;
 		}
 	/**
 	 * Main method. Instantiates and starts the server.
@@ -0,0 +1,227 @@
+package hr.fer.zemris.java.webserver;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves the workers which are called by their class names, as in
+ * <code>/ext/HelloWorker</code>. Every name is resolved only once: a
+ * {@link IStatelessWorker} is instantiated once and shared by all
+ * requests, any other worker gets a constructor handle which creates a new
+ * instance for every request without reflection. Names which do not belong
+ * to a worker are remembered as well, so repeated typos and scans only
+ * cost a lookup.
+ * <p>
+ * The registry is thread-safe, and lookups of resolved names do not lock.
+ * @author 0036502252
+ *
+ */
+public class WorkerRegistry {
+	/**
+	 * Maximum number of remembered unknown names. Once there are more, they
+	 * are forgotten, so scans cannot fill the memory.
+	 */
+	private static final int MAX_UNKNOWN = 4096;
+	/**
+	 * Resolution of a name which does not belong to a worker.
+	 */
+	private static final Resolved UNKNOWN = new Resolved(null, null);
+	/**
+	 * Type of the constructor handles.
+	 */
+	private static final MethodType FACTORY_TYPE = 
+			MethodType.methodType(IWebWorker.class);
+
+	/**
+	 * Package of the workers, followed by a dot.
+	 */
+	private String prefix;
+	/**
+	 * Loads the workers' classes.
+	 */
+	private ClassLoader loader;
+	/**
+	 * Resolved workers, by name.
+	 */
+	private Map<String, Resolved> workers = new ConcurrentHashMap<>();
+	/**
+	 * Resolved names which do not belong to a worker.
+	 */
+	private Map<String, Resolved> unknown = new ConcurrentHashMap<>();
+	/**
+	 * Number of lookups of already resolved names.
+	 */
+	private AtomicLong hits = new AtomicLong();
+	/**
+	 * Number of lookups which had to resolve a name.
+	 */
+	private AtomicLong misses = new AtomicLong();
+	/**
+	 * Number of lookups of names which do not belong to a worker.
+	 */
+	private AtomicLong notFound = new AtomicLong();
+
+	/**
+	 * Constructs a new {@link WorkerRegistry}.
+	 * @param packageName package of the workers
+	 * @param loader loads the workers' classes
+	 */
+	public WorkerRegistry(String packageName, ClassLoader loader) {
+		this.prefix = packageName + ".";
+		this.loader = loader;
+	}
+
+	/**
+	 * Gets a worker which processes a single request.
+	 * @param name the worker's class name, without the package
+	 * @return the worker, or <code>null</code> if there is no such worker
+	 */
+	public IWebWorker get(String name) {
+		Resolved resolved = workers.get(name);
+		if(resolved == null) {
+			resolved = unknown.get(name);
+		}
+		if(resolved != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			resolved = resolve(name);
+		}
+
+		if(resolved == UNKNOWN) {
+			notFound.incrementAndGet();
+			return null;
+		}
+		return resolved.newWorker();
+	}
+
+	/**
+	 * @return number of lookups of already resolved names, including
+	 * unknown ones
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of lookups which had to resolve a name
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of lookups of names which do not belong to a worker
+	 */
+	public long getNotFound() {
+		return notFound.get();
+	}
+
+	/**
+	 * @return number of resolved workers
+	 */
+	public int size() {
+		return workers.size();
+	}
+
+	/**
+	 * Resolves a name and remembers its resolution. Concurrent lookups of
+	 * the same new name may resolve it more than once, but all of them get
+	 * the same resolution.
+	 * @param name the worker's class name, without the package
+	 * @return the resolution
+	 */
+	private Resolved resolve(String name) {
+		Resolved resolved = load(name);
+		if(resolved == UNKNOWN) {
+			if(unknown.size() >= MAX_UNKNOWN) {
+				unknown.clear();
+			}
+			unknown.put(name, UNKNOWN);
+			return UNKNOWN;
+		}
+		Resolved previous = workers.putIfAbsent(name, resolved);
+		return previous == null ? resolved : previous;
+	}
+
+	/**
+	 * Loads a worker's class and prepares its instances.
+	 * @param name the worker's class name, without the package
+	 * @return the resolution, {@link #UNKNOWN} if the class does not exist,
+	 * is not a worker or cannot be instantiated
+	 */
+	private Resolved load(String name) {
+		if(name.isEmpty() || name.indexOf('/') != -1) return UNKNOWN;
+		try {
+			Class<?> workerClass = loader.loadClass(prefix + name);
+			if(!IWebWorker.class.isAssignableFrom(workerClass)) return UNKNOWN;
+
+			MethodHandle constructor = MethodHandles.publicLookup()
+					.findConstructor(workerClass, MethodType.methodType(void.class))
+					.asType(FACTORY_TYPE);
+			if(IStatelessWorker.class.isAssignableFrom(workerClass)) {
+				return new Resolved(invoke(constructor), null);
+			}
+			//a failing constructor fails now, rather than on every request
+			invoke(constructor);
+			return new Resolved(null, constructor);
+		} catch (ClassNotFoundException | NoClassDefFoundError ex) {
+			return UNKNOWN;
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			System.out.println("Cannot instantiate worker " + name + ": " + ex);
+			return UNKNOWN;
+		}
+	}
+
+	/**
+	 * Creates a worker using its constructor handle.
+	 * @param constructor the handle
+	 * @return the worker
+	 */
+	private static IWebWorker invoke(MethodHandle constructor) {
+		try {
+			return (IWebWorker) constructor.invokeExact();
+		} catch (RuntimeException | Error ex) {
+			throw ex;
+		} catch (Throwable ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * How the instances of a resolved worker are obtained.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Resolved {
+		/**
+		 * The shared instance of a stateless worker, or <code>null</code>.
+		 */
+		private final IWebWorker instance;
+		/**
+		 * Creates the instances of any other worker, or <code>null</code>.
+		 */
+		private final MethodHandle constructor;
+
+		/**
+		 * Constructs a new {@link Resolved}.
+		 * @param instance the shared instance of a stateless worker
+		 * @param constructor creates the instances of any other worker
+		 */
+		public Resolved(IWebWorker instance, MethodHandle constructor) {
+			this.instance = instance;
+			this.constructor = constructor;
+		}
+
+		/**
+		 * @return a worker which processes a single request
+		 */
+		public IWebWorker newWorker() {
+			return instance != null ? instance : invoke(constructor);
+		}
+	}
+}
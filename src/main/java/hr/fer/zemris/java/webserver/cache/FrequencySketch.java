@@ -0,0 +1,113 @@
+package hr.fer.zemris.java.webserver.cache;
+
+/**
+ * A count-min sketch which approximates how often keys were seen recently,
+ * using 4-bit counters. Once the number of recorded accesses reaches ten
+ * times the table size, all counters are halved, so old popularity fades
+ * away. Used for the TinyLFU admission policy of {@link StaticFileCache}.
+ * <p>
+ * This class is not thread-safe.
+ * @author 0036502252
+ *
+ */
+public class FrequencySketch {
+	/**
+	 * Seeds for the four hash functions, one for each row of the sketch.
+	 */
+	private static final long[] SEEDS = {
+			0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+			0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	/**
+	 * Mask which halves every 4-bit counter in a word at once.
+	 */
+	private static final long RESET_MASK = 0x7777777777777777L;
+	/**
+	 * Maximum value of a counter.
+	 */
+	private static final int MAX_COUNT = 15;
+
+	/**
+	 * The counters, sixteen in each word.
+	 */
+	private long[] table;
+	/**
+	 * Number of accesses after which the counters are halved.
+	 */
+	private int sampleSize;
+	/**
+	 * Number of accesses recorded since the counters were last halved.
+	 */
+	private int size;
+
+	/**
+	 * Constructs a new {@link FrequencySketch}.
+	 * @param expectedEntries the expected number of distinct keys which are
+	 * popular at the same time
+	 */
+	public FrequencySketch(int expectedEntries) {
+		int length = Integer.highestOneBit(Math.max(expectedEntries, 16) - 1) << 1;
+		table = new long[length];
+		sampleSize = 10 * length;
+	}
+
+	/**
+	 * @param key the key
+	 * @return the estimated number of recent accesses of the key, at most 15
+	 */
+	public int frequency(Object key) {
+		int hash = spread(key.hashCode());
+		int frequency = MAX_COUNT;
+		for(int i = 0; i < SEEDS.length; i++) {
+			long h = hash * SEEDS[i];
+			int index = (int) (h >>> 32) & (table.length - 1);
+			int shift = (int) (h & 15) << 2;
+			frequency = Math.min(frequency, (int) (table[index] >>> shift) & MAX_COUNT);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records an access of the key.
+	 * @param key the key
+	 */
+	public void increment(Object key) {
+		int hash = spread(key.hashCode());
+		boolean added = false;
+		for(int i = 0; i < SEEDS.length; i++) {
+			long h = hash * SEEDS[i];
+			int index = (int) (h >>> 32) & (table.length - 1);
+			int shift = (int) (h & 15) << 2;
+			if(((table[index] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+				table[index] += 1L << shift;
+				added = true;
+			}
+		}
+
+		if(added && ++size >= sampleSize) {
+			reset();
+		}
+	}
+
+	/**
+	 * Halves all counters.
+	 */
+	private void reset() {
+		for(int i = 0; i < table.length; i++) {
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		size /= 2;
+	}
+
+	/**
+	 * Spreads the bits of a hash code, so that similar keys end up in
+	 * different counters.
+	 * @param hash the hash code
+	 * @return the spread hash
+	 */
+	private static int spread(int hash) {
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+}
@@ -0,0 +1,402 @@
+package hr.fer.zemris.java.webserver.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import hr.fer.zemris.java.webserver.http.EntityTag;
+
+/**
+ * Keeps very large static files mapped into memory, so all concurrent
+ * downloads of the same file share one mapping and the operating system's
+ * page cache holds the only copy of its contents.
+ * <p>
+ * Mappings are reference counted: every request acquires the file's
+ * mapping and releases it once the response is sent. A mapping which was
+ * not used for the idle timeout is unmapped. A file which changed on the
+ * disk gets a new mapping; the old one is unmapped once its last user
+ * releases it.
+ * @author 0036502252
+ *
+ */
+public class MappedFileRegistry implements Closeable {
+	/**
+	 * Size of the regions in which a file is mapped, since a single mapped
+	 * buffer cannot be larger than 2 GB.
+	 */
+	private static final long REGION_SIZE = 1L << 30;
+
+	/**
+	 * Current mappings, by path.
+	 */
+	private Map<Path, Mapping> mappings = new HashMap<>();
+	/**
+	 * Guards the mappings and their reference counts.
+	 */
+	private Lock lock = new ReentrantLock();
+	/**
+	 * Time after which an unused mapping is unmapped, in milliseconds.
+	 */
+	private long idleMillis;
+	/**
+	 * Periodically unmaps idle mappings.
+	 */
+	private ScheduledExecutorService reaper;
+
+	/**
+	 * Constructs a new {@link MappedFileRegistry}.
+	 * @param idleMillis time after which an unused mapping is unmapped, in
+	 * milliseconds
+	 */
+	public MappedFileRegistry(long idleMillis) {
+		this.idleMillis = idleMillis;
+		this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "mapped-file-reaper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(1, idleMillis / 2);
+		reaper.scheduleWithFixedDelay(
+				this::unmapIdle, period, period, TimeUnit.MILLISECONDS
+		);
+	}
+
+	/**
+	 * Acquires the mapping of a file, mapping it if necessary. The mapping
+	 * must be released once it is no longer used.
+	 * @param path the file's path
+	 * @return the file's mapping
+	 * @throws IOException if the file cannot be mapped
+	 */
+	public Mapping acquire(Path path) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(
+				path, BasicFileAttributes.class
+		);
+
+		lock.lock();
+		try {
+			Mapping mapping = mappings.get(path);
+			if(mapping != null && mapping.matches(attributes)) {
+				mapping.references++;
+				return mapping;
+			}
+			if(mapping != null) {
+				retire(mapping);
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		//map outside the lock, so other files are not held up
+		Mapping created = new Mapping(path, attributes);
+		lock.lock();
+		try {
+			Mapping other = mappings.get(path);
+			if(other != null && other.matches(attributes)) {
+				//another request mapped the same file in the meantime
+				other.references++;
+				created.unmap();
+				return other;
+			}
+			if(other != null) {
+				retire(other);
+			}
+			created.references = 1;
+			mappings.put(path, created);
+			return created;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes an outdated mapping from the registry. It is unmapped now if
+	 * it is unused, or by its last user otherwise. Must be called with the
+	 * lock held.
+	 * @param mapping the outdated mapping
+	 */
+	private void retire(Mapping mapping) {
+		mappings.remove(mapping.path);
+		mapping.retired = true;
+		if(mapping.references == 0) {
+			mapping.unmap();
+		}
+	}
+
+	/**
+	 * Unmaps all mappings which were not used for the idle timeout.
+	 */
+	private void unmapIdle() {
+		long now = System.currentTimeMillis();
+		lock.lock();
+		try {
+			Iterator<Mapping> it = mappings.values().iterator();
+			while(it.hasNext()) {
+				Mapping mapping = it.next();
+				if(mapping.references == 0 && now - mapping.releasedAt >= idleMillis) {
+					it.remove();
+					mapping.unmap();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of files which are currently mapped
+	 */
+	public int getMappedFiles() {
+		lock.lock();
+		try {
+			return mappings.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the reaper and unmaps all unused mappings. Mappings which are
+	 * still in use are unmapped when they are released.
+	 */
+	@Override
+	public void close() {
+		reaper.shutdownNow();
+		lock.lock();
+		try {
+			for(Mapping mapping : mappings.values()) {
+				mapping.retired = true;
+				if(mapping.references == 0) {
+					mapping.unmap();
+				}
+			}
+			mappings.clear();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * A file mapped into memory, in regions of at most 1 GB.
+	 * @author 0036502252
+	 *
+	 */
+	public class Mapping implements Closeable {
+		/**
+		 * The file's path.
+		 */
+		private final Path path;
+		/**
+		 * The file's size when it was mapped.
+		 */
+		private final long size;
+		/**
+		 * The file's modification time when it was mapped.
+		 */
+		private final FileTime lastModified;
+		/**
+		 * The file's entity tag when it was mapped.
+		 */
+		private final String eTag;
+		/**
+		 * The mapped regions, in file order.
+		 */
+		private MappedByteBuffer[] regions;
+		/**
+		 * Number of requests using this mapping. Guarded by the registry's
+		 * lock.
+		 */
+		private int references;
+		/**
+		 * Time at which the last user released this mapping. Guarded by the
+		 * registry's lock.
+		 */
+		private long releasedAt;
+		/**
+		 * Set once the mapping is outdated and no longer in the registry.
+		 * Guarded by the registry's lock.
+		 */
+		private boolean retired;
+
+		/**
+		 * Constructs a new {@link Mapping}, mapping the whole file.
+		 * @param path the file's path
+		 * @param attributes the file's attributes
+		 * @throws IOException if the file cannot be mapped
+		 */
+		private Mapping(Path path, BasicFileAttributes attributes)
+				throws IOException {
+			this.path = path;
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime();
+			this.eTag = EntityTag.of(attributes);
+
+			int count = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+			regions = new MappedByteBuffer[count];
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				for(int i = 0; i < count; i++) {
+					long position = i * REGION_SIZE;
+					regions[i] = channel.map(
+							MapMode.READ_ONLY, position,
+							Math.min(REGION_SIZE, size - position)
+					);
+				}
+			}
+		}
+
+		/**
+		 * @param attributes the file's current attributes
+		 * @return true if the file is unchanged since it was mapped
+		 */
+		private boolean matches(BasicFileAttributes attributes) {
+			return EntityTag.of(attributes).equals(eTag);
+		}
+
+		/**
+		 * Returns the file's contents starting at <code>position</code>, up
+		 * to <code>count</code> bytes or the end of the region which holds
+		 * the position, whichever comes first. Larger parts of the file are
+		 * obtained by calling this method repeatedly.
+		 * @param position position of the first byte
+		 * @param count maximum number of bytes
+		 * @return an independent, read-only buffer of the bytes
+		 */
+		public ByteBuffer region(long position, long count) {
+			if(position < 0 || count < 0 || position + count > size) {
+				throw new IndexOutOfBoundsException(
+						"Region outside of the file: " + position + "+" + count
+				);
+			}
+			ByteBuffer buffer = regions[(int) (position / REGION_SIZE)].duplicate();
+			int offset = (int) (position % REGION_SIZE);
+			buffer.position(offset);
+			buffer.limit((int) Math.min(buffer.capacity(), offset + count));
+			return buffer;
+		}
+
+		/**
+		 * @return the file's size when it was mapped
+		 */
+		public long getSize() {
+			return size;
+		}
+
+		/**
+		 * @return the file's modification time when it was mapped
+		 */
+		public FileTime getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the file's entity tag when it was mapped
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * Releases this mapping. Buffers obtained from it must not be used
+		 * afterwards.
+		 */
+		@Override
+		public void close() {
+			lock.lock();
+			try {
+				if(--references > 0) return;
+				releasedAt = System.currentTimeMillis();
+				if(retired) {
+					unmap();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/**
+		 * Unmaps the regions right away, rather than when the garbage
+		 * collector finds them.
+		 */
+		private void unmap() {
+			if(regions == null) return;
+			for(MappedByteBuffer region : regions) {
+				Unmapper.unmap(region);
+			}
+			regions = null;
+		}
+	}
+
+	/**
+	 * Unmaps mapped buffers explicitly, using the JDK's internal cleaner.
+	 * If the cleaner is not accessible, buffers are left to the garbage
+	 * collector.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Unmapper {
+		/**
+		 * <code>sun.misc.Unsafe</code>, on Java 9 and newer.
+		 */
+		private static final Object UNSAFE;
+		/**
+		 * <code>Unsafe.invokeCleaner(ByteBuffer)</code>, on Java 9 and newer.
+		 */
+		private static final Method INVOKE_CLEANER;
+
+		static {
+			Object unsafe = null;
+			Method invokeCleaner = null;
+			try {
+				Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+				invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+				Field field = unsafeClass.getDeclaredField("theUnsafe");
+				field.setAccessible(true);
+				unsafe = field.get(null);
+			} catch (ReflectiveOperationException | RuntimeException ex) {
+				invokeCleaner = null;
+			}
+			UNSAFE = unsafe;
+			INVOKE_CLEANER = invokeCleaner;
+		}
+
+		/**
+		 * Unmaps a buffer. It must not be used afterwards.
+		 * @param buffer the buffer
+		 */
+		private static void unmap(MappedByteBuffer buffer) {
+			try {
+				if(INVOKE_CLEANER != null) {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+					return;
+				}
+				//Java 8
+				Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+				cleanerMethod.setAccessible(true);
+				Object cleaner = cleanerMethod.invoke(buffer);
+				if(cleaner != null) {
+					cleaner.getClass().getMethod("clean").invoke(cleaner);
+				}
+			} catch (ReflectiveOperationException | RuntimeException ex) {
+				//left to the garbage collector
+			}
+		}
+	}
+}
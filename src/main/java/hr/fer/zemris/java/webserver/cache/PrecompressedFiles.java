@@ -0,0 +1,330 @@
+package hr.fer.zemris.java.webserver.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Finds gzip-compressed variants of static files, so they can be sent to
+ * clients which accept the gzip coding without compressing anything per
+ * request. A variant is either a sibling file with the <code>.gz</code>
+ * suffix, such as <code>index.html.gz</code>, or a file of the same
+ * relative path in the precompression directory. A variant older than its
+ * file is ignored.
+ * <p>
+ * Optionally, a background job compresses all files of compressible mime
+ * types in the document root into the precompression directory.
+ * @author 0036502252
+ *
+ */
+public class PrecompressedFiles implements Closeable {
+	/**
+	 * Suffix of compressed variants.
+	 */
+	private static final String SUFFIX = ".gz";
+	/**
+	 * Files smaller than this are not worth compressing, in bytes.
+	 */
+	private static final long MIN_SIZE = 256;
+	/**
+	 * Maximum number of remembered lookups. Once it is reached, all
+	 * lookups are forgotten.
+	 */
+	private static final int MAX_LOOKUPS = 10000;
+
+	/**
+	 * The server's document root.
+	 */
+	private Path documentRoot;
+	/**
+	 * Directory in which precompressed variants are stored.
+	 */
+	private Path directory;
+	/**
+	 * Maps file extensions to mime types.
+	 */
+	private volatile Map<String, String> mimeTypes;
+	/**
+	 * Time for which a lookup is remembered, in milliseconds.
+	 */
+	private long revalidateMillis;
+	/**
+	 * Remembered lookups, by the original file's path.
+	 */
+	private Map<Path, Lookup> lookups = new ConcurrentHashMap<>();
+	/**
+	 * Runs the precompression job, or <code>null</code> if it is disabled.
+	 */
+	private ScheduledExecutorService compressor;
+
+	/**
+	 * Constructs a new {@link PrecompressedFiles}.
+	 * @param documentRoot the server's document root
+	 * @param directory directory in which precompressed variants are stored
+	 * @param mimeTypes maps file extensions to mime types
+	 * @param revalidateMillis time for which a lookup is remembered, in
+	 * milliseconds
+	 */
+	public PrecompressedFiles(Path documentRoot, Path directory,
+			Map<String, String> mimeTypes, long revalidateMillis) {
+		this.documentRoot = documentRoot.toAbsolutePath().normalize();
+		this.directory = directory.toAbsolutePath().normalize();
+		this.mimeTypes = mimeTypes;
+		this.revalidateMillis = revalidateMillis;
+	}
+
+	/**
+	 * Replaces the mime types, after they were reloaded. Files which became
+	 * compressible are compressed by the next precompression run.
+	 * @param mimeTypes maps file extensions to mime types
+	 */
+	public void setMimeTypes(Map<String, String> mimeTypes) {
+		this.mimeTypes = mimeTypes;
+	}
+
+	/**
+	 * Finds the compressed variant of a file.
+	 * @param path the file's path
+	 * @return the variant's path, or <code>null</code> if the file has no
+	 * current variant
+	 */
+	public Path find(Path path) {
+		long now = System.currentTimeMillis();
+		Lookup lookup = lookups.get(path);
+		if(lookup != null && now - lookup.checkedAt <= revalidateMillis) {
+			return lookup.variant;
+		}
+
+		FileTime lastModified;
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(
+					path, BasicFileAttributes.class
+			);
+			if(!attributes.isRegularFile()) return null;
+			lastModified = attributes.lastModifiedTime();
+		} catch (IOException ex) {
+			return null;
+		}
+
+		Path variant = null;
+		Path sibling = path.resolveSibling(path.getFileName() + SUFFIX);
+		if(isCurrent(sibling, lastModified)) {
+			variant = sibling;
+		} else {
+			Path stored = storedVariant(path);
+			if(stored != null && isCurrent(stored, lastModified)) {
+				variant = stored;
+			}
+		}
+
+		if(lookups.size() >= MAX_LOOKUPS) {
+			lookups.clear();
+		}
+		lookups.put(path, new Lookup(variant, now));
+		return variant;
+	}
+
+	/**
+	 * @param variant a variant's path
+	 * @param lastModified the original file's modification time
+	 * @return true if the variant exists and is not older than the file
+	 */
+	private static boolean isCurrent(Path variant, FileTime lastModified) {
+		try {
+			BasicFileAttributes attributes = Files.readAttributes(
+					variant, BasicFileAttributes.class
+			);
+			return attributes.isRegularFile()
+					&& attributes.lastModifiedTime().compareTo(lastModified) >= 0;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param path a file's path
+	 * @return the path of the file's variant in the precompression
+	 * directory, or <code>null</code> if the file is outside the document
+	 * root
+	 */
+	private Path storedVariant(Path path) {
+		Path absolute = path.toAbsolutePath().normalize();
+		if(!absolute.startsWith(documentRoot)) return null;
+		return directory.resolve(documentRoot.relativize(absolute) + SUFFIX);
+	}
+
+	/**
+	 * @param mimeType a mime type
+	 * @return true if files of the mime type are usually much smaller once
+	 * compressed
+	 */
+	public static boolean isCompressible(String mimeType) {
+		if(mimeType == null) return false;
+		return mimeType.startsWith("text/")
+				|| mimeType.endsWith("+xml")
+				|| mimeType.endsWith("+json")
+				|| mimeType.equals("application/javascript")
+				|| mimeType.equals("application/json")
+				|| mimeType.equals("application/xml");
+	}
+
+	/**
+	 * Starts compressing the files of compressible mime types in the
+	 * background, at startup and then periodically.
+	 * @param intervalSeconds seconds between two runs, or zero to run only
+	 * once
+	 */
+	public void startPrecompression(long intervalSeconds) {
+		if(compressor != null) return;
+		compressor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "precompressor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+		if(intervalSeconds > 0) {
+			compressor.scheduleWithFixedDelay(
+					this::precompressAll, 0, intervalSeconds, TimeUnit.SECONDS
+			);
+		} else {
+			compressor.execute(this::precompressAll);
+		}
+	}
+
+	/**
+	 * Compresses every file of a compressible mime type in the document
+	 * root which has no current variant yet. Variants which are not
+	 * smaller than their files are not kept.
+	 */
+	public void precompressAll() {
+		List<Path> files;
+		try(Stream<Path> stream = Files.walk(documentRoot)) {
+			files = stream
+					.filter(Files::isRegularFile)
+					.filter(p -> !p.toAbsolutePath().normalize().startsWith(directory))
+					.filter(p -> !p.getFileName().toString().endsWith(SUFFIX))
+					.filter(p -> isCompressible(mimeTypeOf(p)))
+					.collect(Collectors.toList());
+		} catch (IOException ex) {
+			System.out.println("Error listing static files: " + ex.getMessage());
+			return;
+		}
+
+		for(Path file : files) {
+			try {
+				precompress(file);
+			} catch (IOException ex) {
+				System.out.println(
+						"Error compressing " + file + ": " + ex.getMessage()
+				);
+			}
+		}
+		lookups.clear();
+	}
+
+	/**
+	 * Compresses a single file into the precompression directory, unless
+	 * it already has a current variant.
+	 * @param file the file
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void precompress(Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(
+				file, BasicFileAttributes.class
+		);
+		if(attributes.size() < MIN_SIZE) return;
+
+		FileTime lastModified = attributes.lastModifiedTime();
+		Path sibling = file.resolveSibling(file.getFileName() + SUFFIX);
+		Path target = storedVariant(file);
+		if(target == null || isCurrent(sibling, lastModified)
+				|| isCurrent(target, lastModified)) {
+			return;
+		}
+
+		Files.createDirectories(target.getParent());
+		Path temporary = Files.createTempFile(
+				target.getParent(), target.getFileName().toString(), ".tmp"
+		);
+		try {
+			try(InputStream is = Files.newInputStream(file);
+					OutputStream os = new GZIPOutputStream(
+							Files.newOutputStream(temporary))) {
+				byte[] buffer = new byte[8192];
+				int r;
+				while((r = is.read(buffer)) > 0) {
+					os.write(buffer, 0, r);
+				}
+			}
+
+			if(Files.size(temporary) < attributes.size() * 9 / 10) {
+				Files.move(temporary, target,
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * @param file a file's path
+	 * @return the file's mime type, or <code>null</code> if its extension
+	 * is unknown
+	 */
+	private String mimeTypeOf(Path file) {
+		String fileName = file.getFileName().toString();
+		return mimeTypes.get(fileName.substring(fileName.indexOf(".") + 1));
+	}
+
+	/**
+	 * Stops the precompression job.
+	 */
+	@Override
+	public void close() {
+		if(compressor != null) {
+			compressor.shutdownNow();
+		}
+	}
+
+	/**
+	 * The remembered result of looking up a file's variant.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Lookup {
+		/**
+		 * The variant's path, or <code>null</code> if there is none.
+		 */
+		private final Path variant;
+		/**
+		 * Time of the lookup, in milliseconds.
+		 */
+		private final long checkedAt;
+
+		/**
+		 * Constructs a new {@link Lookup}.
+		 * @param variant the variant's path, or <code>null</code>
+		 * @param checkedAt time of the lookup
+		 */
+		public Lookup(Path variant, long checkedAt) {
+			this.variant = variant;
+			this.checkedAt = checkedAt;
+		}
+	}
+}
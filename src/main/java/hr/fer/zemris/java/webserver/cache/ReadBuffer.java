@@ -0,0 +1,128 @@
+package hr.fer.zemris.java.webserver.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * A lossy buffer of accesses which is filled without locking and drained
+ * in batches by a single thread at a time. Accesses are spread over a few
+ * small ring buffers by the recording thread, so threads rarely contend
+ * for the same one. An access is dropped if its ring buffer is full or
+ * another thread is adding to it at the same moment; the accesses are
+ * only used for approximate frequencies and recency, which tolerate that.
+ * <p>
+ * {@link #offer(Object)} may be called by any thread;
+ * {@link #drain(Consumer)} must only be called by one thread at a time.
+ * @author 0036502252
+ *
+ * @param <E> the type of the recorded accesses
+ */
+class ReadBuffer<E> {
+	/**
+	 * Number of ring buffers, a power of two.
+	 */
+	private static final int STRIPES = Math.min(64, Integer.highestOneBit(
+			4 * Runtime.getRuntime().availableProcessors() - 1) << 1);
+	/**
+	 * Number of accesses each ring buffer holds, a power of two.
+	 */
+	private static final int STRIPE_SIZE = 16;
+
+	/**
+	 * The ring buffers.
+	 */
+	private final Stripe<E>[] stripes;
+
+	/**
+	 * Constructs a new, empty {@link ReadBuffer}.
+	 */
+	@SuppressWarnings("unchecked")
+	ReadBuffer() {
+		stripes = new Stripe[STRIPES];
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe<>();
+		}
+	}
+
+	/**
+	 * Records an access.
+	 * @param e the access
+	 * @return true if the buffer should be drained, because the access
+	 * filled its ring buffer or was dropped
+	 */
+	boolean offer(E e) {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		return stripes[(hash >>> 16) & (STRIPES - 1)].offer(e);
+	}
+
+	/**
+	 * Passes all recorded accesses to the consumer and removes them.
+	 * @param consumer the consumer of the accesses
+	 */
+	void drain(Consumer<? super E> consumer) {
+		for(Stripe<E> stripe : stripes) {
+			stripe.drain(consumer);
+		}
+	}
+
+	/**
+	 * A single ring buffer.
+	 * @author 0036502252
+	 *
+	 * @param <E> the type of the recorded accesses
+	 */
+	private static class Stripe<E> {
+		/**
+		 * The accesses, at their counters modulo the size.
+		 */
+		private final AtomicReferenceArray<E> buffer =
+				new AtomicReferenceArray<>(STRIPE_SIZE);
+		/**
+		 * Number of accesses added so far.
+		 */
+		private final AtomicLong writeCounter = new AtomicLong();
+		/**
+		 * Number of accesses drained so far. Only changed by the draining
+		 * thread.
+		 */
+		private volatile long readCounter;
+
+		/**
+		 * Adds an access, unless the buffer is full or another thread is
+		 * adding one at the same moment.
+		 * @param e the access
+		 * @return true if the buffer is now full or the access was dropped
+		 */
+		boolean offer(E e) {
+			long head = readCounter;
+			long tail = writeCounter.get();
+			if(tail - head >= STRIPE_SIZE
+					|| !writeCounter.compareAndSet(tail, tail + 1)) {
+				return true;
+			}
+			buffer.lazySet((int) tail & (STRIPE_SIZE - 1), e);
+			return tail + 1 - head >= STRIPE_SIZE;
+		}
+
+		/**
+		 * Passes the accesses to the consumer and removes them. Stops at an
+		 * access which was counted but not stored yet; it is drained the
+		 * next time.
+		 * @param consumer the consumer of the accesses
+		 */
+		void drain(Consumer<? super E> consumer) {
+			long head = readCounter;
+			long tail = writeCounter.get();
+			for(; head < tail; head++) {
+				int index = (int) head & (STRIPE_SIZE - 1);
+				E e = buffer.get(index);
+				if(e == null) break;
+				buffer.lazySet(index, null);
+				consumer.accept(e);
+			}
+			readCounter = head;
+		}
+	}
+}
@@ -0,0 +1,606 @@
+package hr.fer.zemris.java.webserver.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import hr.fer.zemris.java.webserver.http.EntityTag;
+
+/**
+ * An in-memory cache of small and medium static files. File contents are
+ * held in direct (off-heap) buffers, so they add no garbage collection
+ * pressure, together with the values needed for the response header, so
+ * a hit needs no file system access at all.
+ * <p>
+ * The cache is bounded by the total size of the cached files and uses the
+ * W-TinyLFU policy: new files enter a small LRU admission window; files
+ * leaving the window are admitted to the main, segmented LRU region only
+ * if they were requested more often than the file they would evict. One-off
+ * requests, such as a crawler scanning the whole site, therefore do not
+ * flush the popular files. The same check is made before a missed file is
+ * read at all, once the cache is full, so files which would not be kept
+ * are served from the disk without being copied to memory first.
+ * <p>
+ * Lookups do not lock. Requests are recorded in a {@link ReadBuffer} and
+ * applied to the frequencies and the LRU order in batches, by a request
+ * which finds the lock free once the buffer fills up, or before the next
+ * missed file is loaded.
+ * <p>
+ * A cached file is checked for changes of its entity tag, which covers its
+ * inode, size and modification time, at most once per revalidation 
+ * interval; changed files are dropped.
+ * @author 0036502252
+ *
+ */
+public class StaticFileCache {
+	/**
+	 * Share of the budget used by the admission window, in percent.
+	 */
+	private static final int WINDOW_PERCENT = 1;
+	/**
+	 * Share of the main region used by its protected segment, in percent.
+	 */
+	private static final int PROTECTED_PERCENT = 80;
+	/**
+	 * Assumed average file size, used for sizing the frequency sketch.
+	 */
+	private static final int AVERAGE_FILE_SIZE = 16 * 1024;
+
+	/**
+	 * Maximum total size of the cached files, in bytes.
+	 */
+	private long maxBytes;
+	/**
+	 * Maximum size of a single cached file, in bytes.
+	 */
+	private long maxFileSize;
+	/**
+	 * Time after which a cached file is checked for changes, in milliseconds.
+	 */
+	private long revalidateMillis;
+	/**
+	 * Maximum size of the admission window, in bytes.
+	 */
+	private long windowMax;
+	/**
+	 * Maximum size of the main region's protected segment, in bytes.
+	 */
+	private long protectedMax;
+
+	/**
+	 * All cached files. Read without the lock, changed only with it held.
+	 */
+	private Map<Path, Entry> entries = new ConcurrentHashMap<>();
+	/**
+	 * The admission window, least recently used first.
+	 */
+	private LinkedHashMap<Path, Entry> window = new LinkedHashMap<>();
+	/**
+	 * Files in the main region which were requested once since admission,
+	 * least recently used first.
+	 */
+	private LinkedHashMap<Path, Entry> probation = new LinkedHashMap<>();
+	/**
+	 * Files in the main region which were requested again after admission,
+	 * least recently used first.
+	 */
+	private LinkedHashMap<Path, Entry> protectedSegment = new LinkedHashMap<>();
+	/**
+	 * Total size of the files in the window, in bytes.
+	 */
+	private long windowBytes;
+	/**
+	 * Total size of the files in the probation segment, in bytes.
+	 */
+	private long probationBytes;
+	/**
+	 * Total size of the files in the protected segment, in bytes.
+	 */
+	private long protectedBytes;
+	/**
+	 * Recent request frequencies of all files, cached or not.
+	 */
+	private FrequencySketch sketch;
+	/**
+	 * Requests which were not yet applied to the sketch and the LRU order.
+	 * Drained with the lock held.
+	 */
+	private ReadBuffer<Path> reads = new ReadBuffer<>();
+	/**
+	 * Guards the cache's structure. Contents are read without it.
+	 */
+	private Lock lock = new ReentrantLock();
+
+	/**
+	 * Number of requests served from the cache.
+	 */
+	private AtomicLong hits = new AtomicLong();
+	/**
+	 * Number of requests for files which were not cached.
+	 */
+	private AtomicLong misses = new AtomicLong();
+	/**
+	 * Number of files evicted to make room for others.
+	 */
+	private AtomicLong evictions = new AtomicLong();
+	/**
+	 * Number of files which were not admitted to the main region.
+	 */
+	private AtomicLong rejections = new AtomicLong();
+	/**
+	 * Number of files dropped because they changed on the disk.
+	 */
+	private AtomicLong invalidations = new AtomicLong();
+
+	/**
+	 * Constructs a new {@link StaticFileCache}.
+	 * @param maxBytes maximum total size of the cached files, in bytes
+	 * @param maxFileSize maximum size of a single cached file, in bytes
+	 * @param revalidateMillis time after which a cached file is checked for
+	 * changes, in milliseconds
+	 */
+	public StaticFileCache(long maxBytes, long maxFileSize, long revalidateMillis) {
+		if(maxBytes <= 0 || maxFileSize <= 0) {
+			throw new IllegalArgumentException("Cache sizes must be positive.");
+		}
+		this.maxBytes = maxBytes;
+		this.maxFileSize = Math.min(maxFileSize, maxBytes);
+		this.revalidateMillis = revalidateMillis;
+		this.windowMax = maxBytes * WINDOW_PERCENT / 100;
+		this.protectedMax = (maxBytes - windowMax) * PROTECTED_PERCENT / 100;
+		this.sketch = new FrequencySketch(
+				(int) Math.min(1 << 20, maxBytes / AVERAGE_FILE_SIZE)
+		);
+	}
+
+	/**
+	 * Looks up a file and records the request for the admission policy.
+	 * @param path the file's path
+	 * @return the cached file, or <code>null</code> if it is not cached or
+	 * has changed since it was cached
+	 */
+	public Entry get(Path path) {
+		if(reads.offer(path) && lock.tryLock()) {
+			try {
+				drainReads();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		Entry entry = entries.get(path);
+		if(entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+		if(now - entry.checkedAt > revalidateMillis) {
+			if(!entry.isCurrent()) {
+				invalidate(entry);
+				misses.incrementAndGet();
+				return null;
+			}
+			entry.checkedAt = now;
+		}
+		hits.incrementAndGet();
+		return entry;
+	}
+
+	/**
+	 * Reads a file into the cache, after a miss. Files larger than the
+	 * maximum file size are not cached, nor are files requested less often
+	 * than the file they would evict from a full cache.
+	 * @param path the file's path
+	 * @param mimeType the file's mime type
+	 * @return the new entry, or <code>null</code> if the file is too large
+	 * or was not admitted
+	 * @throws IOException if the file cannot be read
+	 */
+	public Entry load(Path path, String mimeType) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(
+				path, BasicFileAttributes.class
+		);
+		long size = attributes.size();
+		if(size > maxFileSize) return null;
+
+		lock.lock();
+		try {
+			drainReads();
+			if(!admits(path, size)) {
+				rejections.incrementAndGet();
+				return null;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		ByteBuffer body = ByteBuffer.allocateDirect((int) size);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while(body.hasRemaining()) {
+				if(channel.read(body) < 0) {
+					throw new IOException("File changed while being read: " + path);
+				}
+			}
+		}
+		body.flip();
+
+		Entry entry = new Entry(
+				path, body.asReadOnlyBuffer(), mimeType,
+				attributes.lastModifiedTime(), EntityTag.of(attributes)
+		);
+
+		lock.lock();
+		try {
+			Entry old = entries.get(path);
+			if(old != null) {
+				remove(old);
+			}
+			entries.put(path, entry);
+			entry.segment = window;
+			window.put(path, entry);
+			windowBytes += size;
+			evictFromWindow();
+		} finally {
+			lock.unlock();
+		}
+		return entry;
+	}
+
+	/**
+	 * Applies the recorded requests to the frequency sketch and moves the
+	 * requested entries which are still cached to the most recently used
+	 * end of their segments. Must be called with the lock held.
+	 */
+	private void drainReads() {
+		reads.drain(path -> {
+			sketch.increment(path);
+			Entry entry = entries.get(path);
+			if(entry != null && entry.segment != null) {
+				touch(entry);
+			}
+		});
+	}
+
+	/**
+	 * Decides whether a missed file is worth reading into the cache. While
+	 * the main region has room for the whole window and the file, every 
+	 * file is; afterwards only files requested more often than the main
+	 * region's least recently used entry, which the file would eventually
+	 * evict. Must be called with the lock held.
+	 * @param path the file's path
+	 * @param size the file's size, in bytes
+	 * @return true if the file should be read into the cache
+	 */
+	private boolean admits(Path path, long size) {
+		long mainMax = maxBytes - windowMax;
+		if(probationBytes + protectedBytes + windowBytes + size <= mainMax) {
+			return true;
+		}
+		
+		Entry victim = firstEntry(probation);
+		if(victim == null) {
+			victim = firstEntry(protectedSegment);
+		}
+		return victim == null 
+				|| sketch.frequency(path) > sketch.frequency(victim.path);
+	}
+
+	/**
+	 * Moves a requested entry to the most recently used end of its segment.
+	 * Entries requested while on probation are promoted to the protected
+	 * segment. Must be called with the lock held.
+	 * @param entry the requested entry
+	 */
+	private void touch(Entry entry) {
+		if(entry.segment == probation) {
+			probation.remove(entry.path);
+			probationBytes -= entry.size;
+			entry.segment = protectedSegment;
+			protectedSegment.put(entry.path, entry);
+			protectedBytes += entry.size;
+
+			//demote the least recently used protected entries
+			Iterator<Entry> it = protectedSegment.values().iterator();
+			while(protectedBytes > protectedMax && it.hasNext()) {
+				Entry demoted = it.next();
+				it.remove();
+				protectedBytes -= demoted.size;
+				demoted.segment = probation;
+				probation.put(demoted.path, demoted);
+				probationBytes += demoted.size;
+			}
+		} else {
+			entry.segment.remove(entry.path);
+			entry.segment.put(entry.path, entry);
+		}
+	}
+
+	/**
+	 * Moves entries from the window to the main region while the window is
+	 * over its budget. An entry is admitted only if the main region has
+	 * room for it, or if it is requested more often than the entries which
+	 * would have to be evicted. Must be called with the lock held.
+	 */
+	private void evictFromWindow() {
+		long mainMax = maxBytes - windowMax;
+
+		Iterator<Entry> windowIt = window.values().iterator();
+		while(windowBytes > windowMax && windowIt.hasNext()) {
+			Entry candidate = windowIt.next();
+			windowIt.remove();
+			windowBytes -= candidate.size;
+
+			int candidateFrequency = sketch.frequency(candidate.path);
+			boolean admitted = true;
+			while(probationBytes + protectedBytes + candidate.size > mainMax) {
+				Entry victim = firstEntry(probation);
+				if(victim == null) {
+					victim = firstEntry(protectedSegment);
+				}
+				if(victim == null || sketch.frequency(victim.path) >= candidateFrequency) {
+					admitted = false;
+					break;
+				}
+				remove(victim);
+				evictions.incrementAndGet();
+			}
+
+			if(admitted) {
+				candidate.segment = probation;
+				probation.put(candidate.path, candidate);
+				probationBytes += candidate.size;
+			} else {
+				entries.remove(candidate.path);
+				candidate.segment = null;
+				rejections.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Drops an entry whose file has changed.
+	 * @param entry the entry
+	 */
+	private void invalidate(Entry entry) {
+		lock.lock();
+		try {
+			if(entries.get(entry.path) == entry) {
+				remove(entry);
+				invalidations.incrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes an entry from the cache. Must be called with the lock held.
+	 * @param entry the entry
+	 */
+	private void remove(Entry entry) {
+		entries.remove(entry.path);
+		if(entry.segment == null) return;
+
+		entry.segment.remove(entry.path);
+		if(entry.segment == window) {
+			windowBytes -= entry.size;
+		} else if(entry.segment == probation) {
+			probationBytes -= entry.size;
+		} else {
+			protectedBytes -= entry.size;
+		}
+		entry.segment = null;
+	}
+
+	/**
+	 * @param segment a segment
+	 * @return the least recently used entry of the segment, or
+	 * <code>null</code> if it is empty
+	 */
+	private static Entry firstEntry(LinkedHashMap<Path, Entry> segment) {
+		Iterator<Entry> it = segment.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * @return the maximum size of a single cached file, in bytes
+	 */
+	public long getMaxFileSize() {
+		return maxFileSize;
+	}
+
+	/**
+	 * @return the number of requests served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of requests for files which were not cached
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of files evicted to make room for others
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the number of files which were not admitted to the main
+	 * region, because they were requested less often than the files
+	 * already there
+	 */
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	/**
+	 * @return the number of files dropped because they changed on the disk
+	 */
+	public long getInvalidations() {
+		return invalidations.get();
+	}
+
+	/**
+	 * @return the number of cached files
+	 */
+	public int getEntryCount() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the total size of the cached files, in bytes
+	 */
+	public long getCachedBytes() {
+		lock.lock();
+		try {
+			return windowBytes + probationBytes + protectedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"StaticFileCache[files=%d, bytes=%d/%d, hits=%d, misses=%d, "
+				+ "evictions=%d, rejections=%d, invalidations=%d]",
+				getEntryCount(), getCachedBytes(), maxBytes, getHits(),
+				getMisses(), getEvictions(), getRejections(), getInvalidations()
+		);
+	}
+
+	/**
+	 * A cached file, with the values needed for its response header.
+	 * @author 0036502252
+	 *
+	 */
+	public static class Entry {
+		/**
+		 * The file's path.
+		 */
+		private final Path path;
+		/**
+		 * The file's contents, in a read-only direct buffer.
+		 */
+		private final ByteBuffer body;
+		/**
+		 * The file's mime type.
+		 */
+		private final String mimeType;
+		/**
+		 * The file's modification time when it was read.
+		 */
+		private final FileTime lastModified;
+		/**
+		 * The file's entity tag when it was read.
+		 */
+		private final String eTag;
+		/**
+		 * The file's size, in bytes.
+		 */
+		private final long size;
+		/**
+		 * Time of the last check for changes, in milliseconds.
+		 */
+		private volatile long checkedAt = System.currentTimeMillis();
+		/**
+		 * The segment which holds this entry, or <code>null</code> once
+		 * it is removed. Guarded by the cache's lock.
+		 */
+		private LinkedHashMap<Path, Entry> segment;
+
+		/**
+		 * Constructs a new {@link Entry}.
+		 * @param path the file's path
+		 * @param body the file's contents
+		 * @param mimeType the file's mime type
+		 * @param lastModified the file's modification time
+		 * @param eTag the file's entity tag
+		 */
+		private Entry(Path path, ByteBuffer body, String mimeType,
+				FileTime lastModified, String eTag) {
+			this.path = path;
+			this.body = body;
+			this.mimeType = mimeType;
+			this.lastModified = lastModified;
+			this.eTag = eTag;
+			this.size = body.remaining();
+		}
+
+		/**
+		 * Checks whether the file on the disk is still the cached one.
+		 * @return true if the file's entity tag is unchanged
+		 */
+		private boolean isCurrent() {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(
+						path, BasicFileAttributes.class
+				);
+				return attributes.isRegularFile()
+						&& EntityTag.of(attributes).equals(eTag);
+			} catch (IOException ex) {
+				return false;
+			}
+		}
+
+		/**
+		 * @return the file's contents; the returned buffer is independent,
+		 * so its position may be changed freely
+		 */
+		public ByteBuffer getBody() {
+			return body.duplicate();
+		}
+
+		/**
+		 * @return the file's mime type
+		 */
+		public String getMimeType() {
+			return mimeType;
+		}
+
+		/**
+		 * @return the file's modification time when it was read
+		 */
+		public FileTime getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return the file's entity tag when it was read
+		 */
+		public String getETag() {
+			return eTag;
+		}
+
+		/**
+		 * @return the file's size, in bytes
+		 */
+		public long getSize() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,11 @@
+/**
+ * Contains caches used by the server for serving static files without
+ * reading or compressing them on every request: an in-memory cache of small
+ * files, a registry of memory-mapped large files and gzip-compressed 
+ * variants of files.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.cache;
@@ -0,0 +1,182 @@
+package hr.fer.zemris.java.webserver.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * An executor which bounds the number of tasks waiting for another 
+ * executor's threads. Once the given number of tasks wait, further tasks 
+ * are rejected with a {@link RejectedExecutionException}, so a traffic 
+ * spike cannot queue an unbounded number of clients, which would all time 
+ * out anyway. New tasks are likewise rejected while the queue is stuck:
+ * while tasks wait, but none was started for longer than the given time.
+ * A {@link ISheddable} task which waited longer than that time is 
+ * {@link ISheddable#shed() shed} instead of run.
+ * <p>
+ * A task counts as waiting until the underlying executor starts running
+ * it: until a pool thread takes it, or until it gets a permit of a
+ * {@link VirtualThreadExecutor}.
+ * @author 0036502252
+ *
+ */
+public class AdmissionExecutor extends AbstractExecutorService {
+	/**
+	 * The executor which runs the tasks.
+	 */
+	private ExecutorService delegate;
+	/**
+	 * Maximum number of waiting tasks.
+	 */
+	private int maxQueued;
+	/**
+	 * Time after which a waiting task is shed, in nanoseconds.
+	 */
+	private long maxWaitNanos;
+	/**
+	 * Number of waiting tasks.
+	 */
+	private AtomicInteger queued = new AtomicInteger();
+	/**
+	 * Time at which a task was last started, or at which the queue stopped
+	 * being empty, in nanoseconds.
+	 */
+	private volatile long lastProgress = System.nanoTime();
+	/**
+	 * Number of tasks rejected because too many tasks were waiting, or 
+	 * because the queue was stuck.
+	 */
+	private AtomicLong rejected = new AtomicLong();
+	/**
+	 * Number of tasks shed because they waited too long.
+	 */
+	private AtomicLong expired = new AtomicLong();
+	/**
+	 * Gets the time every task waited, in nanoseconds, or <code>null</code>.
+	 */
+	private volatile LongConsumer waitListener;
+
+	/**
+	 * Constructs a new {@link AdmissionExecutor}.
+	 * @param delegate the executor which runs the tasks
+	 * @param maxQueued maximum number of waiting tasks
+	 * @param maxWaitMillis time after which a waiting task is shed, in 
+	 * milliseconds
+	 */
+	public AdmissionExecutor(ExecutorService delegate, int maxQueued, 
+			long maxWaitMillis) {
+		if(maxQueued < 1) {
+			throw new IllegalArgumentException(
+					"Queue depth must be positive, was: " + maxQueued
+			);
+		}
+		this.delegate = delegate;
+		this.maxQueued = maxQueued;
+		this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+	}
+
+	/**
+	 * @throws RejectedExecutionException if too many tasks are waiting, or
+	 * if the queue is stuck
+	 */
+	@Override
+	public void execute(Runnable command) {
+		long queuedAt = System.nanoTime();
+		int waiting = queued.incrementAndGet();
+		if(waiting == 1) {
+			lastProgress = queuedAt;
+		}
+		if(waiting > maxQueued 
+				|| (waiting > 1 && queuedAt - lastProgress > maxWaitNanos)) {
+			queued.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Task queue is full.");
+		}
+
+		try {
+			delegate.execute(() -> {
+				queued.decrementAndGet();
+				long startedAt = System.nanoTime();
+				lastProgress = startedAt;
+				LongConsumer listener = waitListener;
+				if(listener != null) {
+					listener.accept(startedAt - queuedAt);
+				}
+				if(command instanceof ISheddable 
+						&& startedAt - queuedAt > maxWaitNanos) {
+					expired.incrementAndGet();
+					((ISheddable) command).shed();
+					return;
+				}
+				command.run();
+			});
+		} catch (RejectedExecutionException ex) {
+			queued.decrementAndGet();
+			rejected.incrementAndGet();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Sets the listener which gets the time every task waited before it 
+	 * was started or shed. It is called by the thread which runs the task,
+	 * so it must be quick.
+	 * @param waitListener gets the time, in nanoseconds
+	 */
+	public void setWaitListener(LongConsumer waitListener) {
+		this.waitListener = waitListener;
+	}
+
+	/**
+	 * @return the number of tasks which wait to be run
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * @return the number of tasks rejected because too many tasks were
+	 * waiting, or because the queue was stuck
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return the number of tasks shed because they waited too long
+	 */
+	public long getExpired() {
+		return expired.get();
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+}
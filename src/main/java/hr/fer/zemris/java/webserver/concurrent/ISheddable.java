@@ -0,0 +1,16 @@
+package hr.fer.zemris.java.webserver.concurrent;
+
+/**
+ * A task which can be dropped when the server is overloaded, for example
+ * once it has waited in the queue for so long that its client probably
+ * gave up. Instead of running, it tells its client to retry later.
+ * @author 0036502252
+ *
+ */
+public interface ISheddable {
+	/**
+	 * Drops the task instead of running it. Must be quick, since it is 
+	 * called by the thread which would have run the task.
+	 */
+	void shed();
+}
@@ -0,0 +1,130 @@
+package hr.fer.zemris.java.webserver.concurrent;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An executor which runs every task on its own virtual thread, while at
+ * most a given number of tasks run at the same time. Tasks over the limit
+ * wait on their (cheap) virtual threads, so submitting never blocks.
+ * <p>
+ * Virtual threads exist since Java 21, while the server is built for
+ * Java 8, so the underlying executor is obtained reflectively. Use
+ * {@link #isSupported()} to check whether the running JVM offers them.
+ * @author 0036502252
+ *
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService {
+	/**
+	 * The executor which starts a virtual thread per task.
+	 */
+	private ExecutorService delegate;
+	/**
+	 * Limits the number of tasks running at the same time.
+	 */
+	private Semaphore permits;
+
+	/**
+	 * Constructs a new {@link VirtualThreadExecutor}.
+	 * @param maxConcurrency the maximum number of tasks running at the same
+	 * time
+	 * @throws UnsupportedOperationException if the JVM does not support
+	 * virtual threads
+	 */
+	public VirtualThreadExecutor(int maxConcurrency) {
+		if(maxConcurrency < 1) {
+			throw new IllegalArgumentException(
+					"Concurrency limit must be positive, was: " + maxConcurrency
+			);
+		}
+		this.delegate = newVirtualThreadPerTaskExecutor();
+		this.permits = new Semaphore(maxConcurrency);
+	}
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	public static boolean isSupported() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Obtains <code>Executors.newVirtualThreadPerTaskExecutor()</code>.
+	 * @return the executor
+	 * @throws UnsupportedOperationException if the JVM does not support
+	 * virtual threads
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor")
+					.invoke(null);
+		} catch (NoSuchMethodException | IllegalAccessException
+				| InvocationTargetException ex) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or newer.", ex
+			);
+		}
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		delegate.execute(() -> {
+			try {
+				permits.acquire();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			try {
+				command.run();
+			} finally {
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * @return the number of tasks which may still start right away
+	 */
+	public int availablePermits() {
+		return permits.availablePermits();
+	}
+
+	@Override
+	public void shutdown() {
+		delegate.shutdown();
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		return delegate.shutdownNow();
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return delegate.isShutdown();
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return delegate.isTerminated();
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return delegate.awaitTermination(timeout, unit);
+	}
+}
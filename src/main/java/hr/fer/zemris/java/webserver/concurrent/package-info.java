@@ -0,0 +1,9 @@
+/**
+ * Contains executors which run the server's client workers, and the
+ * admission control which bounds how many clients wait for them.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.concurrent;
@@ -0,0 +1,56 @@
+package hr.fer.zemris.java.webserver.http;
+
+/**
+ * Evaluates the <code>Accept-Encoding</code> header field, which lists the
+ * content codings a client accepts, optionally weighted with quality 
+ * values, such as <code>gzip;q=1.0, identity; q=0.5, *;q=0</code>.
+ * @author 0036502252
+ *
+ */
+public class AcceptEncoding {
+
+	/**
+	 * Private constructor, as this class only has static methods.
+	 */
+	private AcceptEncoding() {
+	}
+
+	/**
+	 * Checks whether a client accepts a content coding. A coding is
+	 * accepted if it is listed with a non-zero quality, or if it is not 
+	 * listed, but <code>*</code> is listed with a non-zero quality.
+	 * @param value the value of the <code>Accept-Encoding</code> field, or
+	 * <code>null</code> if the client did not send it
+	 * @param coding the content coding, such as <code>gzip</code>
+	 * @return true if the client accepts the coding
+	 */
+	public static boolean accepts(String value, String coding) {
+		if(value == null) return false;
+
+		double codingQuality = -1;
+		double wildcardQuality = -1;
+		for(String element : value.split(",")) {
+			String[] parts = element.split(";");
+			String name = parts[0].trim();
+			double quality = 1;
+			for(int i = 1; i < parts.length; i++) {
+				String parameter = parts[i].trim();
+				if(parameter.regionMatches(true, 0, "q=", 0, 2)) {
+					try {
+						quality = Double.parseDouble(parameter.substring(2).trim());
+					} catch (NumberFormatException ex) {
+						quality = 0;
+					}
+				}
+			}
+
+			if(name.equalsIgnoreCase(coding) || name.equalsIgnoreCase("x-" + coding)) {
+				codingQuality = Math.max(codingQuality, quality);
+			} else if(name.equals("*")) {
+				wildcardQuality = quality;
+			}
+		}
+
+		return codingQuality >= 0 ? codingQuality > 0 : wildcardQuality > 0;
+	}
+}
@@ -0,0 +1,152 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a response body, as requested with the
+ * <code>Range</code> header field.
+ * @author 0036502252
+ *
+ */
+public class ByteRange {
+	/**
+	 * Maximum number of ranges in a request. Requests for more ranges are
+	 * answered with the whole body, so a client cannot make the server
+	 * send many small, possibly overlapping parts of a large file.
+	 */
+	public static final int MAX_RANGES = 16;
+
+	/**
+	 * Position of the first byte of the range.
+	 */
+	private final long first;
+	/**
+	 * Position of the last byte of the range, inclusive.
+	 */
+	private final long last;
+
+	/**
+	 * Constructs a new {@link ByteRange}.
+	 * @param first position of the first byte
+	 * @param last position of the last byte, inclusive
+	 */
+	public ByteRange(long first, long last) {
+		if(first < 0 || last < first) {
+			throw new IllegalArgumentException(
+					"Invalid byte range: " + first + "-" + last
+			);
+		}
+		this.first = first;
+		this.last = last;
+	}
+
+	/**
+	 * Parses the value of a <code>Range</code> header field, such as
+	 * <code>bytes=0-499,-500</code>, for a body of the given length.
+	 * Ranges which start beyond the end of the body are left out, and
+	 * ranges which end beyond it are shortened.
+	 * @param value the field's value
+	 * @param length length of the body
+	 * @return the satisfiable ranges, in the requested order, which is an
+	 * empty list if none of the ranges is satisfiable; or <code>null</code>
+	 * if the field is malformed, uses a unit other than bytes, or asks for
+	 * more than {@value #MAX_RANGES} ranges, in which case it is ignored
+	 */
+	public static List<ByteRange> parse(String value, long length) {
+		value = value.trim();
+		if(!value.regionMatches(true, 0, "bytes=", 0, "bytes=".length())) {
+			return null;
+		}
+
+		List<ByteRange> ranges = new ArrayList<>();
+		int specs = 0;
+		for(String spec : value.substring("bytes=".length()).split(",")) {
+			spec = spec.trim();
+			if(spec.isEmpty()) continue;
+			if(++specs > MAX_RANGES) return null;
+
+			int dash = spec.indexOf('-');
+			if(dash < 0) return null;
+			String firstString = spec.substring(0, dash).trim();
+			String lastString = spec.substring(dash + 1).trim();
+
+			try {
+				if(firstString.isEmpty()) {
+					//suffix range: the last n bytes
+					long suffix = parseNumber(lastString);
+					if(suffix > 0 && length > 0) {
+						ranges.add(new ByteRange(
+								Math.max(0, length - suffix), length - 1
+						));
+					}
+					continue;
+				}
+
+				long first = parseNumber(firstString);
+				long last = lastString.isEmpty() ? 
+						Long.MAX_VALUE : 
+						parseNumber(lastString);
+				if(last < first) return null;
+				if(first < length) {
+					ranges.add(new ByteRange(first, Math.min(last, length - 1)));
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+		}
+
+		return specs == 0 ? null : ranges;
+	}
+
+	/**
+	 * Parses a non-negative decimal number.
+	 * @param value the number
+	 * @return the parsed number
+	 * @throws NumberFormatException if the value is not a non-negative
+	 * decimal number
+	 */
+	private static long parseNumber(String value) {
+		for(int i = 0; i < value.length(); i++) {
+			if(!Character.isDigit(value.charAt(i))) {
+				throw new NumberFormatException("Not a number: " + value);
+			}
+		}
+		return Long.parseLong(value);
+	}
+
+	/**
+	 * @return position of the first byte of the range
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * @return position of the last byte of the range, inclusive
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * @return number of bytes in the range
+	 */
+	public long getLength() {
+		return last - first + 1;
+	}
+
+	/**
+	 * @param length length of the whole body
+	 * @return the value of the <code>Content-Range</code> header field for
+	 * this range, such as <code>bytes 0-499/1234</code>
+	 */
+	public String toContentRange(long length) {
+		return "bytes " + first + "-" + last + "/" + length;
+	}
+
+	@Override
+	public String toString() {
+		return first + "-" + last;
+	}
+}
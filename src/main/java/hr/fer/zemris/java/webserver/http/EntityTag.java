@@ -0,0 +1,61 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Creates and compares entity tags, which identify a version of a static
+ * file for conditional requests (<code>ETag</code>, 
+ * <code>If-None-Match</code> and <code>If-Range</code>).
+ * @author 0036502252
+ *
+ */
+public class EntityTag {
+
+	/**
+	 * Private constructor, as this class only has static methods.
+	 */
+	private EntityTag() {
+	}
+
+	/**
+	 * Creates a strong entity tag for a file from its file key (the inode
+	 * on Unix), size and modification time, so a file gets a new tag 
+	 * whenever it is replaced or changed.
+	 * @param attributes the file's attributes
+	 * @return the quoted entity tag
+	 */
+	public static String of(BasicFileAttributes attributes) {
+		Object fileKey = attributes.fileKey();
+		return "\""
+				+ (fileKey == null ? "" : Integer.toHexString(fileKey.hashCode()) + "-")
+				+ Long.toHexString(attributes.size()) + "-"
+				+ Long.toHexString(attributes.lastModifiedTime().toMillis())
+				+ "\"";
+	}
+
+	/**
+	 * Checks the value of an <code>If-None-Match</code> header field, 
+	 * which is <code>*</code> or a list of entity tags, using the weak
+	 * comparison.
+	 * @param value the field's value
+	 * @param tag the current entity tag
+	 * @return true if one of the listed tags matches
+	 */
+	public static boolean matchesAny(String value, String tag) {
+		if(value.trim().equals("*")) return true;
+
+		String opaqueTag = stripWeak(tag);
+		for(String listed : value.split(",")) {
+			if(stripWeak(listed.trim()).equals(opaqueTag)) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @param tag an entity tag
+	 * @return the tag without the weakness indicator
+	 */
+	private static String stripWeak(String tag) {
+		return tag.startsWith("W/") ? tag.substring(2) : tag;
+	}
+}
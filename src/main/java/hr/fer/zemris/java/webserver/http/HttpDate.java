@@ -0,0 +1,69 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formats and parses dates used in HTTP header fields, such as
+ * <code>Last-Modified</code> and <code>If-Range</code>. HTTP dates have a
+ * precision of one second.
+ * @author 0036502252
+ *
+ */
+public class HttpDate {
+	/**
+	 * The format in which dates are sent, for example 
+	 * <code>Sun, 06 Nov 1994 08:49:37 GMT</code>.
+	 */
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern(
+			"EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US
+	);
+	/**
+	 * The format in which dates are accepted, which also allows single
+	 * digit days.
+	 */
+	private static final DateTimeFormatter PARSE_FORMAT = 
+			DateTimeFormatter.RFC_1123_DATE_TIME;
+
+	/**
+	 * Private constructor, as this class only has static methods.
+	 */
+	private HttpDate() {
+	}
+
+	/**
+	 * @param time a point in time
+	 * @return the time as an HTTP date
+	 */
+	public static String format(FileTime time) {
+		return FORMAT.format(
+				ZonedDateTime.ofInstant(time.toInstant(), ZoneOffset.UTC)
+		);
+	}
+
+	/**
+	 * @param value an HTTP date
+	 * @return the date in seconds since the epoch, or <code>-1</code> if
+	 * the value is not a valid HTTP date
+	 */
+	public static long parseSeconds(String value) {
+		try {
+			return Instant.from(PARSE_FORMAT.parse(value.trim())).getEpochSecond();
+		} catch (DateTimeParseException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param time a point in time
+	 * @return the time in seconds since the epoch, as precise as HTTP dates
+	 */
+	public static long toSeconds(FileTime time) {
+		return time.toInstant().getEpochSecond();
+	}
+}
@@ -0,0 +1,20 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.io.IOException;
+
+/**
+ * Writes a region of a response body which is known in advance, such as a
+ * static file. Used for sending byte ranges of the body.
+ * @author 0036502252
+ *
+ */
+public interface IRegionWriter {
+	/**
+	 * Writes <code>count</code> bytes of the body, starting at 
+	 * <code>position</code>.
+	 * @param position position of the first byte
+	 * @param count number of bytes to write
+	 * @throws IOException if an I/O error occurs
+	 */
+	void writeRegion(long position, long count) throws IOException;
+}
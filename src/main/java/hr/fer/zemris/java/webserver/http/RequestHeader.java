@@ -0,0 +1,490 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parsed HTTP request header. The request line and the header fields are
+ * kept as offsets into the header's bytes, and strings are only created for
+ * the parts which are actually read. Field names are matched without regard
+ * to case, and folded field values are joined into one line.
+ * <p>
+ * Fields are indexed once, while parsing: every field's name is hashed
+ * without regard to case, so a lookup only compares the names of fields 
+ * with the same hash, and the first field of each of the well-known names
+ * the server reads for every request is kept in a fixed slot.
+ * @author 0036502252
+ *
+ */
+public class RequestHeader {
+	/**
+	 * Line feed.
+	 */
+	private static final byte LF = 10;
+	/**
+	 * Carriage return.
+	 */
+	private static final byte CR = 13;
+	/**
+	 * Number of integers stored for every field: the start and end of its
+	 * name, the start and end of its value, and the hash of its name.
+	 */
+	private static final int FIELD_OFFSETS = 5;
+	/**
+	 * Names of the fields which have fixed slots.
+	 */
+	private static final String[] WELL_KNOWN = {
+			"Host", "Cookie", "Accept-Encoding", "If-None-Match", "Range", 
+			"Connection"
+	};
+	/**
+	 * Hashes of the names of the fields which have fixed slots.
+	 */
+	private static final int[] WELL_KNOWN_HASHES = new int[WELL_KNOWN.length];
+
+	/**
+	 * Number of fields for which offsets are allocated up front.
+	 */
+	private static final int INITIAL_FIELDS = 16;
+
+	static {
+		for(int i = 0; i < WELL_KNOWN.length; i++) {
+			WELL_KNOWN_HASHES[i] = hash(WELL_KNOWN[i]);
+		}
+	}
+
+	/**
+	 * The header's bytes.
+	 */
+	private final byte[] data;
+	/**
+	 * Indicates whether the request line is well-formed.
+	 */
+	private boolean valid;
+	/**
+	 * Offsets of the method, the target and the version in the request
+	 * line: start and end of each.
+	 */
+	private int[] requestLine = new int[6];
+	/**
+	 * Offsets of the fields, {@value #FIELD_OFFSETS} per field.
+	 */
+	private int[] fields = new int[INITIAL_FIELDS * FIELD_OFFSETS];
+	/**
+	 * Number of fields.
+	 */
+	private int fieldCount;
+	/**
+	 * Index of the first field of each well-known name, or -1 if there is
+	 * none.
+	 */
+	private int[] slots = new int[WELL_KNOWN.length];
+	/**
+	 * Decoded parts of the request line, created on first access.
+	 */
+	private String[] requestLineParts = new String[3];
+	/**
+	 * Decoded field values, created on first access.
+	 */
+	private String[] values;
+
+	/**
+	 * Constructs a new {@link RequestHeader} and parses it.
+	 * @param data the header's bytes, which are not copied
+	 */
+	private RequestHeader(byte[] data) {
+		this.data = data;
+		Arrays.fill(slots, -1);
+		parse();
+	}
+
+	/**
+	 * Parses a request header.
+	 * @param buffer the buffer which holds the header
+	 * @param offset offset of the header in the buffer
+	 * @param length length of the header, including the empty line which
+	 * ends it
+	 * @return the parsed header, which does not refer to the buffer
+	 */
+	public static RequestHeader parse(byte[] buffer, int offset, int length) {
+		return new RequestHeader(
+				Arrays.copyOfRange(buffer, offset, offset + length)
+		);
+	}
+
+	/**
+	 * @return a header which is not valid, such as one which is too long
+	 */
+	public static RequestHeader invalid() {
+		return new RequestHeader(new byte[0]);
+	}
+
+	/**
+	 * Finds the end of a request header: an empty line terminated by either
+	 * <code>CRLF</code> or <code>LF</code>.
+	 * @param data the bytes read so far
+	 * @param from index from which to search
+	 * @param to index after the last valid byte
+	 * @return the index right after the header, or -1 if the header is not
+	 * complete
+	 */
+	public static int findEnd(byte[] data, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] != LF) continue;
+			if(i + 1 < to && data[i + 1] == LF) return i + 2;
+			if(i + 2 < to && data[i + 1] == CR && data[i + 2] == LF) {
+				return i + 3;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the request line and the field offsets.
+	 */
+	private void parse() {
+		int length = data.length;
+		int pos = 0;
+		//empty lines before the request line are ignored
+		while(pos < length && (data[pos] == CR || data[pos] == LF)) pos++;
+
+		int lineEnd = lineEnd(pos);
+		valid = parseRequestLine(pos, trimCR(pos, lineEnd));
+
+		pos = lineEnd + 1;
+		while(pos < length) {
+			lineEnd = lineEnd(pos);
+			int end = trimCR(pos, lineEnd);
+			if(end == pos) break;
+
+			if(isWhitespace(data[pos])) {
+				//a folded line continues the previous field's value
+				if(fieldCount > 0) {
+					fields[(fieldCount - 1) * FIELD_OFFSETS + 3] = end;
+				}
+			} else {
+				int colon = indexOf((byte) ':', pos, end);
+				if(colon != -1) {
+					addField(pos, colon, colon + 1, end);
+				}
+			}
+			pos = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * Splits the request line into the method, the target and the version,
+	 * which are separated by whitespace.
+	 * @param start start of the request line
+	 * @param end end of the request line
+	 * @return true if the line consists of exactly three parts
+	 */
+	private boolean parseRequestLine(int start, int end) {
+		int pos = start;
+		for(int part = 0; part < 3; part++) {
+			while(pos < end && isWhitespace(data[pos])) pos++;
+			requestLine[2 * part] = pos;
+			while(pos < end && !isWhitespace(data[pos])) pos++;
+			requestLine[2 * part + 1] = pos;
+			if(requestLine[2 * part] == pos) return false;
+		}
+		while(pos < end && isWhitespace(data[pos])) pos++;
+		return pos == end;
+	}
+
+	/**
+	 * Stores the offsets of a field.
+	 * @param nameStart start of the field's name
+	 * @param nameEnd end of the field's name
+	 * @param valueStart start of the field's value
+	 * @param valueEnd end of the field's value
+	 */
+	private void addField(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+		int index = fieldCount * FIELD_OFFSETS;
+		if(index == fields.length) {
+			fields = Arrays.copyOf(fields, fields.length * 2);
+		}
+		fields[index] = nameStart;
+		fields[index + 1] = nameEnd;
+		fields[index + 2] = valueStart;
+		fields[index + 3] = valueEnd;
+		int hash = 0;
+		for(int i = nameStart; i < nameEnd; i++) {
+			hash = 31 * hash + toLowerCase(data[i] & 0xFF);
+		}
+		fields[index + 4] = hash;
+		
+		for(int i = 0; i < WELL_KNOWN.length; i++) {
+			if(slots[i] == -1 && WELL_KNOWN_HASHES[i] == hash 
+					&& nameEquals(fieldCount, WELL_KNOWN[i])) {
+				slots[i] = fieldCount;
+				break;
+			}
+		}
+		fieldCount++;
+	}
+
+	/**
+	 * @param name a field name
+	 * @return the hash of the name, without regard to case
+	 */
+	private static int hash(String name) {
+		int hash = 0;
+		for(int i = 0, n = name.length(); i < n; i++) {
+			hash = 31 * hash + toLowerCase(name.charAt(i));
+		}
+		return hash;
+	}
+
+	/**
+	 * @param c a character
+	 * @return the character in lowercase, if it is an ASCII letter
+	 */
+	private static int toLowerCase(int c) {
+		return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+	}
+
+	/**
+	 * @param from index of the line's first byte
+	 * @return index of the line feed which ends the line, or the header's
+	 * length if there is none
+	 */
+	private int lineEnd(int from) {
+		int end = indexOf(LF, from, data.length);
+		return end == -1 ? data.length : end;
+	}
+
+	/**
+	 * @param start index of the line's first byte
+	 * @param end index of the line feed which ends the line
+	 * @return the line's end, without a trailing carriage return
+	 */
+	private int trimCR(int start, int end) {
+		return end > start && data[end - 1] == CR ? end - 1 : end;
+	}
+
+	/**
+	 * @param b the byte to look for
+	 * @param from index from which to search
+	 * @param to index at which to stop
+	 * @return index of the first occurrence of the byte, or -1
+	 */
+	private int indexOf(byte b, int from, int to) {
+		for(int i = from; i < to; i++) {
+			if(data[i] == b) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param b a byte
+	 * @return true if the byte is a space or a horizontal tab
+	 */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * @return true if the request line consists of a method, a target and
+	 * a version
+	 */
+	public boolean isValid() {
+		return valid;
+	}
+
+	/**
+	 * @return the request's method, or <code>null</code> if the header is
+	 * not valid
+	 */
+	public String getMethod() {
+		return requestLinePart(0);
+	}
+
+	/**
+	 * @return the request's target, including the query, or
+	 * <code>null</code> if the header is not valid
+	 */
+	public String getTarget() {
+		return requestLinePart(1);
+	}
+
+	/**
+	 * @return the request's HTTP version, or <code>null</code> if the header
+	 * is not valid
+	 */
+	public String getVersion() {
+		return requestLinePart(2);
+	}
+
+	/**
+	 * @param part index of the part of the request line
+	 * @return the decoded part, or <code>null</code> if the header is not
+	 * valid
+	 */
+	private String requestLinePart(int part) {
+		if(!valid) return null;
+		if(requestLineParts[part] == null) {
+			int start = requestLine[2 * part];
+			requestLineParts[part] = new String(
+					data, start, requestLine[2 * part + 1] - start,
+					StandardCharsets.ISO_8859_1
+			);
+		}
+		return requestLineParts[part];
+	}
+
+	/**
+	 * @return the number of header fields
+	 */
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	/**
+	 * @param index the field's index
+	 * @return the field's name
+	 */
+	public String getFieldName(int index) {
+		checkIndex(index);
+		int start = fields[index * FIELD_OFFSETS];
+		return new String(
+				data, start, fields[index * FIELD_OFFSETS + 1] - start,
+				StandardCharsets.ISO_8859_1
+		);
+	}
+
+	/**
+	 * @param index the field's index
+	 * @return the field's value, without surrounding whitespace
+	 */
+	public String getFieldValue(int index) {
+		checkIndex(index);
+		if(values == null) {
+			values = new String[fieldCount];
+		}
+		if(values[index] == null) {
+			values[index] = decodeValue(index);
+		}
+		return values[index];
+	}
+
+	/**
+	 * @param index the field's index
+	 * @param name a field name
+	 * @return true if the field has the given name, ignoring case
+	 */
+	public boolean isField(int index, String name) {
+		checkIndex(index);
+		return fields[index * FIELD_OFFSETS + 4] == hash(name) 
+				&& nameEquals(index, name);
+	}
+
+	/**
+	 * @param index the field's index
+	 * @param name a field name
+	 * @return true if the field has the given name, ignoring case
+	 */
+	private boolean nameEquals(int index, String name) {
+		int start = fields[index * FIELD_OFFSETS];
+		int length = fields[index * FIELD_OFFSETS + 1] - start;
+		if(length != name.length()) return false;
+		for(int i = 0; i < length; i++) {
+			int a = data[start + i] & 0xFF;
+			int b = name.charAt(i);
+			if(a != b && toLowerCase(a) != toLowerCase(b)) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @param name a field name, matched without regard to case
+	 * @return the value of the first field with the given name, or
+	 * <code>null</code> if there is none
+	 */
+	public String getHeader(String name) {
+		int index = indexOf(name, hash(name), 0);
+		return index == -1 ? null : getFieldValue(index);
+	}
+
+	/**
+	 * @param name a field name, matched without regard to case
+	 * @return the values of all fields with the given name, in order, or 
+	 * an empty list if there are none
+	 */
+	public List<String> getHeaders(String name) {
+		int hash = hash(name);
+		int index = indexOf(name, hash, 0);
+		if(index == -1) return Collections.emptyList();
+		
+		List<String> result = new ArrayList<>(2);
+		while(index != -1) {
+			result.add(getFieldValue(index));
+			index = indexOf(name, hash, index + 1);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds a field by its name. The first field of a well-known name is
+	 * taken from its slot.
+	 * @param name a field name, matched without regard to case
+	 * @param hash the hash of the name
+	 * @param from index from which to search
+	 * @return index of the first such field at or after <code>from</code>,
+	 * or -1 if there is none
+	 */
+	private int indexOf(String name, int hash, int from) {
+		if(from == 0) {
+			for(int i = 0; i < WELL_KNOWN.length; i++) {
+				if(WELL_KNOWN_HASHES[i] == hash 
+						&& WELL_KNOWN[i].equalsIgnoreCase(name)) {
+					return slots[i];
+				}
+			}
+		}
+		for(int i = from; i < fieldCount; i++) {
+			if(fields[i * FIELD_OFFSETS + 4] == hash && nameEquals(i, name)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes a field's value. Surrounding whitespace is removed, and line
+	 * breaks of folded values are left out.
+	 * @param index the field's index
+	 * @return the decoded value
+	 */
+	private String decodeValue(int index) {
+		int start = fields[index * FIELD_OFFSETS + 2];
+		int end = fields[index * FIELD_OFFSETS + 3];
+		while(start < end && isWhitespace(data[start])) start++;
+		while(end > start && isWhitespace(data[end - 1])) end--;
+
+		if(indexOf(LF, start, end) == -1) {
+			return new String(data, start, end - start, StandardCharsets.ISO_8859_1);
+		}
+
+		StringBuilder sb = new StringBuilder(end - start);
+		for(int i = start; i < end; i++) {
+			if(data[i] != CR && data[i] != LF) {
+				sb.append((char) (data[i] & 0xFF));
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param index a field's index
+	 * @throws IndexOutOfBoundsException if there is no such field
+	 */
+	private void checkIndex(int index) {
+		if(index < 0 || index >= fieldCount) {
+			throw new IndexOutOfBoundsException("No header field " + index);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package hr.fer.zemris.java.webserver.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads request headers from a connection's input stream. Bytes are read in
+ * bulk into a reusable buffer, which is searched for the end of the header,
+ * so reading a header takes a few reads rather than one per byte. Bytes of
+ * pipelined requests which follow a header are kept for the next one.
+ * @author 0036502252
+ *
+ */
+public class RequestReader {
+	/**
+	 * Initial size of the buffer, in bytes. Enough for most headers.
+	 */
+	private static final int INITIAL_SIZE = 8192;
+
+	/**
+	 * The connection's input stream.
+	 */
+	private final InputStream in;
+	/**
+	 * Maximum size of a request header, in bytes.
+	 */
+	private final int maxHeaderSize;
+	/**
+	 * The buffer.
+	 */
+	private byte[] buffer;
+	/**
+	 * Index of the first byte which was not consumed yet.
+	 */
+	private int start;
+	/**
+	 * Index after the last byte which was read.
+	 */
+	private int limit;
+	/**
+	 * Index from which to continue searching for the end of the header.
+	 */
+	private int scanned;
+
+	/**
+	 * Constructs a new {@link RequestReader}.
+	 * @param in the connection's input stream
+	 * @param maxHeaderSize maximum size of a request header, in bytes
+	 */
+	public RequestReader(InputStream in, int maxHeaderSize) {
+		this.in = in;
+		this.maxHeaderSize = maxHeaderSize;
+		this.buffer = new byte[Math.min(INITIAL_SIZE, maxHeaderSize)];
+	}
+
+	/**
+	 * Reads the next request header, blocking until it is complete.
+	 * @return the header, an {@link RequestHeader#invalid() invalid} header
+	 * if it is longer than the maximum size, or <code>null</code> if the
+	 * stream ended first
+	 * @throws IOException if an I/O error occurs
+	 */
+	public RequestHeader read() throws IOException {
+		while(true) {
+			int end = RequestHeader.findEnd(buffer, scanned, limit);
+			if(end != -1) {
+				RequestHeader header = RequestHeader.parse(buffer, start, end - start);
+				consume(end);
+				return header;
+			}
+			//the end's first line feed may be among the last two bytes
+			scanned = Math.max(start, limit - 2);
+
+			if(limit - start >= maxHeaderSize) {
+				consume(limit);
+				return RequestHeader.invalid();
+			}
+			makeRoom();
+
+			int r = in.read(buffer, limit, buffer.length - limit);
+			if(r == -1) return null;
+			limit += r;
+		}
+	}
+
+	/**
+	 * Blocks until at least one byte of the next request is buffered, so the
+	 * wait for a request can be timed apart from reading its header.
+	 * @return true if a byte is buffered, false if the stream ended first
+	 * @throws IOException if an I/O error occurs
+	 */
+	public boolean awaitData() throws IOException {
+		if(limit > start) return true;
+		makeRoom();
+		int r = in.read(buffer, limit, buffer.length - limit);
+		if(r == -1) return false;
+		limit += r;
+		return true;
+	}
+
+	/**
+	 * Marks the bytes up to an index as consumed.
+	 * @param end index after the last consumed byte
+	 */
+	private void consume(int end) {
+		start = end;
+		if(start == limit) {
+			start = 0;
+			limit = 0;
+		}
+		scanned = start;
+	}
+
+	/**
+	 * Makes room for more bytes at the end of the buffer, by moving the
+	 * unconsumed bytes to its front or by enlarging it.
+	 */
+	private void makeRoom() {
+		if(limit < buffer.length) return;
+		if(start > 0) {
+			System.arraycopy(buffer, start, buffer, 0, limit - start);
+			limit -= start;
+			scanned -= start;
+			start = 0;
+		} else {
+			buffer = Arrays.copyOf(
+					buffer, Math.min(buffer.length * 2, maxHeaderSize)
+			);
+		}
+	}
+
+	/**
+	 * @return an estimate of the number of bytes which can be read without
+	 * blocking, including those which are already buffered
+	 * @throws IOException if an I/O error occurs
+	 */
+	public int available() throws IOException {
+		return limit - start + in.available();
+	}
+}
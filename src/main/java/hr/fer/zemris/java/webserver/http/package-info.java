@@ -0,0 +1,10 @@
+/**
+ * Contains the request header reader and parser, as well as parsers and
+ * helpers for HTTP header fields used by the server, such as byte ranges,
+ * dates, entity tags and accepted content codings.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.http;
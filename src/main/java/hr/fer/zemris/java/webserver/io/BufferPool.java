@@ -0,0 +1,73 @@
+package hr.fer.zemris.java.webserver.io;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of equally sized byte arrays, so short-lived buffers, such as 
+ * response buffers, are reused instead of allocated for every request.
+ * Buffers which are not returned are simply collected as garbage.
+ * @author 0036502252
+ *
+ */
+public class BufferPool {
+	/**
+	 * Size of the pooled buffers, in bytes.
+	 */
+	private final int bufferSize;
+	/**
+	 * Maximum number of idle buffers kept in the pool.
+	 */
+	private final int maxIdle;
+	/**
+	 * Idle buffers.
+	 */
+	private final Queue<byte[]> idle = new ConcurrentLinkedQueue<>();
+	/**
+	 * Number of idle buffers.
+	 */
+	private final AtomicInteger idleCount = new AtomicInteger();
+
+	/**
+	 * Constructs a new {@link BufferPool}.
+	 * @param bufferSize size of the pooled buffers, in bytes
+	 * @param maxIdle maximum number of idle buffers kept in the pool
+	 */
+	public BufferPool(int bufferSize, int maxIdle) {
+		this.bufferSize = bufferSize;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * @return an idle buffer, or a new one if the pool is empty
+	 */
+	public byte[] acquire() {
+		byte[] buffer = idle.poll();
+		if(buffer == null) {
+			return new byte[bufferSize];
+		}
+		idleCount.decrementAndGet();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. It must not be used afterwards.
+	 * @param buffer the buffer
+	 */
+	public void release(byte[] buffer) {
+		if(buffer.length != bufferSize) return;
+		if(idleCount.incrementAndGet() > maxIdle) {
+			idleCount.decrementAndGet();
+			return;
+		}
+		idle.offer(buffer);
+	}
+
+	/**
+	 * @return size of the pooled buffers, in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
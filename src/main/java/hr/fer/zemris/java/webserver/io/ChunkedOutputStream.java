@@ -0,0 +1,92 @@
+package hr.fer.zemris.java.webserver.io;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream which frames everything written to it using the HTTP/1.1
+ * chunked transfer encoding. Used for responses whose length is not known 
+ * when the header is sent, so the connection can be reused afterwards.
+ * @author 0036502252
+ *
+ */
+public class ChunkedOutputStream extends FilterOutputStream {
+	/**
+	 * Line terminator used by the chunked encoding.
+	 */
+	private static final byte[] CRLF = {13, 10};
+	/**
+	 * The last chunk, followed by an empty trailer.
+	 */
+	private static final byte[] LAST_CHUNK = 
+			"0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	/**
+	 * Chunks up to this size are framed in a single write to the 
+	 * underlying stream, in bytes.
+	 */
+	private static final int MAX_FRAMED_SIZE = 64 * 1024;
+	
+	/**
+	 * Indicates whether the last chunk was written.
+	 */
+	private boolean finished;
+
+	/**
+	 * Constructs a new {@link ChunkedOutputStream}.
+	 * @param out the underlying output stream
+	 */
+	public ChunkedOutputStream(OutputStream out) {
+		super(out);
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if(finished) throw new IOException("Chunked stream already finished.");
+		//an empty chunk would terminate the body
+		if(len == 0) return;
+		
+		byte[] size = Integer.toHexString(len).getBytes(StandardCharsets.US_ASCII);
+		if(len <= MAX_FRAMED_SIZE) {
+			byte[] chunk = new byte[size.length + len + 4];
+			System.arraycopy(size, 0, chunk, 0, size.length);
+			System.arraycopy(CRLF, 0, chunk, size.length, 2);
+			System.arraycopy(b, off, chunk, size.length + 2, len);
+			System.arraycopy(CRLF, 0, chunk, chunk.length - 2, 2);
+			out.write(chunk);
+			return;
+		}
+		
+		out.write(size);
+		out.write(CRLF);
+		out.write(b, off, len);
+		out.write(CRLF);
+	}
+	
+	/**
+	 * Writes the last chunk, which ends the body. The underlying stream is
+	 * left open.
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void finish() throws IOException {
+		if(finished) return;
+		finished = true;
+		out.write(LAST_CHUNK);
+		out.flush();
+	}
+	
+	/**
+	 * Finishes the body without closing the underlying stream, which 
+	 * belongs to the connection.
+	 */
+	@Override
+	public void close() throws IOException {
+		finish();
+	}
+}
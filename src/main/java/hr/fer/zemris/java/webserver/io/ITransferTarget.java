@@ -0,0 +1,92 @@
+package hr.fer.zemris.java.webserver.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An output stream which can send a region of a file directly from the
+ * file channel to the client connection, using
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}
+ * so the operating system copies the data without passing it through 
+ * user space. Direct buffers, such as cached files, are likewise written to
+ * the connection without copying them to the heap first.
+ * @author 0036502252
+ *
+ */
+public interface ITransferTarget {
+	/**
+	 * Sends <code>count</code> bytes of the file, starting at 
+	 * <code>position</code>. Returns once the bytes are sent or copied, so
+	 * the caller may close the channel afterwards.
+	 * @param source the file channel
+	 * @param position position of the first byte in the file
+	 * @param count number of bytes to send
+	 * @throws IOException if an I/O error occurs
+	 */
+	void transferFrom(FileChannel source, long position, long count) 
+			throws IOException;
+	
+	/**
+	 * Sends the remaining bytes of a buffer, which may be a direct buffer
+	 * shared by several responses. The buffer's position is advanced to its
+	 * limit. Returns once the bytes are sent or copied, and does not keep a
+	 * reference to the buffer's position afterwards.
+	 * @param buffer the buffer
+	 * @throws IOException if an I/O error occurs
+	 */
+	void writeBuffer(ByteBuffer buffer) throws IOException;
+	
+	/**
+	 * Copies a region of a file to a stream through a heap buffer. Used 
+	 * for streams which are not transfer targets.
+	 * @param source the file channel
+	 * @param position position of the first byte in the file
+	 * @param count number of bytes to copy
+	 * @param out the stream to which the bytes are written
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void copy(FileChannel source, long position, long count, 
+			OutputStream out) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(
+				(int) Math.min(count, COPY_BUFFER_SIZE)
+		);
+		long end = position + count;
+		while(position < end) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), end - position));
+			int r = source.read(buffer, position);
+			if(r < 0) throw new IOException("File is shorter than expected.");
+			out.write(buffer.array(), 0, r);
+			position += r;
+		}
+	}
+	
+	/**
+	 * Copies the remaining bytes of a buffer to a stream. Used for streams
+	 * which are not transfer targets.
+	 * @param buffer the buffer
+	 * @param out the stream to which the bytes are written
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void copy(ByteBuffer buffer, OutputStream out) throws IOException {
+		if(buffer.hasArray()) {
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), 
+					buffer.remaining());
+			buffer.position(buffer.limit());
+			return;
+		}
+		byte[] chunk = new byte[Math.min(buffer.remaining(), COPY_BUFFER_SIZE)];
+		while(buffer.hasRemaining()) {
+			int len = Math.min(chunk.length, buffer.remaining());
+			buffer.get(chunk, 0, len);
+			out.write(chunk, 0, len);
+		}
+	}
+	
+	/**
+	 * Size of the buffer used by {@link #copy}.
+	 */
+	int COPY_BUFFER_SIZE = 8192;
+}
@@ -0,0 +1,286 @@
+package hr.fer.zemris.java.webserver.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the responses to pipelined requests in request order. Every
+ * request gets its own slot, which is an output stream. Only the oldest
+ * unfinished slot writes directly to the connection; the others buffer
+ * their output until all slots before them are closed. This way pipelined
+ * requests can be served concurrently, while the client still receives
+ * the responses in the order it sent the requests.
+ * <p>
+ * Slots are guarded by locks rather than monitors, since a slot holds its
+ * lock while writing to the connection and virtual threads blocked inside
+ * a monitor would pin their carrier threads.
+ * <p>
+ * Files written by the slot which is currently writing to the connection
+ * are passed on to the connection without copying, if it is an
+ * {@link ITransferTarget}; the other slots have to buffer them.
+ * <p>
+ * A waiting slot buffers at most a fixed number of bytes. A write which
+ * would exceed that blocks until the slot's turn comes, so pipelined 
+ * requests for large files cannot fill the heap.
+ * @author 0036502252
+ *
+ */
+public class ResponseQueue {
+	/**
+	 * Default number of bytes a waiting slot may buffer.
+	 */
+	public static final int DEFAULT_MAX_BUFFERED = 64 * 1024;
+	
+	/**
+	 * The connection's output stream.
+	 */
+	private OutputStream sink;
+	/**
+	 * Slots which are not closed yet, oldest first.
+	 */
+	private Deque<Slot> slots = new ArrayDeque<>();
+	/**
+	 * Number of bytes a waiting slot may buffer.
+	 */
+	private int maxBuffered;
+	/**
+	 * Indicates whether writing to the connection failed, in which case
+	 * the waiting slots will never get their turn.
+	 */
+	private volatile boolean broken;
+
+	/**
+	 * Constructs a new {@link ResponseQueue} whose waiting slots buffer 
+	 * at most {@link #DEFAULT_MAX_BUFFERED} bytes.
+	 * @param sink the connection's output stream
+	 */
+	public ResponseQueue(OutputStream sink) {
+		this(sink, DEFAULT_MAX_BUFFERED);
+	}
+
+	/**
+	 * Constructs a new {@link ResponseQueue}.
+	 * @param sink the connection's output stream
+	 * @param maxBuffered number of bytes a waiting slot may buffer
+	 */
+	public ResponseQueue(OutputStream sink, int maxBuffered) {
+		if(maxBuffered < 0) {
+			throw new IllegalArgumentException(
+					"Buffer limit must not be negative: " + maxBuffered
+			);
+		}
+		this.sink = sink;
+		this.maxBuffered = maxBuffered;
+	}
+
+	/**
+	 * Creates a slot for the next response. The slot must be closed once
+	 * the response is complete.
+	 * @return the stream on which the response is written
+	 */
+	public OutputStream newSlot() {
+		Slot slot = new Slot();
+		synchronized(slots) {
+			if(slots.isEmpty()) {
+				slot.direct = true;
+			}
+			slots.add(slot);
+		}
+		return slot;
+	}
+
+	/**
+	 * Removes the closed head slot and lets the following slots write to
+	 * the connection, flushing what they have buffered so far.
+	 * @throws IOException if an I/O error occurs
+	 */
+	private void advance() throws IOException {
+		try {
+			while(true) {
+				Slot next;
+				synchronized(slots) {
+					slots.poll();
+					next = slots.peek();
+				}
+				if(next == null) {
+					sink.flush();
+					return;
+				}
+
+				next.lock.lock();
+				try {
+					next.buffer.writeTo(sink);
+					next.buffer = null;
+					next.direct = true;
+					next.turn.signalAll();
+					if(!next.closed) return;
+				} finally {
+					next.lock.unlock();
+				}
+			}
+		} catch (IOException e) {
+			fail();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Marks the connection as failed and wakes all slots waiting for 
+	 * their turn, so their writers fail instead of waiting forever.
+	 */
+	private void fail() {
+		broken = true;
+		Slot[] waiting;
+		synchronized(slots) {
+			waiting = slots.toArray(new Slot[slots.size()]);
+		}
+		for(Slot slot : waiting) {
+			slot.lock.lock();
+			try {
+				slot.turn.signalAll();
+			} finally {
+				slot.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A single response on the queue.
+	 * @author 0036502252
+	 *
+	 */
+	private class Slot extends OutputStream implements ITransferTarget {
+		/**
+		 * Output buffered while this slot is waiting for its turn.
+		 */
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		/**
+		 * Indicates whether this slot writes directly to the connection.
+		 */
+		private boolean direct;
+		/**
+		 * Indicates whether this slot was closed.
+		 */
+		private boolean closed;
+		/**
+		 * Guards this slot's state.
+		 */
+		private Lock lock = new ReentrantLock();
+		/**
+		 * Signalled once this slot writes directly to the connection.
+		 */
+		private Condition turn = lock.newCondition();
+		
+		/**
+		 * Waits until this slot can take the given number of bytes, either
+		 * because it writes directly to the connection or because they fit
+		 * in its buffer. Must be called while holding the lock.
+		 * @param count number of bytes about to be written
+		 * @throws IOException if the slot was closed, the connection failed
+		 * or the thread was interrupted while waiting
+		 */
+		private void awaitRoom(long count) throws IOException {
+			if(closed) throw new IOException("Response already finished.");
+			
+			while(!direct && buffer.size() + count > maxBuffered) {
+				if(broken) throw new IOException("Connection failed.");
+				try {
+					turn.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(
+							"Interrupted while waiting for earlier responses."
+					);
+				}
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			lock.lock();
+			try {
+				awaitRoom(len);
+
+				if(direct) {
+					sink.write(b, off, len);
+				} else {
+					buffer.write(b, off, len);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void transferFrom(FileChannel source, long position, long count)
+				throws IOException {
+			lock.lock();
+			try {
+				awaitRoom(count);
+				
+				if(direct && sink instanceof ITransferTarget) {
+					((ITransferTarget) sink).transferFrom(source, position, count);
+				} else {
+					ITransferTarget.copy(source, position, count, this);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void writeBuffer(ByteBuffer source) throws IOException {
+			lock.lock();
+			try {
+				awaitRoom(source.remaining());
+				
+				if(direct && sink instanceof ITransferTarget) {
+					((ITransferTarget) sink).writeBuffer(source);
+				} else {
+					ITransferTarget.copy(source, this);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			lock.lock();
+			try {
+				if(direct) {
+					sink.flush();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			lock.lock();
+			try {
+				if(closed) return;
+				closed = true;
+				if(!direct) return;
+			} finally {
+				lock.unlock();
+			}
+			advance();
+		}
+	}
+}
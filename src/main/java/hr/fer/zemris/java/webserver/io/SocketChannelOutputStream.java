@@ -0,0 +1,73 @@
+package hr.fer.zemris.java.webserver.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An output stream over a blocking socket channel. Files are sent to the
+ * channel without copying them through user space.
+ * @author 0036502252
+ *
+ */
+public class SocketChannelOutputStream extends OutputStream 
+		implements ITransferTarget {
+	/**
+	 * The client's channel, in blocking mode.
+	 */
+	private SocketChannel channel;
+
+	/**
+	 * Constructs a new {@link SocketChannelOutputStream}.
+	 * @param channel the client's channel, in blocking mode
+	 */
+	public SocketChannelOutputStream(SocketChannel channel) {
+		if(!channel.isBlocking()) {
+			throw new IllegalArgumentException("Channel must be blocking.");
+		}
+		this.channel = channel;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	@Override
+	public void transferFrom(FileChannel source, long position, long count)
+			throws IOException {
+		long end = position + count;
+		while(position < end) {
+			long sent = source.transferTo(position, end - position, channel);
+			if(sent <= 0 && position >= source.size()) {
+				throw new IOException("File is shorter than expected.");
+			}
+			position += sent;
+		}
+	}
+	
+	@Override
+	public void writeBuffer(ByteBuffer buffer) throws IOException {
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+	
+	/**
+	 * Closes the client's channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
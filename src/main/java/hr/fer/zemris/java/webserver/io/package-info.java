@@ -0,0 +1,9 @@
+/**
+ * Contains streams and buffers used by the server for writing responses
+ * to client connections.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.io;
@@ -0,0 +1,415 @@
+package hr.fer.zemris.java.webserver.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes a line for every served request to a log file, without making
+ * requests wait for the disk.
+ * <p>
+ * Request threads publish their records into a ring buffer of reusable
+ * slots, allocated up front, so logging a request neither locks nor
+ * allocates. A single background thread takes the published records in
+ * batches, formats them and writes them to the file. If requests are
+ * served faster than the records can be written and the buffer fills up,
+ * further records are dropped and counted instead of blocking requests.
+ * <p>
+ * Once the file grows beyond the maximum size, it is rotated: it is
+ * renamed by appending <code>.1</code>, older files are shifted likewise,
+ * and the oldest one is deleted.
+ * <p>
+ * Each line holds the time the request was served, its method and path,
+ * the response's status code and size, the time the request waited behind
+ * earlier requests on its connection, the time taken to serve it, both in
+ * milliseconds, and whether it used an existing session.
+ * @author 0036502252
+ *
+ */
+public class AccessLog implements Closeable {
+	/**
+	 * Session mark of a request which used an existing session.
+	 */
+	public static final char SESSION_HIT = 'H';
+	/**
+	 * Session mark of a request which started a new session.
+	 */
+	public static final char SESSION_MISS = 'M';
+	/**
+	 * Session mark of a request without a session.
+	 */
+	public static final char SESSION_NONE = '-';
+	/**
+	 * Time the writer sleeps when there are no records, in nanoseconds.
+	 */
+	private static final long IDLE_NANOS = 50_000_000;
+	/**
+	 * Maximum number of records written in one batch.
+	 */
+	private static final int MAX_BATCH = 1024;
+
+	/**
+	 * The slots of the ring buffer.
+	 */
+	private final Record[] records;
+	/**
+	 * Sequence number of every slot. A slot whose sequence number equals
+	 * the next position to claim is free, and one whose sequence number is
+	 * one past the next position to write holds a published record.
+	 */
+	private final AtomicLongArray sequences;
+	/**
+	 * Masks a position into an index of a slot.
+	 */
+	private final int mask;
+	/**
+	 * Next position to claim by a request thread.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * Next position to write by the writer.
+	 */
+	private long head;
+	/**
+	 * Number of dropped records.
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	/**
+	 * Number of written records.
+	 */
+	private final AtomicLong written = new AtomicLong();
+
+	/**
+	 * The log file.
+	 */
+	private final Path file;
+	/**
+	 * Size after which the file is rotated, in bytes.
+	 */
+	private final long maxBytes;
+	/**
+	 * Number of rotated files which are kept.
+	 */
+	private final int maxFiles;
+	/**
+	 * Writes to the log file, or <code>null</code> if it is not open.
+	 */
+	private Writer writer;
+	/**
+	 * Approximate size of the log file, in bytes.
+	 */
+	private long bytes;
+	/**
+	 * Formats the lines of a batch.
+	 */
+	private final StringBuilder batch = new StringBuilder();
+	/**
+	 * The writer's thread.
+	 */
+	private final Thread thread;
+	/**
+	 * Set once the log is closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new {@link AccessLog} and starts its writer.
+	 * @param file the log file, which is appended to
+	 * @param capacity number of records which can wait to be written,
+	 * rounded up to a power of two
+	 * @param maxBytes size after which the file is rotated, in bytes
+	 * @param maxFiles number of rotated files which are kept
+	 * @throws IOException if the file cannot be opened
+	 */
+	public AccessLog(Path file, int capacity, long maxBytes, int maxFiles)
+			throws IOException {
+		if(capacity < 1 || capacity > 1 << 30) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+		this.records = new Record[size];
+		this.sequences = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++) {
+			records[i] = new Record();
+			sequences.set(i, i);
+		}
+		this.mask = size - 1;
+		this.file = file.toAbsolutePath();
+		this.maxBytes = maxBytes;
+		this.maxFiles = maxFiles;
+		open();
+
+		thread = new Thread(this::run, "access-log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Publishes a served request's record. Never blocks: if the buffer is
+	 * full, the record is dropped.
+	 * @param time time the request was served, in milliseconds since the
+	 * epoch
+	 * @param method the request's method, or <code>null</code>
+	 * @param path the request's path, or <code>null</code>
+	 * @param status the response's status code
+	 * @param size number of bytes sent in the response
+	 * @param waitNanos time the request waited before it was served, in
+	 * nanoseconds
+	 * @param serviceNanos time taken to serve the request, in nanoseconds
+	 * @param session {@link #SESSION_HIT}, {@link #SESSION_MISS} or 
+	 * {@link #SESSION_NONE}
+	 * @return true if the record was published, false if it was dropped
+	 */
+	public boolean log(long time, String method, String path, int status,
+			long size, long waitNanos, long serviceNanos, char session) {
+		long position;
+		while(true) {
+			position = tail.get();
+			long available = sequences.get((int) position & mask) - position;
+			if(available < 0 || closed) {
+				dropped.incrementAndGet();
+				return false;
+			}
+			if(available == 0 && tail.compareAndSet(position, position + 1)) {
+				break;
+			}
+		}
+
+		int index = (int) position & mask;
+		Record record = records[index];
+		record.time = time;
+		record.method = method;
+		record.path = path;
+		record.status = status;
+		record.size = size;
+		record.waitNanos = waitNanos;
+		record.serviceNanos = serviceNanos;
+		record.session = session;
+		sequences.lazySet(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * @return number of records dropped because the buffer was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of written records
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Stops accepting records, writes the published ones and closes the
+	 * file.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		LockSupport.unpark(thread);
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes the published records in batches, until the log is closed.
+	 */
+	private void run() {
+		while(true) {
+			boolean closing = closed;
+			int count = drain();
+			if(count == 0) {
+				if(closing) break;
+				LockSupport.parkNanos(this, IDLE_NANOS);
+			}
+		}
+		try {
+			if(writer != null) {
+				writer.close();
+			}
+		} catch (IOException ex) {
+			System.out.println("Error closing the access log: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Formats and writes a batch of published records.
+	 * @return number of records taken from the buffer
+	 */
+	private int drain() {
+		batch.setLength(0);
+		int count = 0;
+		while(count < MAX_BATCH) {
+			int index = (int) head & mask;
+			if(sequences.get(index) != head + 1) break;
+			Record record = records[index];
+			format(record, batch);
+			record.method = null;
+			record.path = null;
+			sequences.lazySet(index, head + records.length);
+			head++;
+			count++;
+		}
+		if(count == 0) return 0;
+
+		try {
+			if(writer == null) {
+				open();
+			}
+			writer.write(batch.toString());
+			writer.flush();
+			bytes += batch.length();
+			written.addAndGet(count);
+			if(bytes >= maxBytes) {
+				rotate();
+			}
+		} catch (IOException ex) {
+			dropped.addAndGet(count);
+			System.out.println("Error writing the access log: " + ex.getMessage());
+			closeWriter();
+		}
+		return count;
+	}
+
+	/**
+	 * Formats a record as a line of the log.
+	 * @param record the record
+	 * @param sb the line is appended to it
+	 */
+	private static void format(Record record, StringBuilder sb) {
+		sb.append(Instant.ofEpochMilli(record.time)).append(' ')
+				.append(record.method == null ? "-" : record.method).append(' ')
+				.append(record.path == null ? "-" : record.path).append(' ')
+				.append(record.status).append(' ')
+				.append(record.size).append(' ');
+		appendMillis(sb, record.waitNanos);
+		sb.append(' ');
+		appendMillis(sb, record.serviceNanos);
+		sb.append(' ').append(record.session).append('\n');
+	}
+
+	/**
+	 * Appends a duration in milliseconds, with three decimals.
+	 * @param sb the duration is appended to it
+	 * @param nanos the duration, in nanoseconds
+	 */
+	private static void appendMillis(StringBuilder sb, long nanos) {
+		long micros = Math.max(nanos, 0) / 1000;
+		long fraction = micros % 1000;
+		sb.append(micros / 1000).append('.');
+		if(fraction < 100) sb.append('0');
+		if(fraction < 10) sb.append('0');
+		sb.append(fraction);
+	}
+
+	/**
+	 * Opens the log file for appending.
+	 * @throws IOException if the file cannot be opened
+	 */
+	private void open() throws IOException {
+		Path parent = file.getParent();
+		if(parent != null) {
+			Files.createDirectories(parent);
+		}
+		writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		bytes = Files.size(file);
+	}
+
+	/**
+	 * Rotates the log file and opens a new one.
+	 * @throws IOException if the files cannot be renamed or opened
+	 */
+	private void rotate() throws IOException {
+		closeWriter();
+		if(maxFiles < 1) {
+			Files.delete(file);
+		} else {
+			Files.deleteIfExists(rotated(maxFiles));
+			for(int i = maxFiles - 1; i >= 1; i--) {
+				Path older = rotated(i);
+				if(Files.exists(older)) {
+					Files.move(older, rotated(i + 1));
+				}
+			}
+			Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+		}
+		open();
+	}
+
+	/**
+	 * @param generation number of a rotated file
+	 * @return the rotated file's path
+	 */
+	private Path rotated(int generation) {
+		return file.resolveSibling(file.getFileName() + "." + generation);
+	}
+
+	/**
+	 * Closes the log file, so it is opened again for the next batch.
+	 */
+	private void closeWriter() {
+		if(writer == null) return;
+		try {
+			writer.close();
+		} catch (IOException ignorable) {
+		}
+		writer = null;
+	}
+
+	/**
+	 * A slot of the ring buffer, which holds a request's record.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Record {
+		/**
+		 * Time the request was served, in milliseconds since the epoch.
+		 */
+		private long time;
+		/**
+		 * The request's method.
+		 */
+		private String method;
+		/**
+		 * The request's path.
+		 */
+		private String path;
+		/**
+		 * The response's status code.
+		 */
+		private int status;
+		/**
+		 * Number of bytes sent in the response.
+		 */
+		private long size;
+		/**
+		 * Time the request waited before it was served, in nanoseconds.
+		 */
+		private long waitNanos;
+		/**
+		 * Time taken to serve the request, in nanoseconds.
+		 */
+		private long serviceNanos;
+		/**
+		 * Whether the request used an existing session.
+		 */
+		private char session;
+	}
+}
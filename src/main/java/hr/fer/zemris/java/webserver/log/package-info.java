@@ -0,0 +1,9 @@
+/**
+ * Contains the server's access log, which records every served request
+ * without slowing it down.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.log;
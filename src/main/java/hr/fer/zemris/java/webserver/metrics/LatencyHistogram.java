@@ -0,0 +1,68 @@
+package hr.fer.zemris.java.webserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts durations in buckets whose bounds grow by powers of two, from one
+ * microsecond to about half a minute, so a few dozen counters cover every
+ * latency a server sees with a relative error of at most a half.
+ * <p>
+ * Recording is lock-free and does not allocate.
+ * @author 0036502252
+ *
+ */
+public class LatencyHistogram {
+	/**
+	 * Number of bounded buckets. The last bound is 2^25 microseconds.
+	 */
+	static final int BUCKETS = 26;
+
+	/**
+	 * Counts of the bounded buckets, followed by the count of longer
+	 * durations.
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS + 1);
+	/**
+	 * Sum of the recorded durations, in nanoseconds.
+	 */
+	private final LongAdder sum = new LongAdder();
+
+	/**
+	 * Records a duration.
+	 * @param nanos the duration, in nanoseconds
+	 */
+	public void record(long nanos) {
+		if(nanos < 0) {
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+		counts.incrementAndGet(Math.min(bucket, BUCKETS));
+		sum.add(nanos);
+	}
+
+	/**
+	 * @param bucket index of a bucket
+	 * @return upper bound of the bucket, in seconds
+	 */
+	static double upperBound(int bucket) {
+		return (1L << bucket) / 1e6;
+	}
+
+	/**
+	 * @param bucket index of a bucket, or {@value #BUCKETS} for the
+	 * durations longer than all bounds
+	 * @return number of durations recorded in the bucket
+	 */
+	long getCount(int bucket) {
+		return counts.get(bucket);
+	}
+
+	/**
+	 * @return sum of the recorded durations, in nanoseconds
+	 */
+	long getSum() {
+		return sum.sum();
+	}
+}
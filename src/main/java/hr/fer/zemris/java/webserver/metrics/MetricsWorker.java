@@ -0,0 +1,37 @@
+package hr.fer.zemris.java.webserver.metrics;
+
+import hr.fer.zemris.java.webserver.IStatelessWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * Sends the server's metrics in the Prometheus text format, for a
+ * monitoring system to scrape.
+ * @author 0036502252
+ *
+ */
+public class MetricsWorker implements IStatelessWorker {
+	/**
+	 * Content type of the Prometheus text format.
+	 */
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4";
+
+	/**
+	 * The metrics which are sent.
+	 */
+	private final ServerMetrics metrics;
+
+	/**
+	 * Constructs a new {@link MetricsWorker}.
+	 * @param metrics the metrics which are sent
+	 */
+	public MetricsWorker(ServerMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		context.setMimeType(CONTENT_TYPE);
+		context.setHeader("Cache-Control", "no-store");
+		context.write(metrics.expose());
+	}
+}
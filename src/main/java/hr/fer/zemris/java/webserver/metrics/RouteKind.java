@@ -0,0 +1,39 @@
+package hr.fer.zemris.java.webserver.metrics;
+
+/**
+ * How a request was served, which determines the name of its route.
+ * @author 0036502252
+ *
+ */
+public enum RouteKind {
+	/**
+	 * By a worker configured in <code>workers.properties</code>, named by
+	 * its class.
+	 */
+	WORKER,
+	/**
+	 * By an <code>/ext/</code> worker, named by its class.
+	 */
+	EXT,
+	/**
+	 * By a smart script, named by its path.
+	 */
+	SCRIPT,
+	/**
+	 * As a static file. All static files share one route.
+	 */
+	STATIC,
+	/**
+	 * By an error response sent before the request could be routed, for
+	 * example to a malformed request. All such requests share one route.
+	 */
+	NONE;
+
+	/**
+	 * @return the kind's name, as exposed
+	 */
+	@Override
+	public String toString() {
+		return name().toLowerCase();
+	}
+}
@@ -0,0 +1,95 @@
+package hr.fer.zemris.java.webserver.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of the requests for one route: their number by the class of
+ * their status codes, the bytes sent in their responses and their
+ * latencies.
+ * @author 0036502252
+ *
+ */
+class RouteMetrics {
+	/**
+	 * The kind of the route.
+	 */
+	private final RouteKind kind;
+	/**
+	 * The route's name, as exposed.
+	 */
+	private final String name;
+	/**
+	 * Numbers of requests by the first digit of their status codes, with
+	 * invalid status codes counted at index 0.
+	 */
+	private final AtomicLongArray requests = new AtomicLongArray(6);
+	/**
+	 * Number of bytes sent in responses.
+	 */
+	private final LongAdder bytes = new LongAdder();
+	/**
+	 * Time from starting to serve a request to finishing its response.
+	 */
+	private final LatencyHistogram latency = new LatencyHistogram();
+
+	/**
+	 * Constructs a new {@link RouteMetrics}.
+	 * @param kind the kind of the route
+	 * @param name the route's name, as exposed
+	 */
+	RouteMetrics(RouteKind kind, String name) {
+		this.kind = kind;
+		this.name = name;
+	}
+
+	/**
+	 * Records a served request.
+	 * @param status the response's status code
+	 * @param bytes number of bytes sent in the response
+	 * @param nanos time taken to serve the request, in nanoseconds
+	 */
+	void record(int status, long bytes, long nanos) {
+		int statusClass = status / 100;
+		requests.incrementAndGet(statusClass >= 1 && statusClass <= 5 ? statusClass : 0);
+		this.bytes.add(bytes);
+		latency.record(nanos);
+	}
+
+	/**
+	 * @return the kind of the route
+	 */
+	RouteKind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return the route's name, as exposed
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @param statusClass first digit of a status code, or 0 for invalid
+	 * status codes
+	 * @return number of requests whose status code is of the class
+	 */
+	long getRequests(int statusClass) {
+		return requests.get(statusClass);
+	}
+
+	/**
+	 * @return number of bytes sent in responses
+	 */
+	long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @return the requests' latencies
+	 */
+	LatencyHistogram getLatency() {
+		return latency;
+	}
+}
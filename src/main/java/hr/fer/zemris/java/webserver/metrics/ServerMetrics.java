@@ -0,0 +1,352 @@
+package hr.fer.zemris.java.webserver.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The server's metrics: requests, status codes, bytes sent and latencies
+ * per route, the time client tasks wait for a thread, the number of open
+ * connections, and any values other components register. They are
+ * exposed in the Prometheus text format.
+ * <p>
+ * Recording is lock-free and, once a route was seen, does not allocate:
+ * routes are looked up by strings the server already has, such as a
+ * worker's class name or a script's path. Each kind of route keeps at
+ * most {@value #MAX_ROUTES} routes, so requests for many distinct scripts
+ * cannot fill the memory; further routes are counted together as
+ * <code>other</code>.
+ * @author 0036502252
+ *
+ */
+public class ServerMetrics {
+	/**
+	 * Prefix of the names of all metrics.
+	 */
+	private static final String PREFIX = "smarthttp_";
+	/**
+	 * Maximum number of routes of one kind.
+	 */
+	private static final int MAX_ROUTES = 1000;
+	/**
+	 * Name of the route which counts the routes over the limit.
+	 */
+	private static final String OTHER = "other";
+
+	/**
+	 * Routes of every kind, by their names, indexed by the kind's ordinal.
+	 */
+	private final List<Map<String, RouteMetrics>> routes = new ArrayList<>();
+	/**
+	 * Numbers of responses by status code.
+	 */
+	private final AtomicLongArray statusCodes = new AtomicLongArray(600);
+	/**
+	 * Time client tasks waited for a thread.
+	 */
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	/**
+	 * Number of open connections.
+	 */
+	private final AtomicLong activeConnections = new AtomicLong();
+	/**
+	 * Number of accepted connections.
+	 */
+	private final LongAdder connections = new LongAdder();
+	/**
+	 * Values registered by other components.
+	 */
+	private final List<Value> values = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Constructs a new {@link ServerMetrics}.
+	 */
+	public ServerMetrics() {
+		for(int i = 0; i < RouteKind.values().length; i++) {
+			routes.add(new ConcurrentHashMap<>());
+		}
+	}
+
+	/**
+	 * Records a served request.
+	 * @param kind how the request was served
+	 * @param route the route's name: a worker's class name, a script's
+	 * path, or anything for the kinds which have a single route
+	 * @param status the response's status code
+	 * @param bytes number of bytes sent in the response
+	 * @param nanos time taken to serve the request, in nanoseconds
+	 */
+	public void record(RouteKind kind, String route, int status, long bytes,
+			long nanos) {
+		route(kind, route).record(status, bytes, nanos);
+		if(status >= 100 && status < statusCodes.length()) {
+			statusCodes.incrementAndGet(status);
+		}
+	}
+
+	/**
+	 * Records how long a client task waited for a thread.
+	 * @param nanos the time, in nanoseconds
+	 */
+	public void recordQueueWait(long nanos) {
+		queueWait.record(nanos);
+	}
+
+	/**
+	 * Records that a connection was opened.
+	 */
+	public void connectionOpened() {
+		activeConnections.incrementAndGet();
+		connections.increment();
+	}
+
+	/**
+	 * Records that a connection was closed.
+	 */
+	public void connectionClosed() {
+		activeConnections.decrementAndGet();
+	}
+
+	/**
+	 * Registers a value which only goes up, such as a number of events.
+	 * @param name the metric's name, without the common prefix
+	 * @param help the metric's description
+	 * @param value gets the current value
+	 */
+	public void counter(String name, String help, LongSupplier value) {
+		values.add(new Value(name, help, "counter", value));
+	}
+
+	/**
+	 * Registers a value which goes up and down, such as a size.
+	 * @param name the metric's name, without the common prefix
+	 * @param help the metric's description
+	 * @param value gets the current value
+	 */
+	public void gauge(String name, String help, LongSupplier value) {
+		values.add(new Value(name, help, "gauge", value));
+	}
+
+	/**
+	 * @return the current metrics, in the Prometheus text format
+	 */
+	public String expose() {
+		StringBuilder sb = new StringBuilder(4096);
+
+		header(sb, "requests_total", "counter", 
+				"Requests served, by route and status code class.");
+		for(Map<String, RouteMetrics> kind : routes) {
+			for(RouteMetrics route : kind.values()) {
+				for(int statusClass = 0; statusClass <= 5; statusClass++) {
+					long count = route.getRequests(statusClass);
+					if(count == 0) continue;
+					sample(sb, "requests_total", route, 
+							"code", statusClass == 0 ? "invalid" : statusClass + "xx",
+							count);
+				}
+			}
+		}
+
+		header(sb, "response_bytes_total", "counter", 
+				"Bytes sent in responses, by route.");
+		for(Map<String, RouteMetrics> kind : routes) {
+			for(RouteMetrics route : kind.values()) {
+				sample(sb, "response_bytes_total", route, null, null, route.getBytes());
+			}
+		}
+
+		header(sb, "request_duration_seconds", "histogram", 
+				"Time taken to serve requests, by route.");
+		for(Map<String, RouteMetrics> kind : routes) {
+			for(RouteMetrics route : kind.values()) {
+				histogram(sb, "request_duration_seconds", 
+						labels(route), route.getLatency());
+			}
+		}
+
+		header(sb, "responses_total", "counter", "Responses, by status code.");
+		for(int status = 100; status < statusCodes.length(); status++) {
+			long count = statusCodes.get(status);
+			if(count == 0) continue;
+			sb.append(PREFIX).append("responses_total{code=\"").append(status)
+					.append("\"} ").append(count).append('\n');
+		}
+
+		header(sb, "queue_wait_seconds", "histogram", 
+				"Time client tasks waited for a thread.");
+		histogram(sb, "queue_wait_seconds", "", queueWait);
+
+		header(sb, "active_connections", "gauge", "Open client connections.");
+		sb.append(PREFIX).append("active_connections ")
+				.append(activeConnections.get()).append('\n');
+		header(sb, "connections_total", "counter", "Accepted client connections.");
+		sb.append(PREFIX).append("connections_total ")
+				.append(connections.sum()).append('\n');
+
+		for(Value value : values) {
+			header(sb, value.name, value.type, value.help);
+			sb.append(PREFIX).append(value.name).append(' ')
+					.append(value.value.getAsLong()).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Gets the metrics of a route, creating them on its first request.
+	 * @param kind the route's kind
+	 * @param name the route's name
+	 * @return the route's metrics
+	 */
+	private RouteMetrics route(RouteKind kind, String name) {
+		Map<String, RouteMetrics> kindRoutes = routes.get(kind.ordinal());
+		if(kind == RouteKind.STATIC || kind == RouteKind.NONE) {
+			name = kind.toString();
+		}
+		RouteMetrics route = kindRoutes.get(name);
+		if(route != null) return route;
+
+		if(kindRoutes.size() >= MAX_ROUTES) {
+			name = OTHER;
+		}
+		return kindRoutes.computeIfAbsent(name, 
+				n -> new RouteMetrics(kind, exposedName(kind, n)));
+	}
+
+	/**
+	 * @param kind a route's kind
+	 * @param name the route's name
+	 * @return the route's name as exposed: a worker's class name without
+	 * its package, or the name itself
+	 */
+	private static String exposedName(RouteKind kind, String name) {
+		if(kind == RouteKind.WORKER || kind == RouteKind.EXT) {
+			return name.substring(name.lastIndexOf('.') + 1);
+		}
+		return name;
+	}
+
+	/**
+	 * Writes a metric's description and type.
+	 * @param sb the exposition
+	 * @param name the metric's name, without the common prefix
+	 * @param type the metric's type
+	 * @param help the metric's description
+	 */
+	private static void header(StringBuilder sb, String name, String type, 
+			String help) {
+		sb.append("# HELP ").append(PREFIX).append(name).append(' ')
+				.append(help).append('\n');
+		sb.append("# TYPE ").append(PREFIX).append(name).append(' ')
+				.append(type).append('\n');
+	}
+
+	/**
+	 * Writes a sample of a route's metric.
+	 * @param sb the exposition
+	 * @param name the metric's name, without the common prefix
+	 * @param route the route
+	 * @param label name of an additional label, or <code>null</code>
+	 * @param labelValue value of the additional label
+	 * @param value the sample's value
+	 */
+	private static void sample(StringBuilder sb, String name, RouteMetrics route,
+			String label, String labelValue, long value) {
+		sb.append(PREFIX).append(name).append('{').append(labels(route));
+		if(label != null) {
+			sb.append(',').append(label).append("=\"").append(labelValue).append('"');
+		}
+		sb.append("} ").append(value).append('\n');
+	}
+
+	/**
+	 * Writes the samples of a histogram.
+	 * @param sb the exposition
+	 * @param name the metric's name, without the common prefix
+	 * @param labels labels of the samples, separated by commas, or an empty
+	 * string
+	 * @param histogram the histogram
+	 */
+	private static void histogram(StringBuilder sb, String name, String labels,
+			LatencyHistogram histogram) {
+		String separator = labels.isEmpty() ? "" : ",";
+		long cumulative = 0;
+		for(int bucket = 0; bucket <= LatencyHistogram.BUCKETS; bucket++) {
+			cumulative += histogram.getCount(bucket);
+			String bound = bucket == LatencyHistogram.BUCKETS ? "+Inf" 
+					: String.format(Locale.ROOT, "%.6f", 
+							LatencyHistogram.upperBound(bucket));
+			sb.append(PREFIX).append(name).append("_bucket{").append(labels)
+					.append(separator).append("le=\"").append(bound).append("\"} ")
+					.append(cumulative).append('\n');
+		}
+		String braces = labels.isEmpty() ? "" : "{" + labels + "}";
+		sb.append(PREFIX).append(name).append("_sum").append(braces).append(' ')
+				.append(String.format(Locale.ROOT, "%.9f", histogram.getSum() / 1e9))
+				.append('\n');
+		sb.append(PREFIX).append(name).append("_count").append(braces).append(' ')
+				.append(cumulative).append('\n');
+	}
+
+	/**
+	 * @param route a route
+	 * @return the labels which identify the route
+	 */
+	private static String labels(RouteMetrics route) {
+		return "kind=\"" + route.getKind() + "\",route=\"" 
+				+ escape(route.getName()) + "\"";
+	}
+
+	/**
+	 * @param value a label's value
+	 * @return the value, escaped for the exposition
+	 */
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"")
+				.replace("\n", "\\n");
+	}
+
+	/**
+	 * A value registered by another component.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Value {
+		/**
+		 * The metric's name, without the common prefix.
+		 */
+		private final String name;
+		/**
+		 * The metric's description.
+		 */
+		private final String help;
+		/**
+		 * The metric's type.
+		 */
+		private final String type;
+		/**
+		 * Gets the current value.
+		 */
+		private final LongSupplier value;
+
+		/**
+		 * Constructs a new {@link Value}.
+		 * @param name the metric's name, without the common prefix
+		 * @param help the metric's description
+		 * @param type the metric's type
+		 * @param value gets the current value
+		 */
+		public Value(String name, String help, String type, LongSupplier value) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+			this.value = value;
+		}
+	}
+}
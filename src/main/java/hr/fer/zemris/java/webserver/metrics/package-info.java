@@ -0,0 +1,10 @@
+/**
+ * Contains the server's metrics, which count its requests and measure
+ * their latencies per route, and expose them in the Prometheus text
+ * format.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.metrics;
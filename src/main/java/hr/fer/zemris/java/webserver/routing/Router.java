@@ -0,0 +1,229 @@
+package hr.fer.zemris.java.webserver.routing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the target of a request's path among a fixed set of routes. A
+ * route's pattern is a path whose segments are either literal or
+ * <code>*</code>, which matches any single non-empty segment. A pattern
+ * which ends with <code>/*</code> is a prefix instead: its last segment
+ * matches the whole rest of the path, which is the match's remainder. For
+ * example,
+ * <code>/ext/*</code> matches <code>/ext/HelloWorker</code> with the
+ * remainder <code>HelloWorker</code>.
+ * <p>
+ * If several routes match a path, the one which matches its first
+ * segments more literally wins: a literal segment beats <code>*</code>,
+ * which beats a prefix that ends there.
+ * <p>
+ * Patterns without <code>*</code> are kept in a hash table, so most paths
+ * are routed by a single hash lookup. The others are compiled into a trie
+ * of path segments, so a lookup costs about one hash lookup per segment,
+ * regardless of the number of routes. The router cannot be changed, so it
+ * is thread-safe without locking; to change the routes, a new router is
+ * built and replaces the old one.
+ * @author 0036502252
+ *
+ * @param <T> type of the targets
+ */
+public class Router<T> {
+	/**
+	 * A segment which matches any segment.
+	 */
+	private static final String WILDCARD = "*";
+
+	/**
+	 * Matches of the patterns without <code>*</code>, by their paths.
+	 */
+	private final Map<String, Match<T>> exact = new HashMap<>();
+	/**
+	 * Root of the trie, which stands for the path's leading slash.
+	 */
+	private final Node<T> root = new Node<>();
+	/**
+	 * Number of routes.
+	 */
+	private final int size;
+
+	/**
+	 * Constructs a new {@link Router}.
+	 * @param routes targets, by the patterns of their routes
+	 * @throws IllegalArgumentException if a pattern is not valid, as 
+	 * checked by {@link #isValid(String)}
+	 */
+	public Router(Map<String, T> routes) {
+		for(Map.Entry<String, T> route : routes.entrySet()) {
+			add(route.getKey(), route.getValue());
+		}
+		this.size = routes.size();
+	}
+
+	/**
+	 * Finds the route of a path.
+	 * @param path the path, starting with a slash, without the query
+	 * @return the match, or <code>null</code> if no route matches the path
+	 */
+	public Match<T> route(String path) {
+		Match<T> match = exact.get(path);
+		if(match != null) return match;
+		if(path.isEmpty() || path.charAt(0) != '/') return null;
+		return find(root, path, 1);
+	}
+
+	/**
+	 * Checks whether a route's pattern is valid. A valid pattern starts
+	 * with a slash, and none of its segments contains <code>*</code> 
+	 * besides other characters.
+	 * @param pattern the pattern
+	 * @return true if the pattern is valid
+	 */
+	public static boolean isValid(String pattern) {
+		if(pattern.isEmpty() || pattern.charAt(0) != '/') return false;
+		for(String segment : pattern.substring(1).split("/", -1)) {
+			if(segment.contains(WILDCARD) && !segment.equals(WILDCARD)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return number of routes
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Adds a route to the trie.
+	 * @param pattern the route's pattern
+	 * @param target the route's target
+	 */
+	private void add(String pattern, T target) {
+		if(!isValid(pattern)) {
+			throw new IllegalArgumentException("Invalid route: " + pattern);
+		}
+		if(!pattern.contains(WILDCARD)) {
+			exact.put(pattern, new Match<>(target, ""));
+			return;
+		}
+		String[] segments = pattern.substring(1).split("/", -1);
+		boolean prefix = segments[segments.length - 1].equals(WILDCARD);
+		int count = prefix ? segments.length - 1 : segments.length;
+
+		Node<T> node = root;
+		for(int i = 0; i < count; i++) {
+			String segment = segments[i];
+			if(segment.equals(WILDCARD)) {
+				if(node.wildcard == null) {
+					node.wildcard = new Node<>();
+				}
+				node = node.wildcard;
+			} else {
+				node = node.children.computeIfAbsent(segment, s -> new Node<>());
+			}
+		}
+
+		if(prefix) {
+			node.prefix = target;
+		} else {
+			node.exact = new Match<>(target, "");
+		}
+	}
+
+	/**
+	 * Finds the route of the rest of a path.
+	 * @param node node which matched the path's segments so far
+	 * @param path the path
+	 * @param start index of the first character of the next segment
+	 * @return the match, or <code>null</code> if no route matches the path
+	 */
+	private static <T> Match<T> find(Node<T> node, String path, int start) {
+		int end = path.indexOf('/', start);
+		boolean last = end == -1;
+		if(last) {
+			end = path.length();
+		}
+
+		Node<T> child = node.children.get(path.substring(start, end));
+		Match<T> match = child == null ? null 
+				: last ? child.exact : find(child, path, end + 1);
+		if(match == null && node.wildcard != null && end > start) {
+			match = last ? node.wildcard.exact : find(node.wildcard, path, end + 1);
+		}
+		if(match == null && node.prefix != null) {
+			match = new Match<>(node.prefix, path.substring(start));
+		}
+		return match;
+	}
+
+	/**
+	 * A node of the trie, which stands for a path's segment.
+	 * @author 0036502252
+	 *
+	 * @param <T> type of the targets
+	 */
+	private static class Node<T> {
+		/**
+		 * Nodes of the literal segments which follow.
+		 */
+		private final Map<String, Node<T>> children = new HashMap<>();
+		/**
+		 * Node of the <code>*</code> segment which follows, or
+		 * <code>null</code>.
+		 */
+		private Node<T> wildcard;
+		/**
+		 * Match of the paths which end here, or <code>null</code>.
+		 */
+		private Match<T> exact;
+		/**
+		 * Target of the prefix which ends here, or <code>null</code>.
+		 */
+		private T prefix;
+	}
+
+	/**
+	 * The route which matched a path.
+	 * @author 0036502252
+	 *
+	 * @param <T> type of the targets
+	 */
+	public static class Match<T> {
+		/**
+		 * The route's target.
+		 */
+		private final T target;
+		/**
+		 * The part of the path matched by the prefix.
+		 */
+		private final String remainder;
+
+		/**
+		 * Constructs a new {@link Match}.
+		 * @param target the route's target
+		 * @param remainder the part of the path matched by the prefix
+		 */
+		public Match(T target, String remainder) {
+			this.target = target;
+			this.remainder = remainder;
+		}
+
+		/**
+		 * @return the route's target
+		 */
+		public T getTarget() {
+			return target;
+		}
+
+		/**
+		 * @return the part of the path which was matched by the route's
+		 * trailing <code>*</code>, or an empty string if the route matched
+		 * the whole path
+		 */
+		public String getRemainder() {
+			return remainder;
+		}
+	}
+}
@@ -0,0 +1,9 @@
+/**
+ * Contains the server's router, which finds the target of a request's
+ * path among the configured routes.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.routing;
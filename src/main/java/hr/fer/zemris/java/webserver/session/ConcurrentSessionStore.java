@@ -0,0 +1,353 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+import hr.zemris.java.custom.collections.TimingWheel;
+
+/**
+ * The default session store. Sessions are kept in a 
+ * {@link ConcurrentHashMap}, so lookups never lock and updates only lock 
+ * a single bin, and a session's validity is extended without any lock.
+ * Every thread generates session IDs with its own {@link SecureRandom}, 
+ * so generating them is neither contended nor predictable.
+ * <p>
+ * Sessions expire through a {@link TimingWheel} with a tick of one second,
+ * so removing expired sessions does not scan the whole store. A session
+ * is scheduled once, when it is created: extending it does not touch the
+ * wheel, and when its timeout comes up while it is still valid, it is
+ * simply scheduled again for its new expiry time.
+ * <p>
+ * The store keeps track of the approximate memory used by its sessions.
+ * Once it exceeds the {@link #setMaxBytes(long) limit}, the sessions which
+ * were used least recently are evicted until the sessions use a tenth
+ * less than the limit, so the evicting is not repeated on every change.
+ * Since all sessions get the same timeout, those are the sessions which
+ * expire first. Ordering the sessions is left to the thread which removes
+ * the expired ones: once the sessions get within a tenth of the limit, it
+ * orders them from the least recently used, at most once a second and 
+ * only if sessions were added since or the previous order ran out. A 
+ * request which pushes the sessions over the limit then only takes 
+ * sessions off the cold end of that order, skipping those used since it
+ * was made.
+ * @author 0036502252
+ *
+ */
+public class ConcurrentSessionStore implements ISessionStore {
+	/**
+	 * Initial capacity of the map.
+	 */
+	private static final int INITIAL_CAPACITY = 1024;
+	/**
+	 * Number of slots of the timing wheel, in one-second ticks.
+	 */
+	private static final int WHEEL_SLOTS = 1024;
+	/**
+	 * Comparator which orders sessions from the least recently used.
+	 */
+	private static final Comparator<Candidate> LEAST_RECENT_FIRST = 
+			Comparator.comparingLong(candidate -> candidate.validUntil);
+	/**
+	 * Every thread's generator of session IDs.
+	 */
+	private static final ThreadLocal<SecureRandom> RANDOM = 
+			ThreadLocal.withInitial(ConcurrentSessionStore::newRandom);
+
+	/**
+	 * Sessions, by their IDs.
+	 */
+	private Map<String, SessionMapEntry> sessions = 
+			new ConcurrentHashMap<>(INITIAL_CAPACITY);
+	/**
+	 * Timeouts of the sessions, in seconds.
+	 */
+	private TimingWheel<SessionMapEntry> expirations = new TimingWheel<>(
+			1, WHEEL_SLOTS, System.currentTimeMillis() / 1000
+	);
+	/**
+	 * Approximate memory used by the sessions, in bytes.
+	 */
+	private AtomicLong bytes = new AtomicLong();
+	/**
+	 * Maximum memory used by the sessions, in bytes, or zero if it is not
+	 * limited.
+	 */
+	private volatile long maxBytes;
+	/**
+	 * Number of evicted sessions.
+	 */
+	private AtomicLong evictions = new AtomicLong();
+	/**
+	 * Sessions in the order in which they are evicted, least recently used
+	 * first, as of the last run of {@link #removeExpired(long)}. Empty 
+	 * while the sessions are not close to the limit. Guarded by the 
+	 * eviction lock.
+	 */
+	private Deque<Candidate> evictionOrder = new ArrayDeque<>();
+	/**
+	 * Held by the thread which evicts sessions or orders them for eviction.
+	 */
+	private Lock evictionLock = new ReentrantLock();
+	/**
+	 * Number of sessions added to the store.
+	 */
+	private AtomicLong added = new AtomicLong();
+	/**
+	 * Time of the last ordering for eviction, in seconds. Guarded by the
+	 * eviction lock.
+	 */
+	private long orderedAt = Long.MIN_VALUE;
+	/**
+	 * Number of sessions added to the store as of the last ordering for 
+	 * eviction. Guarded by the eviction lock.
+	 */
+	private long orderedAdded;
+
+	@Override
+	public SessionMapEntry get(String sid) {
+		return sessions.get(sid);
+	}
+
+	@Override
+	public SessionMapEntry create(String host, long validUntil) {
+		while(true) {
+			SessionMapEntry entry = new SessionMapEntry(
+					generateSID(), host, validUntil
+			);
+			entry.setExpiry(expirations.schedule(entry, validUntil + 1));
+			if(sessions.putIfAbsent(entry.getSid(), entry) == null) {
+				entry.setStoreBytes(bytes);
+				added.incrementAndGet();
+				evictIfNeeded();
+				return entry;
+			}
+			entry.getExpiry().cancel();
+		}
+	}
+
+	@Override
+	public void add(SessionMapEntry entry) {
+		if(entry.getExpiry() != null) {
+			entry.getExpiry().cancel();
+		}
+		entry.setExpiry(expirations.schedule(entry, entry.getValidUntil() + 1));
+		SessionMapEntry previous = sessions.put(entry.getSid(), entry);
+		if(previous != entry) {
+			if(previous != null) {
+				previous.getExpiry().cancel();
+				previous.setStoreBytes(null);
+			}
+			entry.setStoreBytes(bytes);
+			added.incrementAndGet();
+		}
+		evictIfNeeded();
+	}
+
+	@Override
+	public void remove(SessionMapEntry entry) {
+		if(sessions.remove(entry.getSid(), entry)) {
+			entry.getExpiry().cancel();
+			entry.setStoreBytes(null);
+		}
+	}
+
+	/**
+	 * Removes the sessions whose timeouts came up, and schedules those which
+	 * were extended in the meantime again. Called by the server several 
+	 * times a second. Also orders the sessions for eviction if they are 
+	 * close to the memory limit, though at most once a second, and evicts
+	 * sessions if they are over it.
+	 */
+	@Override
+	public int removeExpired(long now) {
+		int[] removed = new int[1];
+		expirations.advance(now, entry -> {
+			if(!entry.isExpired(now)) {
+				entry.getExpiry().reschedule(entry.getValidUntil() + 1);
+			} else if(sessions.remove(entry.getSid(), entry)) {
+				entry.setStoreBytes(null);
+				removed[0]++;
+			}
+		});
+		orderForEviction(now, false);
+		return removed[0];
+	}
+
+	@Override
+	public int size() {
+		return sessions.size();
+	}
+
+	@Override
+	public void forEach(Consumer<? super SessionMapEntry> action) {
+		sessions.values().forEach(action);
+	}
+
+	@Override
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+		orderForEviction(System.currentTimeMillis() / 1000, true);
+	}
+
+	@Override
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * Evicts the least recently used sessions if the sessions use more 
+	 * memory than allowed. Only takes the sessions in the order last made
+	 * by {@link #orderForEviction(long, boolean)}, so it does not scan the
+	 * store; if that order runs out, the rest is evicted on the next 
+	 * ordering, within a second. Does
+	 * nothing if another thread is already evicting sessions.
+	 */
+	private void evictIfNeeded() {
+		long maxBytes = this.maxBytes;
+		if(maxBytes <= 0 || bytes.get() <= maxBytes 
+				|| !evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			evictOrdered(maxBytes - maxBytes / 10);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Orders the sessions from the least recently used if they use more
+	 * than nine tenths of the allowed memory, and evicts the first ones if
+	 * they use more than allowed. Called by the thread which removes the
+	 * expired sessions, so request threads never sort the sessions. The
+	 * previous order is kept if it was made in the same second, or if it 
+	 * did not run out and no session was added since.
+	 * @param now the current time, in seconds
+	 * @param force true if the sessions are ordered regardless of the
+	 * previous order
+	 */
+	private void orderForEviction(long now, boolean force) {
+		long maxBytes = this.maxBytes;
+		long target = maxBytes - maxBytes / 10;
+		evictionLock.lock();
+		try {
+			if(maxBytes <= 0 || bytes.get() <= target) {
+				evictionOrder.clear();
+				return;
+			}
+			
+			long added = this.added.get();
+			boolean outdated = evictionOrder.isEmpty() || added != orderedAdded;
+			if(force || (now > orderedAt && outdated)) {
+				//sessions are extended meanwhile, so their order is fixed first
+				List<Candidate> candidates = new ArrayList<>(sessions.size());
+				for(SessionMapEntry entry : sessions.values()) {
+					candidates.add(new Candidate(entry));
+				}
+				candidates.sort(LEAST_RECENT_FIRST);
+				evictionOrder.clear();
+				evictionOrder.addAll(candidates);
+				orderedAt = now;
+				orderedAdded = added;
+			}
+			
+			if(bytes.get() > maxBytes) {
+				evictOrdered(target);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Evicts sessions from the cold end of the eviction order until the 
+	 * sessions use at most the given memory or the order runs out. 
+	 * Sessions used since the order was made are skipped. Must be called
+	 * with the eviction lock held.
+	 * @param target memory the sessions may use afterwards, in bytes
+	 */
+	private void evictOrdered(long target) {
+		while(bytes.get() > target) {
+			Candidate candidate = evictionOrder.poll();
+			if(candidate == null) return;
+			
+			SessionMapEntry entry = candidate.entry;
+			if(entry.getValidUntil() != candidate.validUntil) continue;
+			if(sessions.remove(entry.getSid(), entry)) {
+				entry.getExpiry().cancel();
+				entry.setStoreBytes(null);
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Generates a new session ID.
+	 * @return a new randomly-generated SID, which consists of 
+	 * {@value SmartHttpServer#SID_LENGTH} random uppercase letters
+	 */
+	public static String generateSID() {
+		SecureRandom random = RANDOM.get();
+		char[] sid = new char[SmartHttpServer.SID_LENGTH];
+		for(int i = 0; i < sid.length; i++) {
+			sid[i] = (char) (random.nextInt('Z' - 'A' + 1) + 'A');
+		}
+		return new String(sid);
+	}
+
+	/**
+	 * A session which may be evicted, with the time until it was valid when
+	 * the sessions were ordered.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Candidate {
+		/**
+		 * The session.
+		 */
+		private final SessionMapEntry entry;
+		/**
+		 * Time until the session was valid, in seconds.
+		 */
+		private final long validUntil;
+		
+		/**
+		 * Constructs a new {@link Candidate}.
+		 * @param entry the session
+		 */
+		public Candidate(SessionMapEntry entry) {
+			this.entry = entry;
+			this.validUntil = entry.getValidUntil();
+		}
+	}
+
+	/**
+	 * @return a new generator of session IDs, which is only used by one 
+	 * thread and thus does not need to be shared
+	 */
+	private static SecureRandom newRandom() {
+		try {
+			//unlike the default on Linux, does not share a global lock
+			return SecureRandom.getInstance("SHA1PRNG");
+		} catch (NoSuchAlgorithmException ex) {
+			return new SecureRandom();
+		}
+	}
+}
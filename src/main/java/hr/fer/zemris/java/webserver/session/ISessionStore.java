@@ -0,0 +1,95 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.function.Consumer;
+
+/**
+ * Keeps the server's sessions by their IDs. Implementations are used by 
+ * all of the server's worker threads at once, so they must be thread-safe.
+ * A store is chosen by <code>session.store</code>, the name of a class 
+ * with a public constructor without arguments.
+ * @author 0036502252
+ *
+ */
+public interface ISessionStore {
+	/**
+	 * @param sid a session ID
+	 * @return the session with the given ID, or <code>null</code> if there
+	 * is none. The session may be expired.
+	 */
+	SessionMapEntry get(String sid);
+
+	/**
+	 * Creates a new session with a new, randomly generated ID.
+	 * @param host the host name of the session
+	 * @param validUntil time until the session will be valid (in seconds)
+	 * @return the new session
+	 */
+	SessionMapEntry create(String host, long validUntil);
+
+	/**
+	 * Adds an existing session, such as one restored after a restart, 
+	 * replacing a session with the same ID.
+	 * @param entry the session
+	 */
+	void add(SessionMapEntry entry);
+
+	/**
+	 * Called once a request which used a session was served, since its 
+	 * parameters and validity may have changed. Does nothing by default.
+	 * @param entry the session
+	 */
+	default void update(SessionMapEntry entry) {
+	}
+
+	/**
+	 * Removes a session, unless it was already replaced.
+	 * @param entry the session
+	 */
+	void remove(SessionMapEntry entry);
+
+	/**
+	 * Removes all expired sessions.
+	 * @param now the current time, in seconds
+	 * @return the number of removed sessions
+	 */
+	int removeExpired(long now);
+
+	/**
+	 * @return the number of stored sessions
+	 */
+	int size();
+
+	/**
+	 * Performs an action for every stored session. Sessions which are 
+	 * added or removed meanwhile may or may not be visited.
+	 * @param action the action
+	 */
+	void forEach(Consumer<? super SessionMapEntry> action);
+
+	/**
+	 * @return approximate memory used by the stored sessions, in bytes
+	 */
+	default long getBytes() {
+		long[] bytes = new long[1];
+		forEach(entry -> bytes[0] += entry.getBytes());
+		return bytes[0];
+	}
+
+	/**
+	 * Limits the memory used by the stored sessions. Once they use more,
+	 * the least recently used sessions are evicted. Stores which cannot
+	 * evict sessions ignore the limit.
+	 * @param maxBytes the limit, in bytes, or zero if the memory is not
+	 * limited
+	 */
+	default void setMaxBytes(long maxBytes) {
+	}
+
+	/**
+	 * @return the number of sessions evicted to keep within the memory
+	 * limit
+	 */
+	default long getEvictions() {
+		return 0;
+	}
+}
@@ -0,0 +1,476 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A session store which keeps the sessions of another store on disk, so
+ * they survive a restart of the server. The store consists of a snapshot
+ * of all sessions and an append-only journal of the sessions changed since
+ * the snapshot was taken.
+ * <p>
+ * Workers never touch the disk: a session which is created, used or
+ * removed is only marked as changed. A background thread periodically
+ * appends the current state of each changed session to the journal, so a
+ * session used by many requests is written once per period. Once the
+ * journal grows larger than the snapshot, or the snapshot gets old, the
+ * thread compacts it by taking a new snapshot and starting a new journal.
+ * <p>
+ * At startup, both files are memory-mapped and read in one pass, and
+ * sessions which expired meanwhile are dropped. Every record carries a
+ * checksum, so a journal whose last records were only partly written when
+ * the server stopped is read up to the first damaged record.
+ * @author 0036502252
+ *
+ */
+public class JournaledSessionStore implements ISessionStore, Closeable {
+	/**
+	 * Identifies the store's files.
+	 */
+	private static final int MAGIC = 0x53455353;
+	/**
+	 * Version of the file format.
+	 */
+	private static final byte VERSION = 1;
+	/**
+	 * Length of a file's header: the magic number, the version and the
+	 * generation.
+	 */
+	private static final int HEADER_LENGTH = 13;
+	/**
+	 * Name of the snapshot file.
+	 */
+	private static final String SNAPSHOT = "sessions.snapshot";
+	/**
+	 * Prefix of the journal files' names, which is followed by the
+	 * generation of the snapshot they continue.
+	 */
+	private static final String JOURNAL_PREFIX = "sessions-";
+	/**
+	 * Suffix of the journal files' names.
+	 */
+	private static final String JOURNAL_SUFFIX = ".journal";
+	/**
+	 * Journals smaller than this are not compacted because of their size.
+	 */
+	private static final long MIN_COMPACTION_SIZE = 1 << 20;
+
+	/**
+	 * The store which holds the sessions in memory.
+	 */
+	private final ISessionStore delegate;
+	/**
+	 * Directory of the snapshot and the journal.
+	 */
+	private final Path directory;
+	/**
+	 * Sessions changed since the journal was last written.
+	 */
+	private final Set<SessionMapEntry> changed = ConcurrentHashMap.newKeySet();
+	/**
+	 * Generation of the current snapshot, which is increased by every
+	 * compaction.
+	 */
+	private long generation;
+	/**
+	 * The current journal.
+	 */
+	private DataOutputStream journal;
+	/**
+	 * Size of the current journal, in bytes.
+	 */
+	private long journalSize;
+	/**
+	 * Size of the current snapshot, in bytes.
+	 */
+	private long snapshotSize;
+	/**
+	 * Time the current snapshot was taken, in milliseconds.
+	 */
+	private long snapshotTime;
+	/**
+	 * Maximum age of a snapshot whose journal is not empty, in milliseconds.
+	 */
+	private long snapshotInterval;
+	/**
+	 * Reused to serialize records.
+	 */
+	private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+	/**
+	 * Runs the background writes, or <code>null</code> if not started.
+	 */
+	private ScheduledExecutorService writer;
+
+	/**
+	 * Constructs a new {@link JournaledSessionStore}. The store must be
+	 * {@link #open(long) opened} before it is used.
+	 * @param delegate the store which holds the sessions in memory
+	 * @param directory directory of the snapshot and the journal, which is
+	 * created if it does not exist
+	 */
+	public JournaledSessionStore(ISessionStore delegate, Path directory) {
+		this.delegate = delegate;
+		this.directory = directory;
+	}
+
+	/**
+	 * Restores the sessions from the snapshot and the journal, if there
+	 * are any, and opens the journal for appending.
+	 * @param now the current time, in seconds. Sessions which expired
+	 * before it are not restored.
+	 * @return the number of restored sessions
+	 * @throws IOException if the files cannot be read or created
+	 */
+	public synchronized int open(long now) throws IOException {
+		Files.createDirectories(directory);
+		Map<String, SessionMapEntry> restored = new HashMap<>();
+
+		Path snapshot = directory.resolve(SNAPSHOT);
+		if(Files.isRegularFile(snapshot)) {
+			generation = Math.max(0, replay(snapshot, -1, restored));
+			snapshotSize = Files.size(snapshot);
+		}
+		snapshotTime = System.currentTimeMillis();
+
+		Path journalPath = journalPath(generation);
+		long validLength = Files.isRegularFile(journalPath) ?
+				replay(journalPath, generation, restored) : -1;
+		deleteJournals(generation);
+
+		int count = 0;
+		for(SessionMapEntry entry : restored.values()) {
+			if(!entry.isExpired(now)) {
+				delegate.add(entry);
+				count++;
+			}
+		}
+
+		FileChannel journalChannel = FileChannel.open(journalPath,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(validLength < HEADER_LENGTH) {
+			journalChannel.truncate(0);
+			journal = newStream(journalChannel);
+			writeHeader(journal, generation);
+			journalSize = HEADER_LENGTH;
+		} else {
+			//drops the records which were only partly written
+			journalChannel.truncate(validLength);
+			journalChannel.position(validLength);
+			journal = newStream(journalChannel);
+			journalSize = validLength;
+		}
+		return count;
+	}
+
+	/**
+	 * Starts writing changed sessions to the journal in the background.
+	 * @param flushMillis milliseconds between two writes
+	 * @param snapshotSeconds maximum age of a snapshot while sessions
+	 * change, in seconds
+	 */
+	public synchronized void start(long flushMillis, long snapshotSeconds) {
+		if(writer != null) return;
+		snapshotInterval = TimeUnit.SECONDS.toMillis(snapshotSeconds);
+		writer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "session-journal");
+			thread.setDaemon(true);
+			return thread;
+		});
+		writer.scheduleWithFixedDelay(
+				this::flushAndCompact, flushMillis, flushMillis,
+				TimeUnit.MILLISECONDS
+		);
+	}
+
+	@Override
+	public SessionMapEntry get(String sid) {
+		return delegate.get(sid);
+	}
+
+	@Override
+	public SessionMapEntry create(String host, long validUntil) {
+		SessionMapEntry entry = delegate.create(host, validUntil);
+		changed.add(entry);
+		return entry;
+	}
+
+	@Override
+	public void add(SessionMapEntry entry) {
+		delegate.add(entry);
+		changed.add(entry);
+	}
+
+	@Override
+	public void update(SessionMapEntry entry) {
+		delegate.update(entry);
+		changed.add(entry);
+	}
+
+	@Override
+	public void remove(SessionMapEntry entry) {
+		delegate.remove(entry);
+		changed.add(entry);
+	}
+
+	/**
+	 * Expired sessions are not written to the journal, since they are
+	 * dropped when the sessions are restored anyway.
+	 */
+	@Override
+	public int removeExpired(long now) {
+		return delegate.removeExpired(now);
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public void forEach(Consumer<? super SessionMapEntry> action) {
+		delegate.forEach(action);
+	}
+
+	@Override
+	public long getBytes() {
+		return delegate.getBytes();
+	}
+
+	/**
+	 * Evicted sessions are not written to the journal. They are left out
+	 * of the next snapshot, and evicted again if restored before that.
+	 */
+	@Override
+	public void setMaxBytes(long maxBytes) {
+		delegate.setMaxBytes(maxBytes);
+	}
+
+	@Override
+	public long getEvictions() {
+		return delegate.getEvictions();
+	}
+
+	/**
+	 * Stops the background writes, writes the sessions changed since the
+	 * last write and closes the journal.
+	 */
+	@Override
+	public synchronized void close() {
+		if(writer != null) {
+			writer.shutdown();
+			try {
+				writer.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException ignorable) {
+			}
+		}
+		if(journal == null) return;
+		try {
+			flush();
+			journal.close();
+		} catch (IOException ex) {
+			System.out.println("Error writing the session journal: " + ex.getMessage());
+		}
+		journal = null;
+	}
+
+	/**
+	 * Writes the changed sessions to the journal, and compacts it if it
+	 * grew too large or the snapshot is too old.
+	 */
+	private synchronized void flushAndCompact() {
+		if(journal == null) return;
+		try {
+			flush();
+			long journalRecords = journalSize - HEADER_LENGTH;
+			if(journalRecords > Math.max(MIN_COMPACTION_SIZE, snapshotSize)
+					|| journalRecords > 0 && System.currentTimeMillis()
+							- snapshotTime >= snapshotInterval) {
+				compact();
+			}
+		} catch (IOException ex) {
+			System.out.println("Error writing the session journal: " + ex.getMessage());
+		}
+	}
+
+	/**
+	 * Appends the current state of every changed session to the journal.
+	 * @throws IOException if writing fails
+	 */
+	private void flush() throws IOException {
+		if(changed.isEmpty()) return;
+		List<SessionMapEntry> entries = new ArrayList<>(changed);
+		changed.removeAll(entries);
+		for(SessionMapEntry entry : entries) {
+			boolean stored = delegate.get(entry.getSid()) == entry;
+			journalSize += SessionRecord.write(journal, entry, stored, scratch);
+		}
+		journal.flush();
+	}
+
+	/**
+	 * Takes a new snapshot of all sessions and starts a new, empty journal.
+	 * The snapshot is written to a temporary file which replaces the old
+	 * snapshot only once it is complete, so a failed compaction loses
+	 * nothing.
+	 * @throws IOException if writing fails
+	 */
+	private void compact() throws IOException {
+		long next = generation + 1;
+		//sessions changed during the snapshot are also journaled afterwards
+		changed.clear();
+
+		Path snapshot = directory.resolve(SNAPSHOT);
+		Path temporary = Files.createTempFile(directory, SNAPSHOT, ".tmp");
+		try {
+			try(FileChannel channel = FileChannel.open(temporary,
+					StandardOpenOption.WRITE)) {
+				DataOutputStream os = newStream(channel);
+				writeHeader(os, next);
+				IOException[] error = new IOException[1];
+				delegate.forEach(entry -> {
+					if(error[0] != null) return;
+					try {
+						SessionRecord.write(os, entry, true, scratch);
+					} catch (IOException ex) {
+						error[0] = ex;
+					}
+				});
+				if(error[0] != null) throw error[0];
+				os.flush();
+				channel.force(true);
+				snapshotSize = channel.size();
+			}
+			Files.move(temporary, snapshot,
+					StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+
+		journal.close();
+		generation = next;
+		snapshotTime = System.currentTimeMillis();
+		journal = newStream(FileChannel.open(journalPath(generation),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING));
+		writeHeader(journal, generation);
+		journal.flush();
+		journalSize = HEADER_LENGTH;
+		deleteJournals(generation);
+	}
+
+	/**
+	 * Reads a snapshot or a journal, memory-mapping it, and applies its
+	 * records. Reading stops at the first damaged record.
+	 * @param file the file
+	 * @param expectedGeneration the generation the file must have, or -1
+	 * if any generation is accepted
+	 * @param sessions the sessions, by their IDs, to which the records are
+	 * applied
+	 * @return the file's generation if no generation was expected, or the
+	 * length of its undamaged part otherwise, which is less than the length
+	 * of its header if it has none
+	 * @throws IOException if reading fails
+	 */
+	private static long replay(Path file, long expectedGeneration,
+			Map<String, SessionMapEntry> sessions) throws IOException {
+		MappedByteBuffer buffer;
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC
+				|| buffer.get() != VERSION) {
+			System.out.println("Ignoring unknown session file " + file);
+			return -1;
+		}
+		long generation = buffer.getLong();
+		if(expectedGeneration != -1 && generation != expectedGeneration) {
+			return -1;
+		}
+
+		SessionRecord record;
+		while((record = SessionRecord.read(buffer)) != null) {
+			if(record.getEntry() == null) {
+				sessions.remove(record.getSid());
+			} else {
+				sessions.put(record.getSid(), record.getEntry());
+			}
+		}
+		int valid = buffer.position();
+		if(valid < buffer.limit()) {
+			System.out.println("Session file " + file + " is damaged after "
+					+ valid + " bytes, ignoring the rest.");
+		}
+		return expectedGeneration == -1 ? generation : valid;
+	}
+
+	/**
+	 * Writes a file's header.
+	 * @param os the stream
+	 * @param generation the file's generation
+	 * @throws IOException if writing fails
+	 */
+	private static void writeHeader(DataOutputStream os, long generation)
+			throws IOException {
+		os.writeInt(MAGIC);
+		os.writeByte(VERSION);
+		os.writeLong(generation);
+	}
+
+	/**
+	 * @param channel a file channel
+	 * @return a buffered stream which writes to the channel at its position
+	 */
+	private static DataOutputStream newStream(FileChannel channel) {
+		OutputStream os = Channels.newOutputStream(channel);
+		return new DataOutputStream(new BufferedOutputStream(os, 65536));
+	}
+
+	/**
+	 * @param generation a snapshot's generation
+	 * @return the path of the journal which continues the snapshot
+	 */
+	private Path journalPath(long generation) {
+		return directory.resolve(JOURNAL_PREFIX + generation + JOURNAL_SUFFIX);
+	}
+
+	/**
+	 * Deletes the journals of all other generations, which are outdated.
+	 * @param current the current generation
+	 * @throws IOException if the directory cannot be listed
+	 */
+	private void deleteJournals(long current) throws IOException {
+		Path keep = journalPath(current);
+		try(DirectoryStream<Path> journals = Files.newDirectoryStream(
+				directory, JOURNAL_PREFIX + "*" + JOURNAL_SUFFIX)) {
+			for(Path journal : journals) {
+				if(!journal.equals(keep)) {
+					Files.deleteIfExists(journal);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,470 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A session store which replicates the sessions of another store to the
+ * same store of peer servers, so a server's users keep their sessions when
+ * the balancer sends them to another server.
+ * <p>
+ * Workers never wait for the peers: a session which is created, used or
+ * removed is only marked as changed for every peer. For each peer, a
+ * background thread keeps a connection open and sends the current state of
+ * the sessions changed since its last batch, at most
+ * <code>interval</code> milliseconds apart, so a session used by many
+ * requests is sent once per batch and the peers lag behind by about one
+ * interval. Whenever a connection is established, all sessions are sent
+ * first, so a restarted peer, or one which was unreachable, catches up.
+ * <p>
+ * Changes received from peers are applied to the underlying store and are
+ * not sent on, so every server has to list all others as its peers. If the
+ * same session is changed on two servers at once, the change which arrives
+ * last wins. The protocol is not authenticated, so the replication port
+ * should only be reachable by the peers.
+ * @author 0036502252
+ *
+ */
+public class ReplicatedSessionStore implements ISessionStore, Closeable {
+	/**
+	 * Sent when a connection is established, to identify the protocol.
+	 */
+	private static final int MAGIC = 0x53455352;
+	/**
+	 * Version of the protocol.
+	 */
+	private static final byte VERSION = 1;
+	/**
+	 * Precedes every record sent.
+	 */
+	private static final byte RECORD = 'R';
+	/**
+	 * Sent when a peer's connection was idle for a while, so a lost 
+	 * connection is noticed even if no sessions change.
+	 */
+	private static final byte HEARTBEAT = 'H';
+	/**
+	 * Time after which an idle connection gets a heartbeat, in milliseconds.
+	 */
+	private static final long HEARTBEAT_INTERVAL = 1000;
+	/**
+	 * Maximum length of a received record, in bytes.
+	 */
+	private static final int MAX_RECORD = 16 << 20;
+	/**
+	 * Time to wait for a peer to accept a connection, in milliseconds.
+	 */
+	private static final int CONNECT_TIMEOUT = 2000;
+	/**
+	 * Maximum time between two attempts to connect to a peer, in
+	 * milliseconds.
+	 */
+	private static final long MAX_RETRY_DELAY = 5000;
+
+	/**
+	 * The store which holds the sessions.
+	 */
+	private final ISessionStore delegate;
+	/**
+	 * Maximum time between two batches sent to a peer, in milliseconds.
+	 */
+	private final long interval;
+	/**
+	 * Sends changes to each peer.
+	 */
+	private final List<PeerSender> senders = new ArrayList<>();
+	/**
+	 * Connections on which changes are received from peers.
+	 */
+	private final Set<Socket> receivers = ConcurrentHashMap.newKeySet();
+	/**
+	 * Socket on which peers connect, or <code>null</code> if changes are
+	 * not received.
+	 */
+	private volatile ServerSocket serverSocket;
+	/**
+	 * Set once the store is closed.
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructs a new {@link ReplicatedSessionStore}. Nothing is sent or
+	 * received until it is {@link #start(InetSocketAddress) started}.
+	 * @param delegate the store which holds the sessions
+	 * @param peers addresses on which the peers receive changes
+	 * @param interval maximum time between two batches sent to a peer, in
+	 * milliseconds
+	 */
+	public ReplicatedSessionStore(ISessionStore delegate,
+			List<InetSocketAddress> peers, long interval) {
+		this.delegate = delegate;
+		this.interval = interval;
+		for(InetSocketAddress peer : peers) {
+			senders.add(new PeerSender(peer));
+		}
+	}
+
+	/**
+	 * Starts receiving changes from the peers and sending changes to them.
+	 * @param address address on which changes are received, or
+	 * <code>null</code> if this server only sends changes
+	 * @throws IOException if the address cannot be bound
+	 */
+	public synchronized void start(InetSocketAddress address) throws IOException {
+		if(address != null) {
+			serverSocket = new ServerSocket();
+			serverSocket.setReuseAddress(true);
+			serverSocket.bind(address);
+			startThread(this::accept, "session-replication-listener");
+		}
+		for(PeerSender sender : senders) {
+			startThread(sender, "session-replication-" + sender);
+		}
+	}
+
+	@Override
+	public SessionMapEntry get(String sid) {
+		return delegate.get(sid);
+	}
+
+	@Override
+	public SessionMapEntry create(String host, long validUntil) {
+		SessionMapEntry entry = delegate.create(host, validUntil);
+		changed(entry);
+		return entry;
+	}
+
+	@Override
+	public void add(SessionMapEntry entry) {
+		delegate.add(entry);
+		changed(entry);
+	}
+
+	@Override
+	public void update(SessionMapEntry entry) {
+		delegate.update(entry);
+		changed(entry);
+	}
+
+	@Override
+	public void remove(SessionMapEntry entry) {
+		delegate.remove(entry);
+		changed(entry);
+	}
+
+	/**
+	 * Expired sessions are not sent, since every peer removes them itself.
+	 */
+	@Override
+	public int removeExpired(long now) {
+		return delegate.removeExpired(now);
+	}
+
+	@Override
+	public int size() {
+		return delegate.size();
+	}
+
+	@Override
+	public void forEach(Consumer<? super SessionMapEntry> action) {
+		delegate.forEach(action);
+	}
+
+	@Override
+	public long getBytes() {
+		return delegate.getBytes();
+	}
+
+	@Override
+	public void setMaxBytes(long maxBytes) {
+		delegate.setMaxBytes(maxBytes);
+	}
+
+	@Override
+	public long getEvictions() {
+		return delegate.getEvictions();
+	}
+
+	/**
+	 * Stops replicating and closes the underlying store, if it can be
+	 * closed. Changes which were not sent yet are lost.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		closeQuietly(serverSocket);
+		for(PeerSender sender : senders) {
+			synchronized(sender) {
+				sender.notifyAll();
+				closeQuietly(sender.socket);
+			}
+		}
+		for(Socket receiver : receivers) {
+			closeQuietly(receiver);
+		}
+		if(delegate instanceof Closeable) {
+			closeQuietly((Closeable) delegate);
+		}
+	}
+
+	/**
+	 * Marks a session as changed for every peer.
+	 * @param entry the session
+	 */
+	private void changed(SessionMapEntry entry) {
+		for(PeerSender sender : senders) {
+			sender.changed.add(entry);
+		}
+	}
+
+	/**
+	 * Accepts connections from peers, receiving the changes from each on
+	 * its own thread.
+	 */
+	private void accept() {
+		while(!closed) {
+			Socket socket;
+			try {
+				socket = serverSocket.accept();
+			} catch (IOException ex) {
+				if(!closed) {
+					System.out.println("Error accepting a session replica: "
+							+ ex.getMessage());
+				}
+				continue;
+			}
+			startThread(() -> receive(socket),
+					"session-replication-" + socket.getRemoteSocketAddress());
+		}
+	}
+
+	/**
+	 * Receives changes from a peer and applies them, until the peer closes
+	 * the connection.
+	 * @param socket the connection
+	 */
+	private void receive(Socket socket) {
+		receivers.add(socket);
+		try(Socket s = socket) {
+			DataInputStream is = new DataInputStream(
+					new BufferedInputStream(s.getInputStream())
+			);
+			if(is.readInt() != MAGIC || is.readByte() != VERSION) {
+				throw new IOException("Unknown replication protocol.");
+			}
+			while(!closed) {
+				byte type = is.readByte();
+				if(type == RECORD) {
+					apply(SessionRecord.read(is, MAX_RECORD));
+				} else if(type != HEARTBEAT) {
+					throw new IOException("Unknown replication message: " + type);
+				}
+			}
+		} catch (EOFException ignorable) {
+		} catch (IOException ex) {
+			if(!closed) {
+				System.out.println("Error receiving sessions from "
+						+ socket.getRemoteSocketAddress() + ": " + ex.getMessage());
+			}
+		} finally {
+			receivers.remove(socket);
+		}
+	}
+
+	/**
+	 * Applies a change received from a peer to the underlying store. A
+	 * session which is already stored is changed in place, since requests
+	 * being served may still use it. A change older than the stored session,
+	 * as told by their validity, is ignored, so a peer syncing a stale copy
+	 * does not undo newer changes.
+	 * @param record the change
+	 */
+	private void apply(SessionRecord record) {
+		SessionMapEntry current = delegate.get(record.getSid());
+		SessionMapEntry received = record.getEntry();
+		if(received == null) {
+			if(current != null) {
+				delegate.remove(current);
+			}
+			return;
+		}
+		if(current == null || !current.getHost().equals(received.getHost())) {
+			delegate.add(received);
+			return;
+		}
+
+		long validUntil = current.getValidUntil();
+		if(received.getValidUntil() < validUntil) {
+			return;
+		}
+		current.replaceParameters(received.getMap());
+		current.touch(Math.max(validUntil, received.getValidUntil()));
+		delegate.update(current);
+	}
+
+	/**
+	 * Starts a daemon thread.
+	 * @param task the thread's task
+	 * @param name the thread's name
+	 */
+	private static void startThread(Runnable task, String name) {
+		Thread thread = new Thread(task, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Closes a resource, ignoring errors.
+	 * @param closeable the resource, or <code>null</code>
+	 */
+	private static void closeQuietly(Closeable closeable) {
+		if(closeable == null) return;
+		try {
+			closeable.close();
+		} catch (IOException ignorable) {
+		}
+	}
+
+	/**
+	 * Sends changes to a single peer, reconnecting whenever the connection
+	 * is lost.
+	 * @author 0036502252
+	 *
+	 */
+	private class PeerSender implements Runnable {
+		/**
+		 * Address on which the peer receives changes.
+		 */
+		private final InetSocketAddress peer;
+		/**
+		 * Sessions changed since the last batch sent to the peer.
+		 */
+		private final Set<SessionMapEntry> changed =
+				ConcurrentHashMap.newKeySet();
+		/**
+		 * Reused to serialize records.
+		 */
+		private final ByteArrayOutputStream scratch = new ByteArrayOutputStream();
+		/**
+		 * The connection to the peer, or <code>null</code>.
+		 */
+		private Socket socket;
+
+		/**
+		 * Constructs a new {@link PeerSender}.
+		 * @param peer address on which the peer receives changes
+		 */
+		public PeerSender(InetSocketAddress peer) {
+			this.peer = peer;
+		}
+
+		@Override
+		public String toString() {
+			return peer.getHostString() + ":" + peer.getPort();
+		}
+
+		@Override
+		public void run() {
+			long retryDelay = interval;
+			while(!closed) {
+				try {
+					connectAndSend();
+				} catch (IOException ex) {
+					if(closed) return;
+					if(retryDelay == interval) {
+						System.out.println("Session replica " + this
+								+ " is unreachable: " + ex.getMessage());
+					}
+				}
+				pause(retryDelay);
+				retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY);
+			}
+		}
+
+		/**
+		 * Connects to the peer, sends it all sessions and then keeps
+		 * sending batches of changes until the connection is lost.
+		 * @throws IOException if connecting or sending fails
+		 */
+		private void connectAndSend() throws IOException {
+			Socket s = new Socket();
+			synchronized(this) {
+				if(closed) return;
+				socket = s;
+			}
+			try(Socket socket = s) {
+				//resolved on every attempt, in case the peer's address changes
+				socket.connect(new InetSocketAddress(peer.getHostString(), 
+						peer.getPort()), CONNECT_TIMEOUT);
+				socket.setTcpNoDelay(true);
+				DataOutputStream os = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream(), 65536)
+				);
+				os.writeInt(MAGIC);
+				os.writeByte(VERSION);
+
+				//sessions changed meanwhile are also sent in the next batch
+				changed.clear();
+				IOException[] error = new IOException[1];
+				delegate.forEach(entry -> {
+					if(error[0] != null) return;
+					try {
+						os.writeByte(RECORD);
+						SessionRecord.write(os, entry, true, scratch);
+					} catch (IOException ex) {
+						error[0] = ex;
+					}
+				});
+				if(error[0] != null) throw error[0];
+				os.flush();
+				System.out.println("Session replica " + this + " is in sync.");
+
+				long lastSent = System.currentTimeMillis();
+				while(!closed) {
+					pause(interval);
+					long now = System.currentTimeMillis();
+					if(changed.isEmpty()) {
+						if(now - lastSent < HEARTBEAT_INTERVAL) continue;
+						os.writeByte(HEARTBEAT);
+					} else {
+						List<SessionMapEntry> batch = new ArrayList<>(changed);
+						changed.removeAll(batch);
+						for(SessionMapEntry entry : batch) {
+							boolean stored = delegate.get(entry.getSid()) == entry;
+							os.writeByte(RECORD);
+							SessionRecord.write(os, entry, stored, scratch);
+						}
+					}
+					os.flush();
+					lastSent = now;
+				}
+			}
+		}
+
+		/**
+		 * Waits, unless the store is closed meanwhile.
+		 * @param millis time to wait, in milliseconds
+		 */
+		private synchronized void pause(long millis) {
+			if(closed) return;
+			try {
+				wait(millis);
+			} catch (InterruptedException ignorable) {
+			}
+		}
+	}
+}
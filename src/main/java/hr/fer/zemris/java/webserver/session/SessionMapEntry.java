@@ -0,0 +1,165 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.zemris.java.custom.collections.TimingWheel.Timeout;
+
+/**
+ * Represents a single server session, which is used for implementing 
+ * cookie functionality to the server.
+ * @author 0036502252
+ *
+ */
+public class SessionMapEntry {
+	/**
+	 * Unique session ID.
+	 */
+	private final String sid;
+	/**
+	 * The host name of this session.
+	 */
+	private final String host;
+	/**
+	 * Time until this session is valid, in seconds. Volatile, so it can be
+	 * extended by concurrent requests of the session without a lock.
+	 */
+	private volatile long validUntil;
+	/**
+	 * Stores the session's parameters.
+	 */
+	private final SessionParameters map = new SessionParameters(this);
+	/**
+	 * Approximate memory used by this session, in bytes.
+	 */
+	private long bytes;
+	/**
+	 * Total memory used by the sessions of this session's store, or 
+	 * <code>null</code> if it is not in a store which keeps track of it.
+	 */
+	private AtomicLong storeBytes;
+	/**
+	 * The session's timeout in its store's timing wheel, if it has one.
+	 */
+	private Timeout<SessionMapEntry> expiry;
+	
+	/**
+	 * Approximate memory used by a session besides its parameters and the
+	 * characters of its ID and host name, in bytes.
+	 */
+	private static final int SESSION_OVERHEAD = 256;
+	
+	/**
+	 * Constructs a new {@link SessionMapEntry}.
+	 * @param sid the session ID
+	 * @param host the host name
+	 * @param validUntil time until this session will be valid (in seconds)
+	 */
+	public SessionMapEntry(String sid, String host, long validUntil) {
+		this.sid = sid;
+		this.host = host;
+		this.validUntil = validUntil;
+		this.bytes = SESSION_OVERHEAD + 2L * (sid.length() + host.length());
+	}
+
+	/**
+	 * @return the session ID
+	 */
+	public String getSid() {
+		return sid;
+	}
+
+	/**
+	 * @return the host name of this session
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return time until this session is valid, in seconds
+	 */
+	public long getValidUntil() {
+		return validUntil;
+	}
+
+	/**
+	 * Extends this session's validity, as it was just used.
+	 * @param validUntil time until this session will be valid (in seconds)
+	 */
+	public void touch(long validUntil) {
+		this.validUntil = validUntil;
+	}
+
+	/**
+	 * @param now the current time, in seconds
+	 * @return true if this session is no longer valid
+	 */
+	public boolean isExpired(long now) {
+		return validUntil < now;
+	}
+
+	/**
+	 * @return the session's timeout in its store's timing wheel, or 
+	 * <code>null</code> if it has none
+	 */
+	Timeout<SessionMapEntry> getExpiry() {
+		return expiry;
+	}
+
+	/**
+	 * @param expiry the session's timeout in its store's timing wheel
+	 */
+	void setExpiry(Timeout<SessionMapEntry> expiry) {
+		this.expiry = expiry;
+	}
+
+	/**
+	 * @return approximate memory used by this session, in bytes
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * Adds a change of this session's size to its total and to its store's.
+	 * @param delta the change, in bytes
+	 */
+	synchronized void resized(long delta) {
+		bytes += delta;
+		if(storeBytes != null) {
+			storeBytes.addAndGet(delta);
+		}
+	}
+
+	/**
+	 * Starts or stops counting this session's size in its store's total.
+	 * @param storeBytes the store's total, or <code>null</code> once the 
+	 * session is removed from the store
+	 */
+	synchronized void setStoreBytes(AtomicLong storeBytes) {
+		if(this.storeBytes != null) {
+			this.storeBytes.addAndGet(-bytes);
+		}
+		this.storeBytes = storeBytes;
+		if(storeBytes != null) {
+			storeBytes.addAndGet(bytes);
+		}
+	}
+
+	/**
+	 * Replaces all of the session's parameters at once.
+	 * @param parameters the new parameters
+	 */
+	void replaceParameters(Map<String, String> parameters) {
+		map.replaceWith(parameters);
+	}
+
+	/**
+	 * @return the session's parameters, which may be changed concurrently.
+	 * They are kept compactly while there are few of them.
+	 */
+	public Map<String, String> getMap() {
+		return map;
+	}
+}
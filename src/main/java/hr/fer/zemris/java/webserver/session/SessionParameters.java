@@ -0,0 +1,313 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The persistent parameters of a session, which keep track of their
+ * approximate size. Most sessions have no parameters or only a few, so
+ * nothing is allocated until the first parameter is set, and up to
+ * {@value #MAX_COMPACT} parameters are kept in a single array of names and
+ * values instead of a hash table. Sessions with more parameters switch to
+ * a {@link ConcurrentHashMap}.
+ * <p>
+ * Like a {@link ConcurrentHashMap}, the map is thread-safe, does not allow
+ * <code>null</code> names or values, and its iterators reflect the state
+ * of the map at some point during or since their creation. Reads do not
+ * lock: changes to the array replace it with a changed copy.
+ * @author 0036502252
+ *
+ */
+class SessionParameters extends AbstractMap<String, String> {
+	/**
+	 * Maximum number of parameters which are kept in the array.
+	 */
+	private static final int MAX_COMPACT = 8;
+	/**
+	 * Approximate memory used by a parameter besides its characters: the
+	 * two strings and their arrays, and the references to them.
+	 */
+	private static final int PARAMETER_OVERHEAD = 96;
+
+	/**
+	 * The session whose parameters these are.
+	 */
+	private final SessionMapEntry owner;
+	/**
+	 * Names and values of the parameters, alternately, or <code>null</code>
+	 * if there are none or they are kept in the hash table.
+	 */
+	private volatile String[] compact;
+	/**
+	 * The parameters, once there are too many for the array.
+	 */
+	private volatile Map<String, String> large;
+
+	/**
+	 * Constructs a new, empty {@link SessionParameters}.
+	 * @param owner the session whose parameters these are
+	 */
+	SessionParameters(SessionMapEntry owner) {
+		this.owner = owner;
+	}
+
+	@Override
+	public String get(Object key) {
+		Map<String, String> large = this.large;
+		if(large != null) return large.get(key);
+
+		String[] compact = this.compact;
+		if(compact == null) return null;
+		for(int i = 0; i < compact.length; i += 2) {
+			if(compact[i].equals(key)) return compact[i + 1];
+		}
+		return null;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public int size() {
+		Map<String, String> large = this.large;
+		if(large != null) return large.size();
+		String[] compact = this.compact;
+		return compact == null ? 0 : compact.length / 2;
+	}
+
+	@Override
+	public synchronized String put(String key, String value) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(value);
+		String previous;
+		if(large != null) {
+			previous = large.put(key, value);
+		} else {
+			int index = indexOf(key);
+			previous = index == -1 ? null : compact[index + 1];
+			if(index != -1) {
+				String[] copy = compact.clone();
+				copy[index + 1] = value;
+				compact = copy;
+			} else if(size() < MAX_COMPACT) {
+				int length = compact == null ? 0 : compact.length;
+				String[] copy = new String[length + 2];
+				if(compact != null) {
+					System.arraycopy(compact, 0, copy, 0, length);
+				}
+				copy[length] = key;
+				copy[length + 1] = value;
+				compact = copy;
+			} else {
+				Map<String, String> map = new ConcurrentHashMap<>();
+				for(int i = 0; i < compact.length; i += 2) {
+					map.put(compact[i], compact[i + 1]);
+				}
+				map.put(key, value);
+				large = map;
+				compact = null;
+			}
+		}
+
+		owner.resized(previous == null ?
+				sizeOf(key, value) : sizeOf(value) - sizeOf(previous));
+		return previous;
+	}
+
+	@Override
+	public synchronized String remove(Object key) {
+		String previous;
+		if(large != null) {
+			previous = large.remove(key);
+		} else {
+			int index = indexOf(key);
+			if(index == -1) return null;
+			previous = compact[index + 1];
+			if(compact.length == 2) {
+				compact = null;
+			} else {
+				String[] copy = new String[compact.length - 2];
+				System.arraycopy(compact, 0, copy, 0, index);
+				System.arraycopy(compact, index + 2, copy, index,
+						copy.length - index);
+				compact = copy;
+			}
+		}
+
+		if(previous != null) {
+			owner.resized(-sizeOf((String) key, previous));
+		}
+		return previous;
+	}
+
+	/**
+	 * Replaces all parameters with the given ones at once, so readers see
+	 * either the old parameters or the new ones, never a mix of them.
+	 * @param parameters the new parameters
+	 */
+	synchronized void replaceWith(Map<String, String> parameters) {
+		long delta = 0;
+		for(Entry<String, String> e : entrySet()) {
+			delta -= sizeOf(e.getKey(), e.getValue());
+		}
+		for(Entry<String, String> e : parameters.entrySet()) {
+			delta += sizeOf(e.getKey(), e.getValue());
+		}
+
+		if(parameters.size() > MAX_COMPACT) {
+			large = new ConcurrentHashMap<>(parameters);
+			compact = null;
+		} else {
+			String[] copy = null;
+			if(!parameters.isEmpty()) {
+				copy = new String[2 * parameters.size()];
+				int i = 0;
+				for(Entry<String, String> e : parameters.entrySet()) {
+					copy[i++] = Objects.requireNonNull(e.getKey());
+					copy[i++] = Objects.requireNonNull(e.getValue());
+				}
+			}
+			compact = copy;
+			large = null;
+		}
+		owner.resized(delta);
+	}
+
+	@Override
+	public synchronized void clear() {
+		for(String key : keySet().toArray(new String[0])) {
+			remove(key);
+		}
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new ParameterIterator();
+			}
+
+			@Override
+			public int size() {
+				return SessionParameters.this.size();
+			}
+		};
+	}
+
+	/**
+	 * @param key a parameter's name
+	 * @return index of the name in the array, or -1 if it is not there
+	 */
+	private int indexOf(Object key) {
+		if(compact == null) return -1;
+		for(int i = 0; i < compact.length; i += 2) {
+			if(compact[i].equals(key)) return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param key a parameter's name
+	 * @param value the parameter's value
+	 * @return approximate memory used by the parameter, in bytes
+	 */
+	private static long sizeOf(String key, String value) {
+		return PARAMETER_OVERHEAD + sizeOf(key) + sizeOf(value);
+	}
+
+	/**
+	 * @param s a string
+	 * @return approximate memory used by the string's characters, in bytes
+	 */
+	private static long sizeOf(String s) {
+		return 2L * s.length();
+	}
+
+	/**
+	 * Iterates over the parameters as they were when it was created.
+	 * Removing a parameter and setting a value change the map.
+	 * @author 0036502252
+	 *
+	 */
+	private class ParameterIterator implements Iterator<Entry<String, String>> {
+		/**
+		 * The hash table's iterator, if the parameters are kept in it.
+		 */
+		private Iterator<Entry<String, String>> large;
+		/**
+		 * The array, if the parameters are kept in it.
+		 */
+		private String[] compact;
+		/**
+		 * Index of the next name in the array.
+		 */
+		private int index;
+		/**
+		 * Name of the last returned parameter.
+		 */
+		private String last;
+
+		/**
+		 * Constructs a new {@link ParameterIterator}.
+		 */
+		public ParameterIterator() {
+			Map<String, String> map = SessionParameters.this.large;
+			if(map != null) {
+				large = map.entrySet().iterator();
+			} else {
+				compact = SessionParameters.this.compact;
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			if(large != null) return large.hasNext();
+			return compact != null && index < compact.length;
+		}
+
+		@Override
+		public Entry<String, String> next() {
+			String key;
+			String value;
+			if(large != null) {
+				Entry<String, String> entry = large.next();
+				key = entry.getKey();
+				value = entry.getValue();
+			} else {
+				if(!hasNext()) throw new NoSuchElementException();
+				key = compact[index];
+				value = compact[index + 1];
+				index += 2;
+			}
+			last = key;
+			return new SimpleEntry<String, String>(key, value) {
+				/**
+				 * Serialization version.
+				 */
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				public String setValue(String value) {
+					super.setValue(value);
+					return put(getKey(), value);
+				}
+			};
+		}
+
+		@Override
+		public void remove() {
+			if(last == null) throw new IllegalStateException();
+			SessionParameters.this.remove(last);
+			last = null;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A change of a session, as written to the session journal and sent to
+ * replicas: either the whole current state of a session, or its removal.
+ * <p>
+ * A record is framed by its length and its CRC-32 checksum, so a reader
+ * can tell where it ends and whether it was damaged. Its body starts with
+ * its type and the session's ID. The state of a session follows with its
+ * host, its expiry time and its parameters. Strings are written as their
+ * length followed by their UTF-8 encoding.
+ * @author 0036502252
+ *
+ */
+final class SessionRecord {
+	/**
+	 * Length of a record's frame: its length and its checksum.
+	 */
+	static final int FRAME_LENGTH = 8;
+	/**
+	 * Type of a record which holds a session's state.
+	 */
+	private static final byte PUT = 'P';
+	/**
+	 * Type of a record which removes a session.
+	 */
+	private static final byte REMOVE = 'R';
+
+	/**
+	 * ID of the changed session.
+	 */
+	private final String sid;
+	/**
+	 * The session's state, or <code>null</code> if it was removed.
+	 */
+	private final SessionMapEntry entry;
+
+	/**
+	 * Constructs a new {@link SessionRecord}.
+	 * @param sid ID of the changed session
+	 * @param entry the session's state, or <code>null</code> if it was
+	 * removed
+	 */
+	private SessionRecord(String sid, SessionMapEntry entry) {
+		this.sid = sid;
+		this.entry = entry;
+	}
+
+	/**
+	 * @return ID of the changed session
+	 */
+	String getSid() {
+		return sid;
+	}
+
+	/**
+	 * @return the session's state, as a new session which is not in any
+	 * store, or <code>null</code> if the session was removed
+	 */
+	SessionMapEntry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * Writes a framed record.
+	 * @param os the stream
+	 * @param entry the session
+	 * @param stored true to write the session's state, false to write its
+	 * removal
+	 * @param scratch buffer in which the body is prepared, reused by the
+	 * caller's records
+	 * @return the number of written bytes
+	 * @throws IOException if writing fails
+	 */
+	static int write(DataOutputStream os, SessionMapEntry entry, boolean stored,
+			ByteArrayOutputStream scratch) throws IOException {
+		scratch.reset();
+		DataOutputStream body = new DataOutputStream(scratch);
+		body.writeByte(stored ? PUT : REMOVE);
+		writeString(body, entry.getSid());
+		if(stored) {
+			writeString(body, entry.getHost());
+			body.writeLong(entry.getValidUntil());
+			Map<String, String> parameters = new HashMap<>(entry.getMap());
+			body.writeInt(parameters.size());
+			for(Map.Entry<String, String> parameter : parameters.entrySet()) {
+				writeString(body, parameter.getKey());
+				writeString(body, parameter.getValue());
+			}
+		}
+
+		byte[] bytes = scratch.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(bytes, 0, bytes.length);
+		os.writeInt(bytes.length);
+		os.writeInt((int) crc.getValue());
+		os.write(bytes);
+		return FRAME_LENGTH + bytes.length;
+	}
+
+	/**
+	 * Reads a framed record from a buffer, advancing its position past the
+	 * record if it is intact.
+	 * @param buffer the buffer
+	 * @return the record, or <code>null</code> if the buffer ends within
+	 * the record or the record is damaged
+	 */
+	static SessionRecord read(ByteBuffer buffer) {
+		if(buffer.remaining() < FRAME_LENGTH) return null;
+		int start = buffer.position();
+		int length = buffer.getInt();
+		int checksum = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) {
+			buffer.position(start);
+			return null;
+		}
+
+		ByteBuffer body = buffer.slice();
+		body.limit(length);
+		CRC32 crc = new CRC32();
+		crc.update(body.duplicate());
+		SessionRecord record = (int) crc.getValue() == checksum ?
+				parse(body) : null;
+		buffer.position(record == null ? start : start + FRAME_LENGTH + length);
+		return record;
+	}
+
+	/**
+	 * Reads a framed record from a stream.
+	 * @param is the stream
+	 * @param maxLength maximum length of a record's body, in bytes
+	 * @return the record
+	 * @throws IOException if reading fails, or the record is too long or
+	 * damaged
+	 */
+	static SessionRecord read(DataInputStream is, int maxLength)
+			throws IOException {
+		int length = is.readInt();
+		int checksum = is.readInt();
+		if(length < 0 || length > maxLength) {
+			throw new IOException("Invalid session record length: " + length);
+		}
+		byte[] body = new byte[length];
+		is.readFully(body);
+
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, length);
+		SessionRecord record = (int) crc.getValue() == checksum ?
+				parse(ByteBuffer.wrap(body)) : null;
+		if(record == null) {
+			throw new IOException("Damaged session record.");
+		}
+		return record;
+	}
+
+	/**
+	 * Parses a record's body.
+	 * @param body the body
+	 * @return the record, or <code>null</code> if the body is malformed
+	 */
+	private static SessionRecord parse(ByteBuffer body) {
+		try {
+			byte type = body.get();
+			String sid = readString(body);
+			if(type == REMOVE) return new SessionRecord(sid, null);
+			if(type != PUT) return null;
+
+			SessionMapEntry entry = new SessionMapEntry(
+					sid, readString(body), body.getLong()
+			);
+			int count = body.getInt();
+			for(int i = 0; i < count; i++) {
+				entry.getMap().put(readString(body), readString(body));
+			}
+			return new SessionRecord(sid, entry);
+		} catch (BufferUnderflowException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes a string as its length and its UTF-8 encoding.
+	 * @param os the stream
+	 * @param s the string
+	 * @throws IOException if writing fails
+	 */
+	private static void writeString(DataOutputStream os, String s)
+			throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	}
+
+	/**
+	 * Reads a string written by {@link #writeString(DataOutputStream, String)}.
+	 * @param buffer the buffer
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if(length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,367 @@
+package hr.fer.zemris.java.webserver.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Keeps a session's persistent parameters on the client instead of the
+ * server: encodes them, together with the session's expiry time, into a
+ * token which is sent as the <code>sid</code> cookie, and decodes the
+ * token the client sends back.
+ * <p>
+ * A token is the Base64 encoded payload and its HMAC-SHA256 signature,
+ * separated by a dot. The signature also covers the session's host, so a
+ * token is only accepted by the host it was issued by, and a token whose
+ * payload or host were changed is rejected. If encryption is enabled, the
+ * parameters are encrypted with AES in counter mode before they are
+ * signed, so clients cannot read them either.
+ * <p>
+ * The codec is thread-safe.
+ * @author 0036502252
+ *
+ */
+public class SignedSessionCodec {
+	/**
+	 * Version of the token format.
+	 */
+	private static final byte VERSION = 1;
+	/**
+	 * Flag of a payload whose parameters are encrypted.
+	 */
+	private static final byte ENCRYPTED = 1;
+	/**
+	 * Length of an encryption's initialization vector, in bytes.
+	 */
+	private static final int IV_LENGTH = 16;
+	/**
+	 * Length of the payload's fields which precede the parameters: the
+	 * version, the flags and the expiry time.
+	 */
+	private static final int PREFIX_LENGTH = 10;
+	/**
+	 * Separates the payload from the signature.
+	 */
+	private static final char SEPARATOR = '.';
+	/**
+	 * Name of the signature algorithm.
+	 */
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	/**
+	 * Name of the encryption algorithm.
+	 */
+	private static final String CIPHER_ALGORITHM = "AES/CTR/NoPadding";
+	/**
+	 * Every thread's generator of initialization vectors.
+	 */
+	private static final ThreadLocal<SecureRandom> RANDOM =
+			ThreadLocal.withInitial(SecureRandom::new);
+	/**
+	 * Encodes tokens, without padding, so they can be used as cookie values.
+	 */
+	private static final Base64.Encoder ENCODER =
+			Base64.getUrlEncoder().withoutPadding();
+	/**
+	 * Decodes tokens.
+	 */
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+	/**
+	 * Key which signs the tokens.
+	 */
+	private final SecretKeySpec signingKey;
+	/**
+	 * Key which encrypts the parameters, or <code>null</code> if they are
+	 * not encrypted.
+	 */
+	private final SecretKeySpec encryptionKey;
+	/**
+	 * Maximum length of a token, in characters.
+	 */
+	private final int maxLength;
+	/**
+	 * Every thread's signature algorithm.
+	 */
+	private final ThreadLocal<Mac> mac;
+	/**
+	 * Every thread's encryption algorithm.
+	 */
+	private final ThreadLocal<Cipher> cipher;
+
+	/**
+	 * Constructs a new {@link SignedSessionCodec}. The signing and
+	 * encryption keys are both derived from the secret.
+	 * @param secret the secret which the keys are derived from. Servers
+	 * which share it accept each other's tokens.
+	 * @param encrypt true if the parameters should be encrypted
+	 * @param maxLength maximum length of a token, in characters. Longer
+	 * tokens are not issued.
+	 */
+	public SignedSessionCodec(byte[] secret, boolean encrypt, int maxLength) {
+		this.signingKey = new SecretKeySpec(
+				derive(secret, "sign"), MAC_ALGORITHM
+		);
+		this.encryptionKey = encrypt ? new SecretKeySpec(
+				Arrays.copyOf(derive(secret, "encrypt"), 16), "AES"
+		) : null;
+		this.maxLength = maxLength;
+		this.mac = ThreadLocal.withInitial(() -> newInstance(() -> {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(signingKey);
+			return mac;
+		}));
+		this.cipher = ThreadLocal.withInitial(() -> newInstance(
+				() -> Cipher.getInstance(CIPHER_ALGORITHM)
+		));
+	}
+
+	/**
+	 * @return a new random secret, for servers which do not share their
+	 * tokens and do not need them to survive a restart
+	 */
+	public static byte[] randomSecret() {
+		byte[] secret = new byte[32];
+		RANDOM.get().nextBytes(secret);
+		return secret;
+	}
+
+	/**
+	 * Encodes a session into a token.
+	 * @param host the session's host
+	 * @param validUntil time until which the session is valid, in seconds
+	 * @param parameters the session's persistent parameters. Parameters
+	 * whose value is <code>null</code> are left out.
+	 * @return the token, or <code>null</code> if it would be longer than
+	 * the maximum length
+	 */
+	public String encode(String host, long validUntil,
+			Map<String, String> parameters) {
+		byte[] body = serialize(parameters);
+		if(body == null 
+				|| encodedLength(PREFIX_LENGTH + body.length) > maxLength) {
+			return null;
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			dos.writeByte(VERSION);
+			dos.writeByte(encryptionKey == null ? 0 : ENCRYPTED);
+			dos.writeLong(validUntil);
+			if(encryptionKey != null) {
+				byte[] iv = new byte[IV_LENGTH];
+				RANDOM.get().nextBytes(iv);
+				dos.write(iv);
+				dos.write(crypt(Cipher.ENCRYPT_MODE, iv, body));
+			} else {
+				dos.write(body);
+			}
+		} catch (IOException impossible) {
+			throw new AssertionError(impossible);
+		}
+
+		byte[] payload = bos.toByteArray();
+		String token = ENCODER.encodeToString(payload) + SEPARATOR
+				+ ENCODER.encodeToString(sign(host, payload));
+		return token.length() > maxLength ? null : token;
+	}
+
+	/**
+	 * Decodes a token into a session.
+	 * @param token the token, as sent by the client
+	 * @param host the host the request was sent to
+	 * @param now the current time, in seconds
+	 * @return the session, whose ID is the token, or <code>null</code> if
+	 * the token is malformed, was not issued for the host, was tampered
+	 * with or expired
+	 */
+	public SessionMapEntry decode(String token, String host, long now) {
+		int separator = token.indexOf(SEPARATOR);
+		if(separator == -1 || token.length() > maxLength) return null;
+
+		byte[] payload;
+		byte[] signature;
+		try {
+			payload = DECODER.decode(token.substring(0, separator));
+			signature = DECODER.decode(token.substring(separator + 1));
+		} catch (IllegalArgumentException ex) {
+			return null;
+		}
+		if(!MessageDigest.isEqual(signature, sign(host, payload))) return null;
+
+		try {
+			DataInputStream dis = new DataInputStream(
+					new ByteArrayInputStream(payload)
+			);
+			byte version = dis.readByte();
+			byte flags = dis.readByte();
+			long validUntil = dis.readLong();
+			if(version != VERSION || validUntil < now) return null;
+
+			byte[] body = Arrays.copyOfRange(payload, PREFIX_LENGTH, payload.length);
+			if((flags & ENCRYPTED) != 0) {
+				if(encryptionKey == null || body.length < IV_LENGTH) return null;
+				body = crypt(
+						Cipher.DECRYPT_MODE, Arrays.copyOf(body, IV_LENGTH),
+						Arrays.copyOfRange(body, IV_LENGTH, body.length)
+				);
+			}
+
+			SessionMapEntry entry = new SessionMapEntry(token, host, validUntil);
+			deserialize(body, entry.getMap());
+			return entry;
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param token a session ID or a token
+	 * @return true if the given value looks like a token rather than the
+	 * ID of a session which is kept on the server
+	 */
+	public static boolean isToken(String token) {
+		return token.indexOf(SEPARATOR) != -1;
+	}
+
+	/**
+	 * Signs a payload for a host.
+	 * @param host the host
+	 * @param payload the payload
+	 * @return the signature
+	 */
+	private byte[] sign(String host, byte[] payload) {
+		Mac mac = this.mac.get();
+		mac.update(host.getBytes(StandardCharsets.UTF_8));
+		mac.update((byte) 0);
+		return mac.doFinal(payload);
+	}
+
+	/**
+	 * Encrypts or decrypts the parameters.
+	 * @param mode {@link Cipher#ENCRYPT_MODE} or {@link Cipher#DECRYPT_MODE}
+	 * @param iv the initialization vector
+	 * @param data the parameters
+	 * @return the result
+	 */
+	private byte[] crypt(int mode, byte[] iv, byte[] data) {
+		Cipher cipher = this.cipher.get();
+		try {
+			cipher.init(mode, encryptionKey, new IvParameterSpec(iv));
+			return cipher.doFinal(data);
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Serializes parameters compactly: their count, followed by the name
+	 * and the value of each, all as length-prefixed UTF-8.
+	 * @param parameters the parameters
+	 * @return the serialized parameters, or <code>null</code> if a 
+	 * parameter is too long to be serialized, and thus to fit in a cookie
+	 */
+	private static byte[] serialize(Map<String, String> parameters) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(bos);
+		try {
+			int count = 0;
+			for(String value : parameters.values()) {
+				if(value != null) count++;
+			}
+			dos.writeShort(count);
+			for(Map.Entry<String, String> parameter : parameters.entrySet()) {
+				if(parameter.getValue() == null) continue;
+				dos.writeUTF(parameter.getKey());
+				dos.writeUTF(parameter.getValue());
+			}
+		} catch (IOException ex) {
+			return null;
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Reads serialized parameters.
+	 * @param body the serialized parameters
+	 * @param parameters map to which the parameters are added
+	 * @throws IOException if the parameters are malformed
+	 */
+	private static void deserialize(byte[] body, Map<String, String> parameters)
+			throws IOException {
+		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(body));
+		int count = dis.readUnsignedShort();
+		for(int i = 0; i < count; i++) {
+			parameters.put(dis.readUTF(), dis.readUTF());
+		}
+	}
+
+	/**
+	 * @param length length of a payload, in bytes
+	 * @return the least length of a token with a payload of the given
+	 * length, in characters
+	 */
+	private int encodedLength(int length) {
+		if(encryptionKey != null) {
+			length += IV_LENGTH;
+		}
+		return (length * 4 + 2) / 3 + 1 + 43;
+	}
+
+	/**
+	 * Derives a key from the secret.
+	 * @param secret the secret
+	 * @param purpose what the key is used for
+	 * @return the key
+	 */
+	private static byte[] derive(byte[] secret, String purpose) {
+		return newInstance(() -> {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(secret, MAC_ALGORITHM));
+			return mac.doFinal(purpose.getBytes(StandardCharsets.US_ASCII));
+		});
+	}
+
+	/**
+	 * Creates an instance of a security algorithm, which every Java
+	 * platform is required to provide.
+	 * @param factory creates the instance
+	 * @param <T> type of the instance
+	 * @return the instance
+	 */
+	private static <T> T newInstance(SecurityFactory<T> factory) {
+		try {
+			return factory.create();
+		} catch (GeneralSecurityException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Creates an instance of a security algorithm.
+	 * @author 0036502252
+	 *
+	 * @param <T> type of the instance
+	 */
+	private interface SecurityFactory<T> {
+		/**
+		 * @return the instance
+		 * @throws GeneralSecurityException if the algorithm is not available
+		 */
+		T create() throws GeneralSecurityException;
+	}
+}
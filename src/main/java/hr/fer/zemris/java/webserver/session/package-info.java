@@ -0,0 +1,9 @@
+/**
+ * Contains the server's session stores, which keep the persistent 
+ * parameters of user sessions, identified by the <code>sid</code> cookie.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.session;
@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.webserver.workers;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.IStatelessWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -8,7 +8,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * @author 0036502252
  *
  */
-public class BGColorWorker implements IWebWorker {
+public class BGColorWorker implements IStatelessWorker {
 
 	@Override
 	public void processRequest(RequestContext context) throws Exception {
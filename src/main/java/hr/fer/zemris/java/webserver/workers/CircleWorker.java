@@ -8,7 +8,7 @@ import java.io.IOException;
 
 import javax.imageio.ImageIO;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.IStatelessWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -16,7 +16,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * @author 0036502252
  *
  */
-public class CircleWorker implements IWebWorker {
+public class CircleWorker implements IStatelessWorker {
 	/**
 	 * Width of the bounding rectangle.
 	 */
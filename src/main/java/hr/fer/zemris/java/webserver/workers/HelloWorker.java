@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.IStatelessWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -13,7 +13,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * @author 0036502252
  *
  */
-public class HelloWorker implements IWebWorker {
+public class HelloWorker implements IStatelessWorker {
 
 	@Override
 	public void processRequest(RequestContext context) throws Exception {
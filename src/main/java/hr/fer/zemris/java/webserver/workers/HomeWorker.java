@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.webserver.workers;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.IStatelessWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 import java.nio.file.Files;
@@ -14,7 +14,7 @@ import java.nio.file.Paths;
  * @author 0036502252
  *
  */
-public class HomeWorker implements IWebWorker {
+public class HomeWorker implements IStatelessWorker {
 
 	@Override
 	public void processRequest(RequestContext context) throws Exception {
@@ -1,6 +1,6 @@
 package hr.fer.zemris.java.webserver.workers;
 
-import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.IStatelessWorker;
 import hr.fer.zemris.java.webserver.RequestContext;
 
 /**
@@ -8,7 +8,7 @@ import hr.fer.zemris.java.webserver.RequestContext;
  * @author 0036502252
  *
  */
-public class SumWorker implements IWebWorker {
+public class SumWorker implements IStatelessWorker {
 	/**
 	 * Default value of the first parameter: used in case the user's value
 	 * cannot be interpreted as an integer.
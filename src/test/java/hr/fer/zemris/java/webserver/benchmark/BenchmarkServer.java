@@ -0,0 +1,133 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+
+/**
+ * Starts a {@link SmartHttpServer} for a benchmark. The configuration is
+ * written to a temporary directory, based on the project's
+ * <code>config</code> and <code>webroot</code> directories, with the given
+ * properties overridden. Benchmarks are expected to be run from the
+ * project's root directory.
+ * @author 0036502252
+ *
+ */
+public class BenchmarkServer implements AutoCloseable {
+	/**
+	 * The running server.
+	 */
+	private SmartHttpServer server;
+	/**
+	 * The port on which the server listens.
+	 */
+	private int port;
+
+	/**
+	 * Constructs and starts a new {@link BenchmarkServer}.
+	 * @param port the port on which the server listens
+	 * @param documentRoot the server's document root
+	 * @param workers additional url to worker class mappings
+	 * @param overrides properties which override the default configuration
+	 * @throws IOException if the configuration cannot be written
+	 */
+	public BenchmarkServer(int port, Path documentRoot,
+			Map<String, String> workers, Map<String, String> overrides)
+			throws IOException {
+		this.port = port;
+		Path configDir = Files.createTempDirectory("smarthttp-bench");
+
+		Path workersFile = configDir.resolve("workers.properties");
+		Files.copy(Paths.get("config/workers.properties"), workersFile);
+		try(Writer writer = Files.newBufferedWriter(workersFile,
+				StandardOpenOption.APPEND)) {
+			writer.write("\n");
+			for(Map.Entry<String, String> entry : workers.entrySet()) {
+				writer.write(entry.getKey() + " = " + entry.getValue() + "\n");
+			}
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty("server.address", "127.0.0.1");
+		properties.setProperty("server.domainName", "localhost");
+		properties.setProperty("server.port", String.valueOf(port));
+		properties.setProperty("server.workerThreads", "10");
+		properties.setProperty(
+				"server.documentRoot", documentRoot.toAbsolutePath().toString()
+		);
+		properties.setProperty(
+				"server.mimeConfig",
+				Paths.get("config/mime.properties").toAbsolutePath().toString()
+		);
+		properties.setProperty("session.timeout", "600");
+		properties.setProperty(
+				"server.workers", workersFile.toAbsolutePath().toString()
+		);
+		properties.putAll(overrides);
+
+		Path configFile = configDir.resolve("server.properties");
+		try(Writer writer = Files.newBufferedWriter(configFile)) {
+			properties.store(writer, "Benchmark configuration");
+		}
+
+		server = new SmartHttpServer(configFile.toString());
+		server.start();
+		waitUntilListening();
+	}
+
+	/**
+	 * Constructs and starts a new {@link BenchmarkServer} which serves the
+	 * project's <code>webroot</code> directory.
+	 * @param port the port on which the server listens
+	 * @param overrides properties which override the default configuration
+	 * @throws IOException if the configuration cannot be written
+	 */
+	public BenchmarkServer(int port, Map<String, String> overrides)
+			throws IOException {
+		this(port, Paths.get("webroot"), new LinkedHashMap<>(), overrides);
+	}
+
+	/**
+	 * Waits until the server accepts connections.
+	 * @throws IOException if the server does not start in time
+	 */
+	private void waitUntilListening() throws IOException {
+		for(int i = 0; i < 100; i++) {
+			try {
+				new Socket("127.0.0.1", port).close();
+				return;
+			} catch (IOException notYet) {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+		throw new IOException("Server did not start on port " + port);
+	}
+
+	/**
+	 * @return the port on which the server listens
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Stops the server.
+	 */
+	@Override
+	public void close() {
+		server.stop();
+	}
+}
@@ -0,0 +1,24 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import hr.fer.zemris.java.webserver.IWebWorker;
+import hr.fer.zemris.java.webserver.RequestContext;
+
+/**
+ * A worker which simulates a blocking call, for example to a database or
+ * another service, before writing a short response.
+ * @author 0036502252
+ *
+ */
+public class BlockingWorker implements IWebWorker {
+	/**
+	 * Duration of the simulated blocking call, in milliseconds.
+	 */
+	public static final int BLOCKING_MILLIS = 20;
+
+	@Override
+	public void processRequest(RequestContext context) throws Exception {
+		Thread.sleep(BLOCKING_MILLIS);
+		context.setMimeType("text/plain");
+		context.write("done");
+	}
+}
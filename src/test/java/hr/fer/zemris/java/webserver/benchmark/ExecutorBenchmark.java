@@ -0,0 +1,68 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import hr.fer.zemris.java.webserver.concurrent.VirtualThreadExecutor;
+
+/**
+ * Compares the fixed thread pool with virtual threads
+ * (<code>server.executor</code>). Every connection requests a worker which
+ * blocks for {@value BlockingWorker#BLOCKING_MILLIS} ms, at 1k and 10k
+ * concurrent connections. Virtual threads are only measured when the
+ * program runs on Java 21 or newer; build with <code>-Pjava21</code>.
+ * <p>
+ * Usage: <code>ExecutorBenchmark [connections...]</code>, run from the
+ * project's root directory.
+ * @author 0036502252
+ *
+ */
+public class ExecutorBenchmark {
+	/**
+	 * First port used by the benchmark servers.
+	 */
+	private static final int BASE_PORT = 5790;
+
+	/**
+	 * Main method.
+	 * @param args numbers of concurrent connections, 1000 and 10000 if
+	 * not given
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int[] connections = args.length == 0 ?
+				new int[] {1000, 10000} :
+				new int[args.length];
+		for(int i = 0; i < args.length; i++) {
+			connections[i] = Integer.parseInt(args[i]);
+		}
+
+		String[] executors = VirtualThreadExecutor.isSupported() ?
+				new String[] {"fixed", "virtual"} :
+				new String[] {"fixed"};
+		if(executors.length == 1) {
+			System.out.println("Virtual threads need Java 21, measuring only the fixed pool.");
+		}
+
+		int port = BASE_PORT;
+		for(String executor : executors) {
+			Map<String, String> overrides = new HashMap<>();
+			overrides.put("server.executor", executor);
+			Map<String, String> workers = new HashMap<>();
+			workers.put("/blocking", BlockingWorker.class.getName());
+
+			try(BenchmarkServer server = new BenchmarkServer(
+					port++, Paths.get("webroot"), workers, overrides)) {
+				LoadGenerator generator = new LoadGenerator(server.getPort());
+				//warm up
+				generator.run("/blocking", 200);
+
+				for(int count : connections) {
+					LoadGenerator.Result result = generator.run("/blocking", count);
+					System.out.printf("%-8s %6d conns: %s%n", executor, count, result);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the throughput of static file transfers with and without
+ * zero-copy (<code>server.zeroCopy</code>), for both I/O models, on a 1 MB
+ * and a 100 MB file.
+ * <p>
+ * Usage: <code>FileTransferBenchmark [rounds]</code>, run from the
+ * project's root directory.
+ * @author 0036502252
+ *
+ */
+public class FileTransferBenchmark {
+	/**
+	 * First port used by the benchmark servers.
+	 */
+	private static final int BASE_PORT = 5770;
+	/**
+	 * One megabyte.
+	 */
+	private static final int ONE_MB = 1024 * 1024;
+	/**
+	 * Concurrent downloads of the 1 MB file.
+	 */
+	private static final int SMALL_CONNECTIONS = 100;
+	/**
+	 * Concurrent downloads of the 100 MB file.
+	 */
+	private static final int LARGE_CONNECTIONS = 4;
+
+	/**
+	 * Main method.
+	 * @param args number of measured rounds, 3 if not given
+	 * @throws Exception if the benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length == 0 ? 3 : Integer.parseInt(args[0]);
+
+		Path root = Files.createTempDirectory("smarthttp-files");
+		createFile(root.resolve("1mb.bin"), 1);
+		createFile(root.resolve("100mb.bin"), 100);
+
+		int port = BASE_PORT;
+		for(String ioModel : new String[] {"blocking", "nio"}) {
+			for(String zeroCopy : new String[] {"false", "true"}) {
+				Map<String, String> overrides = new HashMap<>();
+				overrides.put("server.ioModel", ioModel);
+				overrides.put("server.zeroCopy", zeroCopy);
+
+				try(BenchmarkServer server = new BenchmarkServer(
+						port++, root, new HashMap<>(), overrides)) {
+					LoadGenerator generator = new LoadGenerator(server.getPort());
+					//warm up
+					generator.run("/1mb.bin", SMALL_CONNECTIONS);
+
+					for(int i = 0; i < rounds; i++) {
+						String name = ioModel + (zeroCopy.equals("true") ?
+								" zero-copy" : " stream   ");
+						System.out.printf("%-19s   1 MB x %3d: %s%n", name,
+								SMALL_CONNECTIONS,
+								generator.run("/1mb.bin", SMALL_CONNECTIONS));
+						System.out.printf("%-19s 100 MB x %3d: %s%n", name,
+								LARGE_CONNECTIONS,
+								generator.run("/100mb.bin", LARGE_CONNECTIONS));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a file filled with random bytes.
+	 * @param path the file's path
+	 * @param megabytes the file's size, in megabytes
+	 * @throws IOException if the file cannot be written
+	 */
+	private static void createFile(Path path, int megabytes) throws IOException {
+		byte[] block = new byte[ONE_MB];
+		new Random(42).nextBytes(block);
+		try(OutputStream os = Files.newOutputStream(path)) {
+			for(int i = 0; i < megabytes; i++) {
+				os.write(block);
+			}
+		}
+	}
+}
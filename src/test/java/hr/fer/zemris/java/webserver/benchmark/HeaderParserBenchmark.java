@@ -0,0 +1,347 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.java.webserver.http.RequestHeader;
+import hr.fer.zemris.java.webserver.http.RequestReader;
+
+/**
+ * Compares reading and parsing request headers with {@link RequestReader}
+ * against the previous approach: reading the header byte by byte, decoding
+ * it to a string, splitting it into lines and splitting the request line
+ * and the target with regular expressions. Both parse the same pipelined
+ * stream of realistic browser requests and look up the fields which the
+ * server reads for every request.
+ * <p>
+ * Besides the time per request, the number of <code>read</code> calls per
+ * request is reported, since each of them is a system call when reading
+ * from a socket.
+ * <p>
+ * Usage: <code>HeaderParserBenchmark [rounds]</code>.
+ * @author 0036502252
+ *
+ */
+public class HeaderParserBenchmark {
+	/**
+	 * Requests parsed in every round.
+	 */
+	private static final int REQUESTS = 100_000;
+	/**
+	 * Maximum size of a request header.
+	 */
+	private static final int MAX_HEADER_SIZE = 65536;
+	/**
+	 * Realistic browser requests, parsed in turn.
+	 */
+	private static final String[] REQUESTS_SENT = {
+			"GET /scripts/brojPoziva.smscr?name=Ivan&lang=hr HTTP/1.1\r\n"
+			+ "Host: www.localhost.com:5721\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "Cache-Control: max-age=0\r\n"
+			+ "sec-ch-ua: \"Chromium\";v=\"124\", \"Google Chrome\";v=\"124\", \"Not-A.Brand\";v=\"99\"\r\n"
+			+ "sec-ch-ua-mobile: ?0\r\n"
+			+ "sec-ch-ua-platform: \"Linux\"\r\n"
+			+ "Upgrade-Insecure-Requests: 1\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0.0.0 Safari/537.36\r\n"
+			+ "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n"
+			+ "Sec-Fetch-Site: same-origin\r\n"
+			+ "Sec-Fetch-Mode: navigate\r\n"
+			+ "Sec-Fetch-User: ?1\r\n"
+			+ "Sec-Fetch-Dest: document\r\n"
+			+ "Referer: http://www.localhost.com:5721/index2.html\r\n"
+			+ "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+			+ "Accept-Language: hr-HR,hr;q=0.9,en-US;q=0.8,en;q=0.7\r\n"
+			+ "Cookie: _ga=GA1.1.1234567890.1700000000; theme=dark; sid=\"QWERTYUIOPASDFGHJKLZ\"\r\n"
+			+ "\r\n",
+			"GET /fruits.png HTTP/1.1\r\n"
+			+ "Host: www.localhost.com:5721\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:125.0) Gecko/20100101 Firefox/125.0\r\n"
+			+ "Accept: image/avif,image/webp,*/*\r\n"
+			+ "Accept-Language: en-US,en;q=0.5\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Referer: http://www.localhost.com:5721/index.html\r\n"
+			+ "Cookie: sid=\"QWERTYUIOPASDFGHJKLZ\"\r\n"
+			+ "If-Modified-Since: Mon, 01 Jan 2024 10:00:00 GMT\r\n"
+			+ "If-None-Match: \"5f3a-18c2e8f1a40\"\r\n"
+			+ "Sec-Fetch-Dest: image\r\n"
+			+ "Sec-Fetch-Mode: no-cors\r\n"
+			+ "Sec-Fetch-Site: same-origin\r\n"
+			+ "\r\n"
+	};
+
+	/**
+	 * Main method.
+	 * @param args number of measured rounds, 5 if not given
+	 * @throws IOException if reading fails
+	 */
+	public static void main(String[] args) throws IOException {
+		int rounds = args.length == 0 ? 5 : Integer.parseInt(args[0]);
+		byte[] stream = pipelinedStream();
+
+		//warm up
+		for(int i = 0; i < 3; i++) {
+			runLegacy(stream, false);
+			runLegacy(stream, true);
+			runReader(stream);
+		}
+
+		for(int i = 0; i < rounds; i++) {
+			report("per-byte, unbuffered", runLegacy(stream, false));
+			report("per-byte, buffered  ", runLegacy(stream, true));
+			report("RequestReader       ", runReader(stream));
+		}
+	}
+
+	/**
+	 * @return all requests of a round, one after another
+	 */
+	private static byte[] pipelinedStream() {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for(int i = 0; i < REQUESTS; i++) {
+			byte[] request = REQUESTS_SENT[i % REQUESTS_SENT.length]
+					.getBytes(StandardCharsets.US_ASCII);
+			bos.write(request, 0, request.length);
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Prints the result of a round.
+	 * @param name the approach's name
+	 * @param result the result
+	 */
+	private static void report(String name, Result result) {
+		System.out.printf("%s %7.1f ns/request %8.2f reads/request%n",
+				name, (double) result.nanos / REQUESTS,
+				(double) result.reads / REQUESTS);
+	}
+
+	/**
+	 * Parses the stream the way the server did before {@link RequestReader}.
+	 * @param stream the requests
+	 * @param buffered true to read through a {@link BufferedInputStream},
+	 * false to read through a {@link PushbackInputStream} directly
+	 * @return the result
+	 * @throws IOException if reading fails
+	 */
+	private static Result runLegacy(byte[] stream, boolean buffered)
+			throws IOException {
+		CountingInputStream counter = new CountingInputStream(
+				new ByteArrayInputStream(stream)
+		);
+		InputStream is = buffered ? new BufferedInputStream(counter)
+				: new PushbackInputStream(counter);
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < REQUESTS; i++) {
+			byte[] bytes = legacyReadHeader(is);
+			List<String> request = legacySplitLines(
+					new String(bytes, StandardCharsets.US_ASCII)
+			);
+			String[] firstLine = request.get(0).split("\\s+");
+			String[] target = firstLine[1].split("\\?", 2);
+			checksum += firstLine[0].length() + target[0].length()
+					+ firstLine[2].length();
+			checksum += length(legacyFind(request, "host:"));
+			checksum += length(legacyFind(request, "connection:"));
+			checksum += length(legacyFind(request, "cookie:"));
+			checksum += length(legacyFind(request, "accept-encoding:"));
+		}
+		return new Result(System.nanoTime() - start, counter.reads, checksum);
+	}
+
+	/**
+	 * Parses the stream using {@link RequestReader}.
+	 * @param stream the requests
+	 * @return the result
+	 * @throws IOException if reading fails
+	 */
+	private static Result runReader(byte[] stream) throws IOException {
+		CountingInputStream counter = new CountingInputStream(
+				new ByteArrayInputStream(stream)
+		);
+		RequestReader reader = new RequestReader(counter, MAX_HEADER_SIZE);
+
+		long checksum = 0;
+		long start = System.nanoTime();
+		for(int i = 0; i < REQUESTS; i++) {
+			RequestHeader header = reader.read();
+			String target = header.getTarget();
+			int query = target.indexOf('?');
+			checksum += header.getMethod().length()
+					+ (query == -1 ? target.length() : query)
+					+ header.getVersion().length();
+			checksum += length(header.getHeader("Host"));
+			checksum += length(header.getHeader("Connection"));
+			checksum += length(header.getHeader("Cookie"));
+			checksum += length(header.getHeader("Accept-Encoding"));
+		}
+		return new Result(System.nanoTime() - start, counter.reads, checksum);
+	}
+
+	/**
+	 * @param s a string, or <code>null</code>
+	 * @return the string's length, or zero
+	 */
+	private static int length(String s) {
+		return s == null ? 0 : s.length();
+	}
+
+	/**
+	 * Reads a header byte by byte, leaving out carriage returns, as the
+	 * server's former <code>getBytesFromRequest</code> did.
+	 * @param is the stream
+	 * @return the header
+	 * @throws IOException if reading fails
+	 */
+	private static byte[] legacyReadHeader(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		int state = 0;
+l:		while(true) {
+			int b = is.read();
+			if(b == -1) return null;
+			if(b != 13) {
+				bos.write(b);
+			}
+			switch(state) {
+			case 0:
+				if(b == 13) { state = 1; } else if(b == 10) state = 4;
+				break;
+			case 1:
+				if(b == 10) { state = 2; } else state = 0;
+				break;
+			case 2:
+				if(b == 13) { state = 3; } else state = 0;
+				break;
+			case 3:
+				if(b == 10) { break l; } else state = 0;
+				break;
+			case 4:
+				if(b == 10) { break l; } else state = 0;
+				break;
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Splits a header into lines, joining folded lines, as the server's
+	 * former <code>readRequest</code> did.
+	 * @param requestString the header
+	 * @return the lines
+	 */
+	private static List<String> legacySplitLines(String requestString) {
+		List<String> lines = new ArrayList<>();
+		String current = null;
+		for(String str : requestString.split("\n")) {
+			if(str.isEmpty()) break;
+			char c = str.charAt(0);
+			if(c == 9 || c == 32) {
+				current += str;
+			} else {
+				if(current != null) {
+					lines.add(current);
+				}
+				current = str;
+			}
+		}
+		if(current != null && !current.isEmpty()) {
+			lines.add(current);
+		}
+		return lines;
+	}
+
+	/**
+	 * Finds a field the way the server's former lookups did.
+	 * @param request the header's lines
+	 * @param prefix the field's name and colon, in lowercase
+	 * @return the field's value, or <code>null</code>
+	 */
+	private static String legacyFind(List<String> request, String prefix) {
+		for(String line : request) {
+			line = line.trim();
+			if(line.toLowerCase().startsWith(prefix)) {
+				return line.substring(prefix.length()).trim();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Counts the calls to the underlying stream's <code>read</code>
+	 * methods.
+	 * @author 0036502252
+	 *
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		/**
+		 * Number of read calls.
+		 */
+		private long reads;
+
+		/**
+		 * Constructs a new {@link CountingInputStream}.
+		 * @param in the underlying stream
+		 */
+		public CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			reads++;
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			reads++;
+			return in.read(b, off, len);
+		}
+	}
+
+	/**
+	 * The result of a round.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Result {
+		/**
+		 * Time taken, in nanoseconds.
+		 */
+		private final long nanos;
+		/**
+		 * Number of read calls.
+		 */
+		private final long reads;
+		/**
+		 * Sum of the parsed lengths, which keeps the parsing from being
+		 * optimized away.
+		 */
+		@SuppressWarnings("unused")
+		private final long checksum;
+
+		/**
+		 * Constructs a new {@link Result}.
+		 * @param nanos time taken, in nanoseconds
+		 * @param reads number of read calls
+		 * @param checksum sum of the parsed lengths
+		 */
+		public Result(long nanos, long reads, long checksum) {
+			this.nanos = nanos;
+			this.reads = reads;
+			this.checksum = checksum;
+		}
+	}
+}
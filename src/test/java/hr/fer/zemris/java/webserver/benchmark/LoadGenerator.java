@@ -0,0 +1,212 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A load generator which opens many concurrent connections from a single
+ * thread, using non-blocking channels. Every connection sends one request
+ * with <code>Connection: close</code> and reads the response until the
+ * server closes the connection.
+ * @author 0036502252
+ *
+ */
+public class LoadGenerator {
+	/**
+	 * Size of the buffer into which responses are read.
+	 */
+	private static final int READ_BUFFER = 64 * 1024;
+
+	/**
+	 * The server's port.
+	 */
+	private int port;
+
+	/**
+	 * Constructs a new {@link LoadGenerator}.
+	 * @param port the port of a server on the local host
+	 */
+	public LoadGenerator(int port) {
+		this.port = port;
+	}
+
+	/**
+	 * Opens <code>connections</code> connections at once, each of which
+	 * requests the given path.
+	 * @param path the requested path
+	 * @param connections the number of concurrent connections
+	 * @return the measured results
+	 * @throws IOException if an I/O error occurs
+	 */
+	public Result run(String path, int connections) throws IOException {
+		byte[] request = ("GET " + path + " HTTP/1.1\r\n"
+				+ "Host: localhost\r\n"
+				+ "Connection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+		ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER);
+		long[] latencies = new long[connections];
+		long totalBytes = 0;
+		int completed = 0;
+		int failed = 0;
+
+		long start = System.nanoTime();
+		try(Selector selector = Selector.open()) {
+			for(int i = 0; i < connections; i++) {
+				SocketChannel channel = SocketChannel.open();
+				channel.configureBlocking(false);
+				channel.connect(new InetSocketAddress("127.0.0.1", port));
+				Connection connection = new Connection(
+						ByteBuffer.wrap(request), System.nanoTime()
+				);
+				channel.register(selector, SelectionKey.OP_CONNECT, connection);
+			}
+
+			while(completed + failed < connections) {
+				selector.select();
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while(it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					SocketChannel channel = (SocketChannel) key.channel();
+					Connection connection = (Connection) key.attachment();
+
+					try {
+						if(key.isConnectable()) {
+							channel.finishConnect();
+							key.interestOps(SelectionKey.OP_WRITE);
+						} else if(key.isWritable()) {
+							channel.write(connection.request);
+							if(!connection.request.hasRemaining()) {
+								key.interestOps(SelectionKey.OP_READ);
+							}
+						} else if(key.isReadable()) {
+							readBuffer.clear();
+							int r = channel.read(readBuffer);
+							if(r > 0) {
+								totalBytes += r;
+								continue;
+							}
+							latencies[completed++] =
+									System.nanoTime() - connection.start;
+							channel.close();
+						}
+					} catch (IOException ex) {
+						failed++;
+						channel.close();
+					}
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - start;
+
+		return new Result(
+				Arrays.copyOf(latencies, completed), failed, totalBytes, elapsed
+		);
+	}
+
+	/**
+	 * State of a single client connection.
+	 * @author 0036502252
+	 *
+	 */
+	private static class Connection {
+		/**
+		 * The request bytes which remain to be sent.
+		 */
+		private ByteBuffer request;
+		/**
+		 * Time at which the connection was opened, in nanoseconds.
+		 */
+		private long start;
+
+		/**
+		 * Constructs a new {@link Connection}.
+		 * @param request the request bytes
+		 * @param start time at which the connection was opened
+		 */
+		public Connection(ByteBuffer request, long start) {
+			this.request = request;
+			this.start = start;
+		}
+	}
+
+	/**
+	 * Results of a single load generator run.
+	 * @author 0036502252
+	 *
+	 */
+	public static class Result {
+		/**
+		 * Latencies of completed requests, in nanoseconds, sorted.
+		 */
+		private long[] latencies;
+		/**
+		 * Number of failed requests.
+		 */
+		private int failed;
+		/**
+		 * Total number of bytes received.
+		 */
+		private long bytes;
+		/**
+		 * Duration of the whole run, in nanoseconds.
+		 */
+		private long elapsed;
+
+		/**
+		 * Constructs a new {@link Result}.
+		 * @param latencies latencies of completed requests
+		 * @param failed number of failed requests
+		 * @param bytes total number of bytes received
+		 * @param elapsed duration of the whole run
+		 */
+		public Result(long[] latencies, int failed, long bytes, long elapsed) {
+			this.latencies = latencies;
+			this.failed = failed;
+			this.bytes = bytes;
+			this.elapsed = elapsed;
+			Arrays.sort(latencies);
+		}
+
+		/**
+		 * @param percentile the percentile, between 0 and 100
+		 * @return the latency at the given percentile, in milliseconds
+		 */
+		public double latencyMillis(double percentile) {
+			if(latencies.length == 0) return Double.NaN;
+			int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+			return latencies[Math.max(0, index)] / 1e6;
+		}
+
+		/**
+		 * @return completed requests per second
+		 */
+		public double requestsPerSecond() {
+			return latencies.length / (elapsed / 1e9);
+		}
+
+		/**
+		 * @return received megabytes per second
+		 */
+		public double megabytesPerSecond() {
+			return bytes / (1024.0 * 1024.0) / (elapsed / 1e9);
+		}
+
+		@Override
+		public String toString() {
+			return String.format(
+					"%6d ok %5d failed  %9.1f req/s  %8.1f MB/s  "
+					+ "p50 %8.2f ms  p99 %8.2f ms  max %8.2f ms",
+					latencies.length, failed, requestsPerSecond(),
+					megabytesPerSecond(), latencyMillis(50),
+					latencyMillis(99), latencyMillis(100)
+			);
+		}
+	}
+}
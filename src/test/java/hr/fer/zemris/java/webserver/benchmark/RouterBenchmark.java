@@ -0,0 +1,206 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import hr.fer.zemris.java.webserver.routing.Router;
+
+/**
+ * Measures how routing scales with the number of threads, for the
+ * {@link Router} and for the previous approach: a check for
+ * <code>/ext/</code> followed by a {@link HashMap} lookup behind one
+ * global lock, which only supports exact paths.
+ * <p>
+ * The router gets {@value #ROUTES} routes: mostly exact paths, and a
+ * tenth each of prefixes and of patterns with a wildcard segment. Every
+ * thread routes random paths which match the routes, and one path in ten
+ * which matches none of them and is served as a static file. Like the
+ * paths of requests, every routed path is a new string whose hash code is
+ * not cached yet.
+ * <p>
+ * Usage: <code>RouterBenchmark [milliseconds per measurement]</code>.
+ * @author 0036502252
+ *
+ */
+public class RouterBenchmark {
+	/**
+	 * Number of routes.
+	 */
+	private static final int ROUTES = 10_000;
+	/**
+	 * Number of distinct paths which are routed.
+	 */
+	private static final int PATHS = 100_000;
+	/**
+	 * Thread counts which are measured.
+	 */
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+	/**
+	 * Main method.
+	 * @param args duration of a measurement in milliseconds, 1000 if not
+	 * given
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long millis = args.length == 0 ? 1000 : Long.parseLong(args[0]);
+
+		Map<String, String> routes = new LinkedHashMap<>();
+		routes.put("/ext/*", "ext");
+		for(int i = 0; routes.size() < ROUTES; i++) {
+			switch(i % 10) {
+			case 0:
+				routes.put("/static" + i + "/*", "prefix" + i);
+				break;
+			case 1:
+				routes.put("/api/v" + i + "/*/detail", "wildcard" + i);
+				break;
+			default:
+				routes.put("/section" + i % 100 + "/page" + i, "exact" + i);
+			}
+		}
+		String[] paths = paths(routes);
+
+		long begin = System.nanoTime();
+		Router<String> router = new Router<>(routes);
+		System.out.printf("Compiled %d routes in %.1f ms.%n",
+				router.size(), (System.nanoTime() - begin) / 1e6);
+		LockedRouter locked = new LockedRouter(routes);
+
+		//warm up
+		measure(locked::route, paths, 4, millis);
+		measure(router::route, paths, 4, millis);
+
+		System.out.printf("%7s %14s %14s%n", "threads", "locked", "router");
+		for(int threads : THREADS) {
+			double lockedOps = measure(locked::route, paths, threads, millis);
+			double routerOps = measure(router::route, paths, threads, millis);
+			System.out.printf("%7d %9.2f Mops %9.2f Mops%n",
+					threads, lockedOps, routerOps);
+		}
+	}
+
+	/**
+	 * Generates the paths which are routed.
+	 * @param routes the routes
+	 * @return the paths
+	 */
+	private static String[] paths(Map<String, String> routes) {
+		String[] patterns = routes.keySet().toArray(new String[0]);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		String[] paths = new String[PATHS];
+		for(int i = 0; i < PATHS; i++) {
+			if(random.nextInt(10) == 0) {
+				paths[i] = "/images/photo" + i + ".jpg";
+				continue;
+			}
+			String pattern = patterns[random.nextInt(patterns.length)];
+			paths[i] = pattern.endsWith("/*") 
+					? pattern.substring(0, pattern.length() - 1) + "file" + i
+					: pattern.replace("*", "item" + i);
+		}
+		return paths;
+	}
+
+	/**
+	 * Measures the throughput of routing.
+	 * @param router routes a path, returning <code>null</code> for static
+	 * files
+	 * @param paths the paths which are routed
+	 * @param threads number of threads routing
+	 * @param millis duration of the measurement, in milliseconds
+	 * @return millions of operations per second
+	 * @throws InterruptedException if interrupted
+	 */
+	private static double measure(Function<String, Object> router,
+			String[] paths, int threads, long millis) throws InterruptedException {
+		LongAdder operations = new LongAdder();
+		LongAdder matched = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				long count = 0;
+				long found = 0;
+				while((count & 0xFF) != 0 || System.nanoTime() < deadline[0]) {
+					String path = new String(paths[random.nextInt(paths.length)]);
+					if(router.apply(path) != null) {
+						found++;
+					}
+					count++;
+				}
+				operations.add(count);
+				matched.add(found);
+			});
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		if(matched.sum() == 0) {
+			System.out.println("No path was routed.");
+		}
+		return operations.sum() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * The server's former routing: paths containing <code>/ext/</code>
+	 * go to the /ext/ workers, and the others are looked up in a
+	 * {@link HashMap} which is only used while holding one lock.
+	 * @author 0036502252
+	 *
+	 */
+	private static class LockedRouter {
+		/**
+		 * Targets, by their exact paths.
+		 */
+		private Map<String, String> workers;
+		/**
+		 * Guards the targets.
+		 */
+		private Lock lock = new ReentrantLock();
+
+		/**
+		 * Constructs a new {@link LockedRouter}.
+		 * @param routes the routes
+		 */
+		public LockedRouter(Map<String, String> routes) {
+			this.workers = new HashMap<>(routes);
+		}
+
+		/**
+		 * @param path the path
+		 * @return the path's target, or <code>null</code> for static files
+		 */
+		public String route(String path) {
+			if(path.contains("/ext/")) {
+				return "ext";
+			}
+			lock.lock();
+			try {
+				return workers.get(path);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
@@ -0,0 +1,246 @@
+package hr.fer.zemris.java.webserver.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import hr.fer.zemris.java.webserver.SmartHttpServer;
+import hr.fer.zemris.java.webserver.session.ConcurrentSessionStore;
+import hr.fer.zemris.java.webserver.session.ISessionStore;
+import hr.fer.zemris.java.webserver.session.SessionMapEntry;
+
+/**
+ * Measures how session lookups scale with the number of threads, for the
+ * default {@link ConcurrentSessionStore} and for the previous approach: a
+ * {@link HashMap} behind one global lock, with a shared {@link Random} for
+ * session IDs.
+ * <p>
+ * Every thread repeats what the server does for each request: it looks up
+ * a random existing session, checks its host and expiry and extends it.
+ * One operation in a hundred creates a new session instead, as a new
+ * visitor would.
+ * <p>
+ * Usage: <code>SessionStoreBenchmark [milliseconds per measurement]</code>.
+ * @author 0036502252
+ *
+ */
+public class SessionStoreBenchmark {
+	/**
+	 * Number of sessions in the store before a measurement.
+	 */
+	private static final int SESSIONS = 10_000;
+	/**
+	 * Host name of all sessions.
+	 */
+	private static final String HOST = "www.localhost.com";
+	/**
+	 * Session timeout, in seconds.
+	 */
+	private static final long TIMEOUT = 600;
+	/**
+	 * Thread counts which are measured.
+	 */
+	private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+
+	/**
+	 * Main method.
+	 * @param args duration of a measurement in milliseconds, 1000 if not
+	 * given
+	 * @throws InterruptedException if interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		long millis = args.length == 0 ? 1000 : Long.parseLong(args[0]);
+
+		//warm up
+		measure(new LockedSessionStore(), 4, millis);
+		measure(new ConcurrentSessionStore(), 4, millis);
+
+		System.out.printf("%7s %14s %14s%n", "threads", "locked", "concurrent");
+		for(int threads : THREADS) {
+			double locked = measure(new LockedSessionStore(), threads, millis);
+			double concurrent = measure(new ConcurrentSessionStore(), threads, millis);
+			System.out.printf("%7d %9.2f Mops %9.2f Mops%n",
+					threads, locked, concurrent);
+		}
+	}
+
+	/**
+	 * Measures the throughput of a store.
+	 * @param store the store, which is filled first
+	 * @param threads number of threads using the store
+	 * @param millis duration of the measurement, in milliseconds
+	 * @return millions of operations per second
+	 * @throws InterruptedException if interrupted
+	 */
+	private static double measure(ISessionStore store, int threads, long millis)
+			throws InterruptedException {
+		long validUntil = now() + TIMEOUT;
+		String[] sids = new String[SESSIONS];
+		for(int i = 0; i < SESSIONS; i++) {
+			sids[i] = store.create(HOST, validUntil).getSid();
+		}
+
+		LongAdder operations = new LongAdder();
+		CountDownLatch start = new CountDownLatch(1);
+		long[] deadline = new long[1];
+		Thread[] workers = new Thread[threads];
+		for(int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				try {
+					start.await();
+				} catch (InterruptedException ex) {
+					return;
+				}
+				long count = 0;
+				while((count & 0xFF) != 0 || System.nanoTime() < deadline[0]) {
+					if(random.nextInt(100) == 0) {
+						store.create(HOST, now() + TIMEOUT);
+					} else {
+						lookup(store, sids[random.nextInt(SESSIONS)]);
+					}
+					count++;
+				}
+				operations.add(count);
+			});
+			workers[t].start();
+		}
+
+		long begin = System.nanoTime();
+		deadline[0] = begin + millis * 1_000_000;
+		start.countDown();
+		for(Thread worker : workers) {
+			worker.join();
+		}
+		long elapsed = System.nanoTime() - begin;
+		return operations.sum() * 1000.0 / elapsed;
+	}
+
+	/**
+	 * Looks up a session the way the server does for every request.
+	 * @param store the store
+	 * @param sid the session's ID
+	 */
+	private static void lookup(ISessionStore store, String sid) {
+		SessionMapEntry entry = store.get(sid);
+		long now = now();
+		if(entry == null || !entry.getHost().equals(HOST)) return;
+		if(entry.isExpired(now)) {
+			store.remove(entry);
+		} else {
+			entry.touch(now + TIMEOUT);
+		}
+	}
+
+	/**
+	 * @return the current time, in seconds
+	 */
+	private static long now() {
+		return System.currentTimeMillis() / 1000;
+	}
+
+	/**
+	 * The server's former session store: a {@link HashMap} which is only
+	 * used while holding one lock, and a shared {@link Random}.
+	 * @author 0036502252
+	 *
+	 */
+	private static class LockedSessionStore implements ISessionStore {
+		/**
+		 * Sessions, by their IDs.
+		 */
+		private Map<String, SessionMapEntry> sessions = new HashMap<>();
+		/**
+		 * Guards the sessions.
+		 */
+		private Lock lock = new ReentrantLock();
+		/**
+		 * Generates session IDs.
+		 */
+		private Random random = new Random();
+
+		@Override
+		public SessionMapEntry get(String sid) {
+			lock.lock();
+			try {
+				return sessions.get(sid);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public SessionMapEntry create(String host, long validUntil) {
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < SmartHttpServer.SID_LENGTH; i++) {
+				sb.append((char) (random.nextInt('Z' - 'A' + 1) + 'A'));
+			}
+			SessionMapEntry entry = new SessionMapEntry(sb.toString(), host, validUntil);
+			lock.lock();
+			try {
+				sessions.put(entry.getSid(), entry);
+			} finally {
+				lock.unlock();
+			}
+			return entry;
+		}
+
+		@Override
+		public void add(SessionMapEntry entry) {
+			lock.lock();
+			try {
+				sessions.put(entry.getSid(), entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void remove(SessionMapEntry entry) {
+			lock.lock();
+			try {
+				sessions.remove(entry.getSid(), entry);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int removeExpired(long now) {
+			lock.lock();
+			try {
+				int size = sessions.size();
+				sessions.values().removeIf(entry -> entry.isExpired(now));
+				return size - sessions.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int size() {
+			lock.lock();
+			try {
+				return sessions.size();
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void forEach(Consumer<? super SessionMapEntry> action) {
+			lock.lock();
+			try {
+				sessions.values().forEach(action);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+}
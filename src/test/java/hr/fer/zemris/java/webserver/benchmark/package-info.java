@@ -0,0 +1,11 @@
+/**
+ * Contains benchmark programs which start the server locally and measure
+ * how its various configurations perform under load. The programs are
+ * kept with the tests, so they are not shipped with the server; run them
+ * with <code>target/test-classes</code> on the class path.
+ */
+/**
+ * @author 0036502252
+ *
+ */
+package hr.fer.zemris.java.webserver.benchmark;
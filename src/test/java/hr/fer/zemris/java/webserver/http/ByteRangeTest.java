@@ -0,0 +1,148 @@
+package hr.fer.zemris.java.webserver.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests parsing of <code>Range</code> header fields by {@link ByteRange}.
+ * @author 0036502252
+ *
+ */
+public class ByteRangeTest {
+
+	@Test
+	public void closedRange() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=0-499", 1000);
+		assertRanges(ranges, "0-499");
+		assertEquals(500, ranges.get(0).getLength());
+		assertEquals("bytes 0-499/1000", ranges.get(0).toContentRange(1000));
+	}
+
+	@Test
+	public void closedRangeIsShortenedToTheBody() {
+		assertRanges(ByteRange.parse("bytes=900-2000", 1000), "900-999");
+	}
+
+	@Test
+	public void openEndedRange() {
+		assertRanges(ByteRange.parse("bytes=200-", 1000), "200-999");
+	}
+
+	@Test
+	public void suffixRange() {
+		assertRanges(ByteRange.parse("bytes=-300", 1000), "700-999");
+	}
+
+	@Test
+	public void suffixLongerThanTheBody() {
+		assertRanges(ByteRange.parse("bytes=-5000", 1000), "0-999");
+	}
+
+	@Test
+	public void multipleRangesKeepTheirOrder() {
+		assertRanges(
+				ByteRange.parse("bytes= 500-599 , 0-99,-10", 1000),
+				"500-599", "0-99", "990-999"
+		);
+	}
+
+	@Test
+	public void unitIsCaseInsensitive() {
+		assertRanges(ByteRange.parse("Bytes=0-0", 10), "0-0");
+	}
+
+	@Test
+	public void rangeBeyondTheBodyIsUnsatisfiable() {
+		List<ByteRange> ranges = ByteRange.parse("bytes=1000-1100", 1000);
+		assertTrue(ranges.isEmpty());
+	}
+
+	@Test
+	public void zeroSuffixIsUnsatisfiable() {
+		assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+	}
+
+	@Test
+	public void anyRangeOfAnEmptyBodyIsUnsatisfiable() {
+		assertTrue(ByteRange.parse("bytes=0-,-10", 0).isEmpty());
+	}
+
+	@Test
+	public void unsatisfiableRangesAreLeftOut() {
+		assertRanges(ByteRange.parse("bytes=2000-,0-9", 1000), "0-9");
+	}
+
+	@Test
+	public void otherUnitIsIgnored() {
+		assertNull(ByteRange.parse("items=0-9", 1000));
+	}
+
+	@Test
+	public void rangeWithoutDashIsMalformed() {
+		assertNull(ByteRange.parse("bytes=100", 1000));
+	}
+
+	@Test
+	public void dashAloneIsMalformed() {
+		assertNull(ByteRange.parse("bytes=-", 1000));
+	}
+
+	@Test
+	public void reversedRangeIsMalformed() {
+		assertNull(ByteRange.parse("bytes=500-400", 1000));
+	}
+
+	@Test
+	public void negativeOrNonNumericPositionsAreMalformed() {
+		assertNull(ByteRange.parse("bytes=-5-10", 1000));
+		assertNull(ByteRange.parse("bytes=a-10", 1000));
+		assertNull(ByteRange.parse("bytes=0-+10", 1000));
+		assertNull(ByteRange.parse("bytes=0x10-20", 1000));
+	}
+
+	@Test
+	public void oneMalformedRangeIgnoresTheField() {
+		assertNull(ByteRange.parse("bytes=0-9,x", 1000));
+	}
+
+	@Test
+	public void fieldWithoutRangesIsMalformed() {
+		assertNull(ByteRange.parse("bytes=", 1000));
+		assertNull(ByteRange.parse("bytes= , ", 1000));
+	}
+
+	@Test
+	public void tooManyRangesAreIgnored() {
+		StringBuilder value = new StringBuilder("bytes=0-0");
+		for(int i = 1; i < ByteRange.MAX_RANGES; i++) {
+			value.append(',').append(i).append('-').append(i);
+		}
+		assertEquals(ByteRange.MAX_RANGES,
+				ByteRange.parse(value.toString(), 1000).size());
+
+		value.append(",100-100");
+		assertNull(ByteRange.parse(value.toString(), 1000));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void constructorRejectsReversedRange() {
+		new ByteRange(10, 9);
+	}
+
+	/**
+	 * Checks that the parsed ranges are the expected ones, in order.
+	 * @param ranges the parsed ranges
+	 * @param expected the expected ranges, as <code>first-last</code>
+	 */
+	private static void assertRanges(List<ByteRange> ranges, String... expected) {
+		assertEquals(expected.length, ranges.size());
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], ranges.get(i).toString());
+		}
+	}
+}
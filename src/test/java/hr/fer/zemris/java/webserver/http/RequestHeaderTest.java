@@ -0,0 +1,155 @@
+package hr.fer.zemris.java.webserver.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * Tests finding and parsing request headers with {@link RequestHeader}.
+ * @author 0036502252
+ *
+ */
+public class RequestHeaderTest {
+
+	@Test
+	public void findsEndAfterCRLF() {
+		byte[] data = bytes("GET / HTTP/1.1\r\nHost: a\r\n\r\nrest");
+		assertEquals(data.length - 4, RequestHeader.findEnd(data, 0, data.length));
+	}
+
+	@Test
+	public void findsEndAfterBareLF() {
+		byte[] data = bytes("GET / HTTP/1.1\nHost: a\n\nrest");
+		assertEquals(data.length - 4, RequestHeader.findEnd(data, 0, data.length));
+	}
+
+	@Test
+	public void incompleteHeaderHasNoEnd() {
+		byte[] data = bytes("GET / HTTP/1.1\r\nHost: a\r\n\r");
+		assertEquals(-1, RequestHeader.findEnd(data, 0, data.length));
+		assertEquals(-1, RequestHeader.findEnd(data, 0, 0));
+	}
+
+	@Test
+	public void findsEndSplitAcrossSearches() {
+		byte[] data = bytes("GET / HTTP/1.1\r\n\r\n");
+		//the buffer only held the first line feed at the first search
+		assertEquals(-1, RequestHeader.findEnd(data, 0, 16));
+		assertEquals(data.length, RequestHeader.findEnd(data, 14, data.length));
+	}
+
+	@Test
+	public void parsesRequestLineAndFields() {
+		RequestHeader header = parse(
+				"GET /index.html?a=1 HTTP/1.1\r\n"
+				+ "Host: localhost:5721\r\n"
+				+ "Cookie:  sid=ABC \r\n"
+				+ "\r\n"
+		);
+		assertTrue(header.isValid());
+		assertEquals("GET", header.getMethod());
+		assertEquals("/index.html?a=1", header.getTarget());
+		assertEquals("HTTP/1.1", header.getVersion());
+		assertEquals(2, header.getFieldCount());
+		assertEquals("Host", header.getFieldName(0));
+		assertEquals("localhost:5721", header.getFieldValue(0));
+		assertEquals("sid=ABC", header.getHeader("Cookie"));
+	}
+
+	@Test
+	public void namesAreMatchedWithoutRegardToCase() {
+		RequestHeader header = parse(
+				"GET / HTTP/1.1\r\nhOsT: a\r\nX-Custom: b\r\n\r\n"
+		);
+		assertEquals("a", header.getHeader("Host"));
+		assertEquals("b", header.getHeader("x-custom"));
+		assertTrue(header.isField(1, "X-CUSTOM"));
+		assertNull(header.getHeader("Accept"));
+	}
+
+	@Test
+	public void repeatedFieldsKeepTheirOrder() {
+		RequestHeader header = parse(
+				"GET / HTTP/1.1\r\nCookie: a=1\r\nHost: h\r\ncookie: b=2\r\n\r\n"
+		);
+		assertEquals("a=1", header.getHeader("Cookie"));
+		assertEquals(Arrays.asList("a=1", "b=2"), header.getHeaders("Cookie"));
+		assertEquals(Collections.emptyList(), header.getHeaders("Accept"));
+	}
+
+	@Test
+	public void foldedValueIsJoined() {
+		RequestHeader header = parse(
+				"GET / HTTP/1.1\r\nX-Long: first\r\n  second\r\nHost: h\r\n\r\n"
+		);
+		assertEquals("first  second", header.getHeader("X-Long"));
+		assertEquals("h", header.getHeader("Host"));
+	}
+
+	@Test
+	public void leadingEmptyLinesAreIgnored() {
+		RequestHeader header = parse("\r\n\r\nGET / HTTP/1.1\r\n\r\n");
+		assertTrue(header.isValid());
+		assertEquals("GET", header.getMethod());
+	}
+
+	@Test
+	public void linesWithoutColonAreSkipped() {
+		RequestHeader header = parse("GET / HTTP/1.1\r\nnonsense\r\nHost: h\r\n\r\n");
+		assertEquals(1, header.getFieldCount());
+		assertEquals("h", header.getHeader("Host"));
+	}
+
+	@Test
+	public void requestLineNeedsThreeParts() {
+		assertFalse(parse("GET /\r\n\r\n").isValid());
+		assertFalse(parse("GET / HTTP/1.1 extra\r\n\r\n").isValid());
+		assertNull(parse("GET /\r\n\r\n").getMethod());
+	}
+
+	@Test
+	public void invalidHeaderHasNoFields() {
+		RequestHeader header = RequestHeader.invalid();
+		assertFalse(header.isValid());
+		assertEquals(0, header.getFieldCount());
+		assertNull(header.getHeader("Host"));
+	}
+
+	@Test
+	public void parsedHeaderDoesNotReferToTheBuffer() {
+		byte[] data = bytes("xxGET / HTTP/1.1\r\nHost: h\r\n\r\n");
+		RequestHeader header = RequestHeader.parse(data, 2, data.length - 2);
+		Arrays.fill(data, (byte) 'z');
+		assertEquals("GET", header.getMethod());
+		assertEquals("h", header.getHeader("Host"));
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void fieldIndexIsChecked() {
+		parse("GET / HTTP/1.1\r\n\r\n").getFieldValue(0);
+	}
+
+	/**
+	 * @param header the header's text
+	 * @return the parsed header
+	 */
+	private static RequestHeader parse(String header) {
+		byte[] data = bytes(header);
+		return RequestHeader.parse(data, 0, data.length);
+	}
+
+	/**
+	 * @param text a text
+	 * @return the text's bytes
+	 */
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+}
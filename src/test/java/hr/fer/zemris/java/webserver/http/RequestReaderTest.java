@@ -0,0 +1,215 @@
+package hr.fer.zemris.java.webserver.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Tests reading request headers from a stream with {@link RequestReader},
+ * including headers which arrive in several reads.
+ * @author 0036502252
+ *
+ */
+public class RequestReaderTest {
+	/**
+	 * A complete request header.
+	 */
+	private static final String REQUEST = 
+			"GET /index.html HTTP/1.1\r\nHost: localhost\r\nCookie: sid=A\r\n\r\n";
+
+	@Test
+	public void readsHeaderInOneRead() throws IOException {
+		RequestReader reader = reader(REQUEST, Integer.MAX_VALUE, 1024);
+		assertRequest(reader.read(), "/index.html");
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void readsHeaderOneByteAtATime() throws IOException {
+		RequestReader reader = reader(REQUEST, 1, 1024);
+		assertRequest(reader.read(), "/index.html");
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void readsHeaderSplitAtEveryPosition() throws IOException {
+		for(int split = 1; split < REQUEST.length(); split++) {
+			RequestReader reader = reader(REQUEST, split, 1024);
+			assertRequest(reader.read(), "/index.html");
+			assertNull(reader.read());
+		}
+	}
+
+	@Test
+	public void readsPipelinedHeadersFromOneRead() throws IOException {
+		RequestReader reader = reader(
+				request("/a") + request("/b") + request("/c"), 
+				Integer.MAX_VALUE, 1024
+		);
+		assertRequest(reader.read(), "/a");
+		assertTrue(reader.available() > 0);
+		assertRequest(reader.read(), "/b");
+		assertRequest(reader.read(), "/c");
+		assertEquals(0, reader.available());
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void readsPipelinedHeadersSplitAcrossReads() throws IOException {
+		String requests = request("/a") + request("/b") + request("/c");
+		for(int split = 1; split < 40; split++) {
+			RequestReader reader = reader(requests, split, 1024);
+			assertRequest(reader.read(), "/a");
+			assertRequest(reader.read(), "/b");
+			assertRequest(reader.read(), "/c");
+			assertNull(reader.read());
+		}
+	}
+
+	@Test
+	public void keepsBufferedBytesWhileCompacting() throws IOException {
+		//small buffer, so the second header is moved to the buffer's front
+		String first = request("/" + repeat('a', 40));
+		String second = request("/" + repeat('b', 40));
+		RequestReader reader = reader(first + second, 7, 128);
+		assertRequest(reader.read(), "/" + repeat('a', 40));
+		assertRequest(reader.read(), "/" + repeat('b', 40));
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void growsBufferUpToTheMaximum() throws IOException {
+		String target = "/" + repeat('x', 20000);
+		RequestReader reader = reader(request(target), 4096, 32 * 1024);
+		assertRequest(reader.read(), target);
+	}
+
+	@Test
+	public void oversizedHeaderIsInvalid() throws IOException {
+		String target = "/" + repeat('x', 2000);
+		RequestReader reader = reader(request(target), 100, 1024);
+		RequestHeader header = reader.read();
+		assertFalse(header.isValid());
+	}
+
+	@Test
+	public void headerOfExactlyTheMaximumSizeIsRead() throws IOException {
+		String request = request("/");
+		String target = "/" + repeat('x', 1024 - request.length());
+		RequestReader reader = reader(request(target), 64, 1024);
+		assertRequest(reader.read(), target);
+	}
+
+	@Test
+	public void streamEndingWithinHeaderGivesNull() throws IOException {
+		RequestReader reader = reader("GET / HTTP/1.1\r\nHost: a\r\n", 5, 1024);
+		assertNull(reader.read());
+	}
+
+	@Test
+	public void awaitDataBuffersTheFirstBytes() throws IOException {
+		RequestReader reader = reader(REQUEST, 3, 1024);
+		assertTrue(reader.awaitData());
+		assertEquals(3, reader.available());
+		assertRequest(reader.read(), "/index.html");
+		assertFalse(reader.awaitData());
+	}
+
+	/**
+	 * Checks that a header is a valid GET request for the given target.
+	 * @param header the header
+	 * @param target the expected target
+	 */
+	private static void assertRequest(RequestHeader header, String target) {
+		assertTrue(header.isValid());
+		assertEquals("GET", header.getMethod());
+		assertEquals(target, header.getTarget());
+		assertEquals("localhost", header.getHeader("Host"));
+	}
+
+	/**
+	 * @param target a request target
+	 * @return a request header for the target
+	 */
+	private static String request(String target) {
+		return "GET " + target + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+	}
+
+	/**
+	 * @param c a character
+	 * @param count number of repetitions
+	 * @return the character repeated the given number of times
+	 */
+	private static String repeat(char c, int count) {
+		StringBuilder sb = new StringBuilder(count);
+		for(int i = 0; i < count; i++) {
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param data the bytes the stream delivers
+	 * @param chunk maximum number of bytes returned by a single read
+	 * @param maxHeaderSize maximum size of a header
+	 * @return a reader of the bytes
+	 */
+	private static RequestReader reader(String data, int chunk, int maxHeaderSize) {
+		return new RequestReader(
+				new ChunkedInputStream(data.getBytes(StandardCharsets.ISO_8859_1), chunk),
+				maxHeaderSize
+		);
+	}
+
+	/**
+	 * A stream which returns at most a fixed number of bytes per read, like
+	 * a socket on which a request arrives in several packets. It reports no
+	 * bytes as available, like a socket whose next packet is still on its
+	 * way.
+	 * @author 0036502252
+	 *
+	 */
+	private static class ChunkedInputStream extends InputStream {
+		/**
+		 * The delivered bytes.
+		 */
+		private final ByteArrayInputStream in;
+		/**
+		 * Maximum number of bytes returned by a single read.
+		 */
+		private final int chunk;
+
+		/**
+		 * Constructs a new {@link ChunkedInputStream}.
+		 * @param data the delivered bytes
+		 * @param chunk maximum number of bytes returned by a single read
+		 */
+		public ChunkedInputStream(byte[] data, int chunk) {
+			this.in = new ByteArrayInputStream(data);
+			this.chunk = chunk;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, chunk));
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+	}
+}
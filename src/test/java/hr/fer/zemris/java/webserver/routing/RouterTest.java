@@ -0,0 +1,167 @@
+package hr.fer.zemris.java.webserver.routing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests matching paths against literal, <code>*</code> and prefix routes 
+ * with {@link Router}, and the priority among them.
+ * @author 0036502252
+ *
+ */
+public class RouterTest {
+
+	@Test
+	public void literalRouteMatchesOnlyItsPath() {
+		Router<String> router = router("/hello", "hello", "/a/b/c", "abc");
+		assertRoute(router, "/hello", "hello", "");
+		assertRoute(router, "/a/b/c", "abc", "");
+		assertNull(router.route("/hello/"));
+		assertNull(router.route("/hell"));
+		assertNull(router.route("/a/b"));
+	}
+
+	@Test
+	public void wildcardMatchesOneNonEmptySegment() {
+		Router<String> router = router("/users/*/profile", "profile");
+		assertRoute(router, "/users/ana/profile", "profile", "");
+		assertNull(router.route("/users//profile"));
+		assertNull(router.route("/users/ana/bob/profile"));
+		assertNull(router.route("/users/ana"));
+	}
+
+	@Test
+	public void prefixMatchesTheRestOfThePath() {
+		Router<String> router = router("/ext/*", "ext");
+		assertRoute(router, "/ext/HelloWorker", "ext", "HelloWorker");
+		assertRoute(router, "/ext/a/b", "ext", "a/b");
+		assertRoute(router, "/ext/", "ext", "");
+		assertNull(router.route("/ext"));
+		assertNull(router.route("/extra/x"));
+	}
+
+	@Test
+	public void rootPrefixMatchesEverything() {
+		Router<String> router = router("/*", "all");
+		assertRoute(router, "/", "all", "");
+		assertRoute(router, "/a/b", "all", "a/b");
+	}
+
+	@Test
+	public void literalBeatsWildcard() {
+		Router<String> router = router("/a/*/x", "wildcard", "/a/b/x", "literal");
+		assertRoute(router, "/a/b/x", "literal", "");
+		assertRoute(router, "/a/c/x", "wildcard", "");
+	}
+
+	@Test
+	public void literalBeatsPrefix() {
+		Router<String> router = router("/ext/*", "ext", "/ext/special", "special");
+		assertRoute(router, "/ext/special", "special", "");
+		assertRoute(router, "/ext/other", "ext", "other");
+	}
+
+	@Test
+	public void literalSegmentBeatsWildcardInTheTrie() {
+		Router<String> router = router("/a/*/c", "wildcard", "/a/b/*", "literal");
+		assertRoute(router, "/a/b/c", "literal", "c");
+		assertRoute(router, "/a/x/c", "wildcard", "");
+	}
+
+	@Test
+	public void wildcardBeatsPrefix() {
+		Router<String> router = router("/a/*", "prefix", "/a/*/c", "wildcard");
+		assertRoute(router, "/a/b/c", "wildcard", "");
+		assertRoute(router, "/a/b/d", "prefix", "b/d");
+		assertRoute(router, "/a/b", "prefix", "b");
+	}
+
+	@Test
+	public void longerPrefixBeatsShorterOne() {
+		Router<String> router = router("/*", "root", "/static/*", "static");
+		assertRoute(router, "/static/css/site.css", "static", "css/site.css");
+		assertRoute(router, "/index.html", "root", "index.html");
+	}
+
+	@Test
+	public void fallsBackWhenTheLiteralBranchDoesNotMatch() {
+		Router<String> router = router("/a/b/x", "literal", "/a/*/c", "wildcard", 
+				"/*", "root");
+		assertRoute(router, "/a/b/x", "literal", "");
+		assertRoute(router, "/a/b/c", "wildcard", "");
+		assertRoute(router, "/a/b/d", "root", "a/b/d");
+	}
+
+	@Test
+	public void pathsWithoutLeadingSlashDoNotMatch() {
+		Router<String> router = router("/*", "root");
+		assertNull(router.route(""));
+		assertNull(router.route("index.html"));
+	}
+
+	@Test
+	public void emptyRouterMatchesNothing() {
+		Router<String> router = new Router<>(new LinkedHashMap<>());
+		assertEquals(0, router.size());
+		assertNull(router.route("/"));
+	}
+
+	@Test
+	public void sizeCountsAllRoutes() {
+		assertEquals(3, router("/a", "1", "/b/*", "2", "/c/*/d", "3").size());
+	}
+
+	@Test
+	public void validatesPatterns() {
+		assertTrue(Router.isValid("/"));
+		assertTrue(Router.isValid("/a/*/b"));
+		assertTrue(Router.isValid("/*"));
+		assertFalse(Router.isValid(""));
+		assertFalse(Router.isValid("a/b"));
+		assertFalse(Router.isValid("/a*"));
+		assertFalse(Router.isValid("/a/b*/c"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPatternWithoutLeadingSlash() {
+		router("hello", "hello");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsPartialWildcardSegment() {
+		router("/files/*.txt", "txt");
+	}
+
+	/**
+	 * Checks the route of a path.
+	 * @param router the router
+	 * @param path the path
+	 * @param target the expected target
+	 * @param remainder the expected remainder
+	 */
+	private static void assertRoute(Router<String> router, String path, 
+			String target, String remainder) {
+		Router.Match<String> match = router.route(path);
+		assertEquals(target, match == null ? null : match.getTarget());
+		assertEquals(remainder, match.getRemainder());
+	}
+
+	/**
+	 * @param routes alternating patterns and their targets
+	 * @return a router of the routes
+	 */
+	private static Router<String> router(String... routes) {
+		Map<String, String> map = new LinkedHashMap<>();
+		for(int i = 0; i < routes.length; i += 2) {
+			map.put(routes[i], routes[i + 1]);
+		}
+		return new Router<>(map);
+	}
+}
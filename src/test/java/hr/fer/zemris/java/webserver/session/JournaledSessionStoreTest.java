@@ -0,0 +1,306 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests restoring sessions from the snapshot and the journal of a 
+ * {@link JournaledSessionStore}, including damaged journals and journals
+ * left over from an older snapshot.
+ * @author 0036502252
+ *
+ */
+public class JournaledSessionStoreTest {
+	/**
+	 * Current time, in seconds.
+	 */
+	private static final long NOW = System.currentTimeMillis() / 1000;
+	/**
+	 * Expiry time of the tested sessions, in seconds.
+	 */
+	private static final long VALID_UNTIL = NOW + 600;
+
+	/**
+	 * Holds the store's directory.
+	 */
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+	/**
+	 * Directory of the snapshot and the journal.
+	 */
+	private Path directory;
+	/**
+	 * The store under test, closed after each test.
+	 */
+	private JournaledSessionStore store;
+
+	@Before
+	public void setUp() {
+		directory = folder.getRoot().toPath().resolve("sessions");
+	}
+
+	@After
+	public void tearDown() {
+		if(store != null) {
+			store.close();
+		}
+	}
+
+	@Test
+	public void emptyDirectoryRestoresNothing() throws IOException {
+		assertEquals(0, reopen());
+		assertTrue(Files.isRegularFile(journal(0)));
+	}
+
+	@Test
+	public void restoresSessionsFromTheJournal() throws IOException {
+		reopen();
+		SessionMapEntry first = create("bgcolor", "FF0000");
+		SessionMapEntry second = create("bgcolor", "00FF00");
+		SessionMapEntry removed = create("bgcolor", "0000FF");
+		store.remove(removed);
+		first.getMap().put("brojPoziva", "3");
+		store.update(first);
+
+		assertEquals(2, reopen());
+		assertEquals("3", store.get(first.getSid()).getMap().get("brojPoziva"));
+		assertEquals("00FF00", store.get(second.getSid()).getMap().get("bgcolor"));
+		assertNull(store.get(removed.getSid()));
+	}
+
+	@Test
+	public void dropsSessionsWhichExpiredMeanwhile() throws IOException {
+		reopen();
+		SessionMapEntry expired = store.create("localhost", NOW - 10);
+		SessionMapEntry valid = create("bgcolor", "FF0000");
+
+		assertEquals(1, reopen());
+		assertNull(store.get(expired.getSid()));
+		assertNotNull(store.get(valid.getSid()));
+	}
+
+	@Test
+	public void truncatedTailIsDroppedAndOverwritten() throws IOException {
+		reopen();
+		SessionMapEntry kept = create("bgcolor", "FF0000");
+		//changed sessions are written in no particular order
+		reopen();
+		SessionMapEntry torn = create("bgcolor", "00FF00");
+		store.close();
+		store = null;
+		truncate(journal(0), Files.size(journal(0)) - 3);
+
+		assertEquals(1, reopen());
+		assertNotNull(store.get(kept.getSid()));
+		assertNull(store.get(torn.getSid()));
+
+		//new records follow the last undamaged one
+		SessionMapEntry later = create("bgcolor", "0000FF");
+		assertEquals(2, reopen());
+		assertNotNull(store.get(kept.getSid()));
+		assertNotNull(store.get(later.getSid()));
+	}
+
+	@Test
+	public void corruptRecordEndsTheReplay() throws IOException {
+		reopen();
+		SessionMapEntry kept = create("bgcolor", "FF0000");
+		reopen();
+		long corruptStart = Files.size(journal(0));
+		SessionMapEntry corrupt = create("bgcolor", "00FF00");
+		reopen();
+		long corruptEnd = Files.size(journal(0));
+		SessionMapEntry afterCorrupt = create("bgcolor", "0000FF");
+		store.close();
+		store = null;
+
+		//damages a byte in the middle record's body
+		byte[] data = Files.readAllBytes(journal(0));
+		data[(int) (corruptStart + corruptEnd) / 2] ^= 0x55;
+		Files.write(journal(0), data);
+
+		assertEquals(1, reopen());
+		assertNotNull(store.get(kept.getSid()));
+		assertNull(store.get(corrupt.getSid()));
+		assertNull(store.get(afterCorrupt.getSid()));
+	}
+
+	@Test
+	public void journalWithoutHeaderIsReset() throws IOException {
+		reopen();
+		create("bgcolor", "FF0000");
+		store.close();
+		store = null;
+		truncate(journal(0), 5);
+
+		assertEquals(0, reopen());
+		SessionMapEntry entry = create("bgcolor", "00FF00");
+		assertEquals(1, reopen());
+		assertNotNull(store.get(entry.getSid()));
+	}
+
+	@Test
+	public void compactionHandsOverToTheNextGeneration() throws Exception {
+		reopen();
+		SessionMapEntry removed = create("bgcolor", "FF0000");
+		SessionMapEntry kept = create("bgcolor", "00FF00");
+		store.start(10, 0);
+		awaitFile(journal(1));
+		awaitDeleted(journal(0));
+
+		store.remove(removed);
+		SessionMapEntry later = create("bgcolor", "0000FF");
+		store.close();
+		store = null;
+
+		List<Path> journals = journals();
+		assertEquals(1, journals.size());
+
+		assertEquals(2, reopen());
+		assertNull(store.get(removed.getSid()));
+		assertNotNull(store.get(kept.getSid()));
+		assertNotNull(store.get(later.getSid()));
+		assertEquals(journals, journals());
+	}
+
+	@Test
+	public void journalOfAnOlderGenerationIsIgnored() throws Exception {
+		reopen();
+		SessionMapEntry removed = create("bgcolor", "FF0000");
+		store.close();
+		store = null;
+		byte[] stale = Files.readAllBytes(journal(0));
+
+		//the snapshot of generation 1 no longer has the session
+		reopen();
+		store.remove(store.get(removed.getSid()));
+		store.start(10, 0);
+		awaitFile(journal(1));
+		store.close();
+		store = null;
+
+		//left over by a compaction which stopped before deleting it
+		Files.write(journal(0), stale);
+		assertEquals(0, reopen());
+		assertNull(store.get(removed.getSid()));
+		assertFalse(Files.exists(journal(0)));
+		store.close();
+		store = null;
+
+		//renamed to the current generation, but its header still differs
+		Files.write(journal(1), stale);
+		assertEquals(0, reopen());
+		assertNull(store.get(removed.getSid()));
+		store.close();
+		store = null;
+		byte[] header = new byte[13];
+		System.arraycopy(Files.readAllBytes(journal(1)), 0, header, 0, 13);
+		stale[12] = 1;
+		byte[] expected = new byte[13];
+		System.arraycopy(stale, 0, expected, 0, 13);
+		assertArrayEquals(expected, header);
+	}
+
+	/**
+	 * Closes the current store, if any, and opens a new one on the same
+	 * directory.
+	 * @return the number of restored sessions
+	 * @throws IOException if the files cannot be read or created
+	 */
+	private int reopen() throws IOException {
+		if(store != null) {
+			store.close();
+		}
+		store = new JournaledSessionStore(new ConcurrentSessionStore(), directory);
+		return store.open(NOW);
+	}
+
+	/**
+	 * Creates a session with one parameter.
+	 * @param name the parameter's name
+	 * @param value the parameter's value
+	 * @return the session
+	 */
+	private SessionMapEntry create(String name, String value) {
+		SessionMapEntry entry = store.create("localhost", VALID_UNTIL);
+		entry.getMap().put(name, value);
+		store.update(entry);
+		return entry;
+	}
+
+	/**
+	 * @param generation a snapshot's generation
+	 * @return the path of the journal which continues the snapshot
+	 */
+	private Path journal(long generation) {
+		return directory.resolve("sessions-" + generation + ".journal");
+	}
+
+	/**
+	 * @return the journals in the store's directory
+	 * @throws IOException if the directory cannot be listed
+	 */
+	private List<Path> journals() throws IOException {
+		List<Path> journals = new ArrayList<>();
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(
+				directory, "*.journal")) {
+			stream.forEach(journals::add);
+		}
+		return journals;
+	}
+
+	/**
+	 * Shortens a file.
+	 * @param file the file
+	 * @param length its new length
+	 * @throws IOException if the file cannot be written
+	 */
+	private static void truncate(Path file, long length) throws IOException {
+		try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(length);
+		}
+	}
+
+	/**
+	 * Waits until a file exists, for at most ten seconds.
+	 * @param file the file
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static void awaitFile(Path file) throws InterruptedException {
+		for(int i = 0; i < 1000 && !Files.exists(file); i++) {
+			Thread.sleep(10);
+		}
+		assertTrue("Missing " + file, Files.exists(file));
+	}
+
+	/**
+	 * Waits until a file is deleted, for at most ten seconds.
+	 * @param file the file
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private static void awaitDeleted(Path file) throws InterruptedException {
+		for(int i = 0; i < 1000 && Files.exists(file); i++) {
+			Thread.sleep(10);
+		}
+		assertFalse("Not deleted " + file, Files.exists(file));
+	}
+}
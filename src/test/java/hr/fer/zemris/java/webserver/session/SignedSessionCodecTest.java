@@ -0,0 +1,245 @@
+package hr.fer.zemris.java.webserver.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests issuing and accepting client-side session tokens with 
+ * {@link SignedSessionCodec}.
+ * @author 0036502252
+ *
+ */
+public class SignedSessionCodecTest {
+	/**
+	 * Host the tokens are issued for.
+	 */
+	private static final String HOST = "www.example.com";
+	/**
+	 * Current time, in seconds.
+	 */
+	private static final long NOW = 1_000_000;
+	/**
+	 * Expiry time of the issued tokens, in seconds.
+	 */
+	private static final long VALID_UNTIL = NOW + 600;
+
+	@Test
+	public void decodesWhatItEncoded() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertTrue(SignedSessionCodec.isToken(token));
+
+		SessionMapEntry entry = codec.decode(token, HOST, NOW);
+		assertNotNull(entry);
+		assertEquals(token, entry.getSid());
+		assertEquals(HOST, entry.getHost());
+		assertEquals(VALID_UNTIL, entry.getValidUntil());
+		assertEquals(parameters(), entry.getMap());
+	}
+
+	@Test
+	public void decodesWhatItEncryptedWithoutRevealingIt() {
+		SignedSessionCodec codec = codec("secret", true);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertFalse(payloadContains(token, "bgcolor"));
+		assertEquals(parameters(), codec.decode(token, HOST, NOW).getMap());
+
+		String plain = codec("secret", false).encode(HOST, VALID_UNTIL, parameters());
+		assertTrue(payloadContains(plain, "bgcolor"));
+	}
+
+	@Test
+	public void encryptedTokensDifferForTheSameSession() {
+		SignedSessionCodec codec = codec("secret", true);
+		assertFalse(codec.encode(HOST, VALID_UNTIL, parameters())
+				.equals(codec.encode(HOST, VALID_UNTIL, parameters())));
+	}
+
+	@Test
+	public void nullParametersAreLeftOut() {
+		SignedSessionCodec codec = codec("secret", false);
+		Map<String, String> parameters = parameters();
+		parameters.put("removed", null);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters);
+		assertEquals(parameters(), codec.decode(token, HOST, NOW).getMap());
+	}
+
+	@Test
+	public void rejectsChangedPayload() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec.decode(changeCharAt(token, 0), HOST, NOW));
+		assertNull(codec.decode(changeCharAt(token, token.indexOf('.') / 2), HOST, NOW));
+	}
+
+	@Test
+	public void rejectsChangedSignature() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec.decode(changeCharAt(token, token.indexOf('.') + 1), HOST, NOW));
+		assertNull(codec.decode(token.substring(0, token.length() - 4), HOST, NOW));
+	}
+
+	@Test
+	public void rejectsPayloadOfAnotherToken() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		Map<String, String> forged = parameters();
+		forged.put("admin", "true");
+		String other = codec.encode(HOST, VALID_UNTIL, forged);
+
+		String spliced = other.substring(0, other.indexOf('.')) 
+				+ token.substring(token.indexOf('.'));
+		assertNull(codec.decode(spliced, HOST, NOW));
+	}
+
+	@Test
+	public void rejectsChangedEncryptedPayload() {
+		SignedSessionCodec codec = codec("secret", true);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec.decode(changeCharAt(token, token.indexOf('.') - 3), HOST, NOW));
+	}
+
+	@Test
+	public void rejectsTokenOfAnotherHost() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec.decode(token, "evil.example.com", NOW));
+	}
+
+	@Test
+	public void rejectsMalformedTokens() {
+		SignedSessionCodec codec = codec("secret", false);
+		assertNull(codec.decode("ABCDEFGHIJKLMNOPQRST", HOST, NOW));
+		assertNull(codec.decode("not*base64.at*all", HOST, NOW));
+		assertNull(codec.decode(".", HOST, NOW));
+		assertFalse(SignedSessionCodec.isToken("ABCDEFGHIJKLMNOPQRST"));
+	}
+
+	@Test
+	public void acceptsTokenUntilItExpires() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, VALID_UNTIL, parameters());
+		assertNotNull(codec.decode(token, HOST, VALID_UNTIL));
+		assertNull(codec.decode(token, HOST, VALID_UNTIL + 1));
+	}
+
+	@Test
+	public void cannotExtendTokenByChangingItsExpiry() {
+		SignedSessionCodec codec = codec("secret", false);
+		String token = codec.encode(HOST, NOW - 1, parameters());
+		assertNull(codec.decode(token, HOST, NOW));
+
+		byte[] payload = Base64.getUrlDecoder().decode(
+				token.substring(0, token.indexOf('.'))
+		);
+		payload[2] = 0x7F;
+		String extended = Base64.getUrlEncoder().withoutPadding().encodeToString(payload)
+				+ token.substring(token.indexOf('.'));
+		assertNull(codec.decode(extended, HOST, NOW));
+	}
+
+	@Test
+	public void serversSharingTheSecretAcceptEachOthersTokens() {
+		String token = codec("shared", true).encode(HOST, VALID_UNTIL, parameters());
+		assertEquals(parameters(), 
+				codec("shared", true).decode(token, HOST, NOW).getMap());
+	}
+
+	@Test
+	public void rotatedSecretRejectsOldTokens() {
+		SignedSessionCodec old = codec("old secret", false);
+		SignedSessionCodec rotated = codec("new secret", false);
+		String oldToken = old.encode(HOST, VALID_UNTIL, parameters());
+		assertNull(rotated.decode(oldToken, HOST, NOW));
+
+		String newToken = rotated.encode(HOST, VALID_UNTIL, parameters());
+		assertNotNull(rotated.decode(newToken, HOST, NOW));
+		assertNull(old.decode(newToken, HOST, NOW));
+	}
+
+	@Test
+	public void rotatedSecretRejectsOldEncryptedTokens() {
+		String token = codec("old secret", true).encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec("new secret", true).decode(token, HOST, NOW));
+	}
+
+	@Test
+	public void encryptedTokenNeedsEncryptionKey() {
+		String token = codec("secret", true).encode(HOST, VALID_UNTIL, parameters());
+		assertNull(codec("secret", false).decode(token, HOST, NOW));
+	}
+
+	@Test
+	public void doesNotIssueTokensLongerThanTheMaximum() {
+		SignedSessionCodec codec = new SignedSessionCodec(
+				"secret".getBytes(StandardCharsets.UTF_8), false, 200
+		);
+		Map<String, String> parameters = new HashMap<>();
+		StringBuilder value = new StringBuilder();
+		for(int i = 0; i < 200; i++) {
+			value.append('x');
+		}
+		parameters.put("big", value.toString());
+		assertNull(codec.encode(HOST, VALID_UNTIL, parameters));
+
+		String longToken = codec("secret", false).encode(HOST, VALID_UNTIL, parameters);
+		assertNull(codec.decode(longToken, HOST, NOW));
+	}
+
+	/**
+	 * @param secret the codec's secret
+	 * @param encrypt true if the codec encrypts the parameters
+	 * @return a codec which issues tokens of up to 4096 characters
+	 */
+	private static SignedSessionCodec codec(String secret, boolean encrypt) {
+		return new SignedSessionCodec(
+				secret.getBytes(StandardCharsets.UTF_8), encrypt, 4096
+		);
+	}
+
+	/**
+	 * @return the persistent parameters of the tested sessions
+	 */
+	private static Map<String, String> parameters() {
+		Map<String, String> parameters = new LinkedHashMap<>();
+		parameters.put("bgcolor", "FF0000");
+		parameters.put("brojPoziva", "42");
+		parameters.put("name", "Šić žaba");
+		return parameters;
+	}
+
+	/**
+	 * @param token a token
+	 * @param text a text
+	 * @return true if the token's decoded payload contains the text
+	 */
+	private static boolean payloadContains(String token, String text) {
+		byte[] payload = Base64.getUrlDecoder().decode(
+				token.substring(0, token.indexOf('.'))
+		);
+		return new String(payload, StandardCharsets.ISO_8859_1).contains(text);
+	}
+
+	/**
+	 * @param token a token
+	 * @param index index of a Base64 character in the token
+	 * @return the token with the character replaced by another one
+	 */
+	private static String changeCharAt(String token, int index) {
+		char c = token.charAt(index);
+		char replacement = c == 'A' ? 'B' : 'A';
+		return token.substring(0, index) + replacement + token.substring(index + 1);
+	}
+}